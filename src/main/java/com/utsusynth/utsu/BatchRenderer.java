@@ -0,0 +1,255 @@
+package com.utsusynth.utsu;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.common.base.Optional;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Provider;
+import com.utsusynth.utsu.common.exception.ErrorLogger;
+import com.utsusynth.utsu.engine.Engine;
+import com.utsusynth.utsu.engine.RenderMetrics;
+import com.utsusynth.utsu.engine.WavMixer;
+import com.utsusynth.utsu.files.FileHelper;
+import com.utsusynth.utsu.files.Ust12Reader;
+import com.utsusynth.utsu.files.Ust20Reader;
+import com.utsusynth.utsu.model.ModelModule;
+import com.utsusynth.utsu.model.song.Song;
+
+/**
+ * Renders UST files to WAV files without starting JavaFX. Songs render side by side, sharing
+ * voicebanks, the resampler cache and a single limit on how many resampler calls run at once.
+ *
+ * <p>
+ * Usage: BatchRenderer [--processes N] [--songs N] [--out DIR] [--builtin-resampler] PATH...
+ * where each path is a UST file or a directory to search for them.
+ */
+public class BatchRenderer {
+    private static final ErrorLogger errorLogger = ErrorLogger.getLogger();
+    private static final int WAV_HEADER_BYTES = 44;
+
+    private final Provider<Engine> engineProvider;
+    private final Ust12Reader ust12Reader;
+    private final Ust20Reader ust20Reader;
+
+    @Inject
+    public BatchRenderer(
+            Provider<Engine> engineProvider,
+            Ust12Reader ust12Reader,
+            Ust20Reader ust20Reader) {
+        this.engineProvider = engineProvider;
+        this.ust12Reader = ust12Reader;
+        this.ust20Reader = ust20Reader;
+    }
+
+    /**
+     * Renders every song, at most maxSongs at a time.
+     *
+     * @param outputDir Where to write WAV files, or absent to write each next to its UST.
+     * @return One result per UST file, in the same order.
+     */
+    public List<Result> renderAll(
+            List<File> ustFiles,
+            Optional<File> outputDir,
+            int maxSongs,
+            boolean useBuiltInResampler) {
+        ExecutorService songExecutor = Executors.newFixedThreadPool(maxSongs, runnable -> {
+            Thread thread = new Thread(runnable, "batch-render");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<Result>> futures = new ArrayList<>();
+        for (File ustFile : ustFiles) {
+            File wavFile = new File(
+                    outputDir.or(ustFile.getAbsoluteFile().getParentFile()),
+                    ustFile.getName().replaceFirst("(?i)\\.ust$", "") + ".wav");
+            futures.add(
+                    songExecutor.submit(() -> render(ustFile, wavFile, useBuiltInResampler)));
+        }
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException | ExecutionException e) {
+                errorLogger.logError(e);
+                results.add(new Result(ustFiles.get(i), Optional.absent()));
+            }
+        }
+        songExecutor.shutdown();
+        return results;
+    }
+
+    private Result render(File ustFile, File wavFile, boolean useBuiltInResampler) {
+        try {
+            Song song = loadSong(ustFile);
+            Engine engine = engineProvider.get();
+            engine.setUseBuiltInResampler(useBuiltInResampler);
+            if (!engine.renderWav(song, wavFile)) {
+                System.out.println("Nothing to render in " + ustFile);
+                return new Result(ustFile, Optional.absent());
+            }
+            System.out.println("Rendered " + ustFile + " to " + wavFile);
+            return new Result(ustFile, engine.getLastRenderMetrics());
+        } catch (Exception e) {
+            System.out.println("Unable to render " + ustFile);
+            errorLogger.logError(e);
+            return new Result(ustFile, Optional.absent());
+        }
+    }
+
+    private Song loadSong(File ustFile) throws IOException {
+        String content = FileHelper.readTextFile(ustFile);
+        if (content.contains("UST Version2.0")) {
+            return ust20Reader.loadSong(ustFile);
+        }
+        // If no version found, assume UST 1.2.
+        return ust12Reader.loadSong(ustFile);
+    }
+
+    /** Expands directories into the UST files inside them, sorted by path. */
+    static List<File> findUstFiles(List<File> paths) throws IOException {
+        List<File> ustFiles = new ArrayList<>();
+        for (File path : paths) {
+            if (!path.isDirectory()) {
+                ustFiles.add(path);
+                continue;
+            }
+            try (Stream<Path> walk = Files.walk(path.toPath())) {
+                ustFiles.addAll(
+                        walk.filter(Files::isRegularFile).map(Path::toFile)
+                                .filter(file -> file.getName().toLowerCase().endsWith(".ust"))
+                                .sorted().collect(Collectors.toList()));
+            }
+        }
+        return ustFiles;
+    }
+
+    /** Summarizes how quickly a batch of songs rendered. */
+    static String getReport(List<Result> results, double wallSeconds, int maxProcesses) {
+        int numRendered = 0;
+        int numNotes = 0;
+        int numCached = 0;
+        double audioSeconds = 0;
+        for (Result result : results) {
+            if (!result.metrics.isPresent()) {
+                continue;
+            }
+            RenderMetrics metrics = result.metrics.get();
+            numRendered++;
+            numNotes += metrics.getNumNotes();
+            numCached += metrics.getCacheHits();
+            audioSeconds += result.getAudioSeconds();
+        }
+        return String.format(
+                Locale.ROOT,
+                "Rendered %d of %d songs in %.1f s with up to %d processes: %d notes (%d cached), "
+                        + "%.1f s of audio, %.2f songs/min, %.1f notes/s, %.1fx real time",
+                numRendered,
+                results.size(),
+                wallSeconds,
+                maxProcesses,
+                numNotes,
+                numCached,
+                audioSeconds,
+                wallSeconds > 0 ? numRendered * 60 / wallSeconds : 0,
+                wallSeconds > 0 ? numNotes / wallSeconds : 0,
+                wallSeconds > 0 ? audioSeconds / wallSeconds : 0);
+    }
+
+    /** How one song's render went. Metrics are absent if it failed or had nothing to render. */
+    public static class Result {
+        private final File ustFile;
+        private final Optional<RenderMetrics> metrics;
+
+        Result(File ustFile, Optional<RenderMetrics> metrics) {
+            this.ustFile = ustFile;
+            this.metrics = metrics;
+        }
+
+        public File getUstFile() {
+            return ustFile;
+        }
+
+        public Optional<RenderMetrics> getMetrics() {
+            return metrics;
+        }
+
+        /** Length of the rendered audio, from the size of the 32-bit mono WAV file. */
+        public double getAudioSeconds() {
+            if (!metrics.isPresent()) {
+                return 0;
+            }
+            long sampleBytes = Math.max(0, metrics.get().getBytesWritten() - WAV_HEADER_BYTES);
+            return sampleBytes / 4.0 / WavMixer.SAMPLE_RATE;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int maxProcesses = Runtime.getRuntime().availableProcessors();
+        int maxSongs = Math.max(1, maxProcesses / 2);
+        Optional<File> outputDir = Optional.absent();
+        boolean useBuiltInResampler = false;
+        List<File> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--processes") && i + 1 < args.length) {
+                maxProcesses = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (args[i].equals("--songs") && i + 1 < args.length) {
+                maxSongs = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (args[i].equals("--out") && i + 1 < args.length) {
+                outputDir = Optional.of(new File(args[++i]));
+            } else if (args[i].equals("--builtin-resampler")) {
+                useBuiltInResampler = true;
+            } else {
+                paths.add(new File(args[i]));
+            }
+        }
+        if (paths.isEmpty()) {
+            System.out.println(
+                    "Usage: BatchRenderer [--processes N] [--songs N] [--out DIR] "
+                            + "[--builtin-resampler] PATH...");
+            System.exit(2);
+        }
+        // Resamplers and voicebanks are found relative to the working directory.
+        if (!new File("./assets").exists()) {
+            System.out.println("Current working directory: " + System.getProperty("user.dir"));
+            System.out.println("Please cd to JAR file's parent directory before running Utsu.");
+            System.exit(2);
+        }
+        if (outputDir.isPresent()) {
+            outputDir.get().mkdirs();
+        }
+
+        Injector injector =
+                Guice.createInjector(new UtsuModule(true, maxProcesses), new ModelModule());
+        BatchRenderer renderer = injector.getInstance(BatchRenderer.class);
+        List<File> ustFiles = findUstFiles(paths);
+        long startNanos = System.nanoTime();
+        List<Result> results =
+                renderer.renderAll(ustFiles, outputDir, maxSongs, useBuiltInResampler);
+        double wallSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+        for (Result result : results) {
+            if (result.metrics.isPresent()) {
+                System.out.println(result.ustFile + ": " + result.metrics.get());
+            } else {
+                System.out.println(result.ustFile + ": not rendered");
+            }
+        }
+        System.out.println(getReport(results, wallSeconds, maxProcesses));
+        boolean allRendered = results.stream().allMatch(result -> result.metrics.isPresent());
+        System.exit(allRendered ? 0 : 1);
+    }
+}
@@ -10,21 +10,48 @@ import com.google.inject.Singleton;
 import com.utsusynth.utsu.common.StatusBar;
 import com.utsusynth.utsu.common.i18n.Localizer;
 import com.utsusynth.utsu.common.i18n.NativeLocale;
+import com.utsusynth.utsu.common.prefs.EnginePreferences;
 import com.utsusynth.utsu.common.quantize.Quantizer;
 import com.utsusynth.utsu.common.quantize.Scaler;
 import com.utsusynth.utsu.controller.common.IconManager;
 import com.utsusynth.utsu.engine.Engine;
 import com.utsusynth.utsu.engine.ExternalProcessRunner;
 import com.utsusynth.utsu.engine.FrqGenerator;
+import com.utsusynth.utsu.engine.JavaResampler;
+import com.utsusynth.utsu.engine.PcmCache;
+import com.utsusynth.utsu.engine.PhraseCache;
+import com.utsusynth.utsu.engine.RenderService;
 import com.utsusynth.utsu.engine.Resampler;
+import com.utsusynth.utsu.engine.ResamplerCache;
+import com.utsusynth.utsu.engine.ResamplerScheduler;
+import com.utsusynth.utsu.engine.WavMixer;
 import com.utsusynth.utsu.engine.Wavtool;
+import com.utsusynth.utsu.files.FileHelper;
+import com.utsusynth.utsu.files.SoundFileReader;
 import javafx.fxml.FXMLLoader;
 
 public class UtsuModule extends AbstractModule {
+    private final boolean headless;
+    private final int maxProcesses;
+
+    public UtsuModule() {
+        this(false, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param headless Whether Utsu is running without JavaFX, so nothing can show progress.
+     * @param maxProcesses How many resampler calls may run at once across all songs.
+     */
+    public UtsuModule(boolean headless, int maxProcesses) {
+        this.headless = headless;
+        this.maxProcesses = maxProcesses;
+    }
 
     @Override
     protected void configure() {
         bind(StatusBar.class).asEagerSingleton();
+        // Shared by all songs so that cache file names are only worked out once.
+        bind(Resampler.class).in(Singleton.class);
     }
 
     @Provides
@@ -68,7 +95,14 @@ public class UtsuModule extends AbstractModule {
     }
 
     @Provides
-    private Engine provideEngine(Resampler resampler, Wavtool wavtool, StatusBar statusBar, ExternalProcessRunner runner) {
+    private Engine provideEngine(
+            Resampler resampler,
+            Wavtool wavtool,
+            WavMixer wavMixer,
+            JavaResampler javaResampler,
+            ResamplerScheduler scheduler,
+            StatusBar statusBar,
+            ExternalProcessRunner runner) {
         String os = System.getProperty("os.name").toLowerCase();
         String resamplerPath;
         String wavtoolPath;
@@ -87,12 +121,59 @@ public class UtsuModule extends AbstractModule {
         return new Engine(
                 resampler,
                 wavtool,
-                statusBar,
+                wavMixer,
+                javaResampler,
+                scheduler,
+                headless ? null : statusBar,
                 resamplerFile,
                 wavtoolFile,
                 runner);
     }
 
+    @Provides
+    @Singleton
+    private JavaResampler provideJavaResampler(SoundFileReader soundFileReader) {
+        // Shared by all open songs so that voicebank samples are only loaded once.
+        return new JavaResampler(soundFileReader);
+    }
+
+    @Provides
+    @Singleton
+    private ResamplerScheduler provideResamplerScheduler(ExternalProcessRunner runner) {
+        // Shared by all open songs so that they do not compete for the same cores.
+        return new ResamplerScheduler(runner, maxProcesses);
+    }
+
+    @Provides
+    @Singleton
+    private ResamplerCache provideResamplerCache() {
+        ResamplerCache cache = new ResamplerCache(
+                new File(FileHelper.getUtsuCacheDirectory()),
+                EnginePreferences.getCacheSizeLimit(),
+                EnginePreferences.getUsePackFiles());
+        cache.start();
+        return cache;
+    }
+
+    @Provides
+    @Singleton
+    private PcmCache providePcmCache() {
+        // Shared by all open songs. Kept off-heap, so this does not count against the heap.
+        return new PcmCache(256 * 1024 * 1024); // About 50 minutes of resampled notes.
+    }
+
+    @Provides
+    @Singleton
+    private PhraseCache providePhraseCache() {
+        return new PhraseCache(128 * 1024 * 1024); // About 12 minutes of mixed audio.
+    }
+
+    @Provides
+    @Singleton
+    private RenderService provideRenderService() {
+        return new RenderService();
+    }
+
     @Provides
     @Singleton
     private FrqGenerator provideFrqGenerator(ExternalProcessRunner runner) {
@@ -9,6 +9,10 @@ public class EnginePreferences {
     private static final String DEFAULT_VOICE_PATH = "assets/voice";
     private static final String ENGINE_PREFS_NODE = "UTSU/Preferences";
     private static final String ENGINE_PREFS_KEY_VOICE_DIR = "VoiceDir";
+    private static final String ENGINE_PREFS_KEY_CACHE_SIZE_MB = "CacheSizeMB";
+    private static final long DEFAULT_CACHE_SIZE_MB = 4096;
+    private static final String ENGINE_PREFS_KEY_CACHE_PACK_FILES = "CachePackFiles";
+    private static final String ENGINE_PREFS_KEY_WARM_UP_ON_OPEN = "WarmUpOnOpen";
 
     public static final File getVoiceDirectory() {
         var prefs = Preferences.userRoot().node(ENGINE_PREFS_NODE);
@@ -19,4 +23,37 @@ public class EnginePreferences {
         var prefs = Preferences.userRoot().node(ENGINE_PREFS_NODE);
         prefs.put(ENGINE_PREFS_KEY_VOICE_DIR, file.getCanonicalPath());
     }
-}
\ No newline at end of file
+
+    /** How many bytes of resampled notes to keep on disk before deleting old ones. */
+    public static final long getCacheSizeLimit() {
+        var prefs = Preferences.userRoot().node(ENGINE_PREFS_NODE);
+        return prefs.getLong(ENGINE_PREFS_KEY_CACHE_SIZE_MB, DEFAULT_CACHE_SIZE_MB) * 1024 * 1024;
+    }
+
+    public static final void setCacheSizeLimit(long bytes) {
+        var prefs = Preferences.userRoot().node(ENGINE_PREFS_NODE);
+        prefs.putLong(ENGINE_PREFS_KEY_CACHE_SIZE_MB, bytes / (1024 * 1024));
+    }
+
+    /** Whether resampled notes are kept in a few large pack files instead of one file each. */
+    public static final boolean getUsePackFiles() {
+        var prefs = Preferences.userRoot().node(ENGINE_PREFS_NODE);
+        return prefs.getBoolean(ENGINE_PREFS_KEY_CACHE_PACK_FILES, false);
+    }
+
+    public static final void setUsePackFiles(boolean usePackFiles) {
+        var prefs = Preferences.userRoot().node(ENGINE_PREFS_NODE);
+        prefs.putBoolean(ENGINE_PREFS_KEY_CACHE_PACK_FILES, usePackFiles);
+    }
+
+    /** Whether to resample a song's uncached notes in the background as soon as it is opened. */
+    public static final boolean getWarmUpOnOpen() {
+        var prefs = Preferences.userRoot().node(ENGINE_PREFS_NODE);
+        return prefs.getBoolean(ENGINE_PREFS_KEY_WARM_UP_ON_OPEN, true);
+    }
+
+    public static final void setWarmUpOnOpen(boolean warmUpOnOpen) {
+        var prefs = Preferences.userRoot().node(ENGINE_PREFS_NODE);
+        prefs.putBoolean(ENGINE_PREFS_KEY_WARM_UP_ON_OPEN, warmUpOnOpen);
+    }
+}
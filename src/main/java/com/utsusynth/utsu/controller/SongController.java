@@ -31,6 +31,7 @@ import com.utsusynth.utsu.common.exception.FileAlreadyOpenException;
 import com.utsusynth.utsu.common.i18n.Localizable;
 import com.utsusynth.utsu.common.i18n.Localizer;
 import com.utsusynth.utsu.common.i18n.NativeLocale;
+import com.utsusynth.utsu.common.prefs.EnginePreferences;
 import com.utsusynth.utsu.common.quantize.Quantizer;
 import com.utsusynth.utsu.common.quantize.Scaler;
 import com.utsusynth.utsu.common.utils.RoundUtils;
@@ -41,12 +42,16 @@ import com.utsusynth.utsu.controller.common.UndoService;
 import com.utsusynth.utsu.engine.Engine;
 import com.utsusynth.utsu.engine.Engine.PlaybackStatus;
 import com.utsusynth.utsu.engine.ExternalProcessRunner;
+import com.utsusynth.utsu.engine.RenderJob;
+import com.utsusynth.utsu.engine.RenderJob.Priority;
+import com.utsusynth.utsu.engine.RenderService;
 import com.utsusynth.utsu.files.FileHelper;
 import com.utsusynth.utsu.files.Ust12Reader;
 import com.utsusynth.utsu.files.Ust12Writer;
 import com.utsusynth.utsu.files.Ust20Reader;
 import com.utsusynth.utsu.files.Ust20Writer;
 import com.utsusynth.utsu.model.song.NoteIterator;
+import com.utsusynth.utsu.model.song.Song;
 import com.utsusynth.utsu.model.song.SongContainer;
 import com.utsusynth.utsu.view.song.Piano;
 import com.utsusynth.utsu.view.song.SongCallback;
@@ -79,6 +84,7 @@ import javafx.util.Duration;
  */
 public class SongController implements EditorController, Localizable {
     private static final ErrorLogger errorLogger = ErrorLogger.getLogger();
+    private static final double PRERENDER_DELAY_MS = 800; // Idle time after an edit.
 
     // User session data goes here.
     private EditorCallback callback;
@@ -86,6 +92,7 @@ public class SongController implements EditorController, Localizable {
     // Helper classes go here.
     private final SongContainer song;
     private final Engine engine;
+    private final RenderService renderService;
     private final SongEditor songEditor;
     private final Piano piano;
     private final Localizer localizer;
@@ -101,6 +108,8 @@ public class SongController implements EditorController, Localizable {
     private final IconManager iconManager;
     private final ExternalProcessRunner processRunner;
     private final Provider<FXMLLoader> fxmlLoaderProvider;
+    private PauseTransition prerenderDelay; // Restarted on every edit.
+    private RenderJob warmUpJob; // Resamples a newly opened song, until the user edits or plays.
 
     @FXML // fx:id="scrollPaneLeft"
     private ScrollPane scrollPaneLeft; // Value injected by FXMLLoader
@@ -145,6 +154,7 @@ public class SongController implements EditorController, Localizable {
     public SongController(
             SongContainer songContainer, // Inject an empty song.
             Engine engine,
+            RenderService renderService,
             SongEditor songEditor,
             Piano piano,
             Localizer localizer,
@@ -162,6 +172,7 @@ public class SongController implements EditorController, Localizable {
             Provider<FXMLLoader> fxmlLoaders) {
         this.song = songContainer;
         this.engine = engine;
+        this.renderService = renderService;
         this.songEditor = songEditor;
         this.piano = piano;
         this.localizer = localizer;
@@ -303,6 +314,10 @@ public class SongController implements EditorController, Localizable {
         briefPause.setOnFinished(event -> scrollToPosition(0));
         briefPause.play();
 
+        // Pre-render notes once the user stops editing.
+        prerenderDelay = new PauseTransition(Duration.millis(PRERENDER_DELAY_MS));
+        prerenderDelay.setOnFinished(event -> prerender());
+
         // Set up localization.
         localizer.localize(this);
     }
@@ -347,8 +362,10 @@ public class SongController implements EditorController, Localizable {
 
     @Override
     public void closeEditor() {
-        // Stop any ongoing playback.
+        // Stop any ongoing playback and rendering.
+        prerenderDelay.stop();
         engine.stopPlayback();
+        renderService.cancelAll(engine);
         // Remove this song from local memory.
         song.removeSong();
     }
@@ -520,6 +537,9 @@ public class SongController implements EditorController, Localizable {
                         PauseTransition briefPause = new PauseTransition(Duration.millis(10));
                         briefPause.setOnFinished(event -> scrollToPosition(0));
                         briefPause.play();
+                        if (EnginePreferences.getWarmUpOnOpen()) {
+                            warmUp(file.getName());
+                        }
                     });
                 } catch (Exception e) {
                     Platform.runLater(
@@ -635,6 +655,58 @@ public class SongController implements EditorController, Localizable {
         } else {
             menuItemManager.disableSave();
         }
+        prerenderDelay.playFromStart(); // Wait for the user to stop editing.
+        if (warmUpJob != null) {
+            warmUpJob.cancel(); // Edited notes would be resampled for nothing.
+            warmUpJob = null;
+        }
+    }
+
+    /**
+     * Resamples every note of a newly opened song that is not cached yet, so that the first
+     * playback does not have to. Gives way to playback and stops at the first edit.
+     */
+    private void warmUp(String fileName) {
+        Song snapshot = song.get().snapshot(); // Planned on the render thread.
+        warmUpJob = renderService.submit(engine, Priority.BACKGROUND, job -> {
+            List<String[]> coldNotes = engine.getColdNotes(snapshot);
+            if (coldNotes.isEmpty() || job.isCancelled()) {
+                Platform.runLater(() -> {
+                    if (warmUpJob == job) {
+                        warmUpJob = null;
+                    }
+                });
+                return;
+            }
+            Platform.runLater(() -> {
+                if (warmUpJob == job) {
+                    statusBar.setStatus("Pre-rendering " + fileName + "...");
+                }
+            });
+            boolean complete = engine.warmCache(coldNotes, job, true);
+            Platform.runLater(() -> {
+                if (warmUpJob == job) {
+                    warmUpJob = null;
+                    if (complete) {
+                        statusBar.setStatus("Pre-rendered " + fileName);
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * Resamples any notes that changed since the last render while the user is not doing
+     * anything, so that playback can mostly use the cache. Always gives way to foreground renders.
+     */
+    private void prerender() {
+        Song snapshot = song.get().snapshot(); // Planned on the render thread.
+        renderService.submit(engine, Priority.BACKGROUND, job -> {
+            List<String[]> coldNotes = engine.getColdNotes(snapshot);
+            if (!coldNotes.isEmpty() && !job.isCancelled()) {
+                engine.warmCache(coldNotes, job);
+            }
+        });
     }
 
     /** Allows users to alter properties of individual notes and note regions. */
@@ -718,7 +790,7 @@ public class SongController implements EditorController, Localizable {
         RegionBounds regionToPlay = songEditor.getPlayableTrack();
 
         Function<Duration, Void> startPlaybackFn = duration -> {
-            DoubleProperty playbackX = songEditor.startPlayback(regionToPlay, duration);
+            DoubleProperty playbackX = songEditor.startPlayback(regionToPlay, duration, engine::getPlaybackPosition);
             if (playbackX != null) {
                 // Implements autoscroll to follow playback bar.
                 playbackX.addListener(event -> {
@@ -732,6 +804,7 @@ public class SongController implements EditorController, Localizable {
             return null;
         };
         Runnable endPlaybackFn = () -> {
+            songEditor.stopPlayback();
             playPauseIcon.setImage(iconManager.getImage(IconType.PLAY_NORMAL));
         };
 
@@ -739,15 +812,23 @@ public class SongController implements EditorController, Localizable {
         playPauseIcon.setDisable(true);
 
         statusBar.setStatus("Rendering...");
-        new Thread(() -> {
-            if (engine.startPlayback(song.get(), regionToPlay, startPlaybackFn, endPlaybackFn)) {
+        Song snapshot = song.get().snapshot(); // Editing can carry on while this renders.
+        renderService.submit(engine, Priority.PLAYBACK, job -> {
+            if (engine.startPlayback(
+                    snapshot,
+                    regionToPlay,
+                    startPlaybackFn,
+                    endPlaybackFn,
+                    job)) {
                 playPauseIcon.setImage(iconManager.getImage(IconType.PAUSE_NORMAL));
                 Platform.runLater(() -> statusBar.setStatus("Render complete."));
+            } else if (job.isCancelled()) {
+                Platform.runLater(() -> statusBar.setStatus("Render cancelled."));
             } else {
                 Platform.runLater(() -> statusBar.setStatus("Render produced no output."));
             }
             playPauseIcon.setDisable(false);
-        }).start();
+        });
     }
 
     private void pausePlayback() {
@@ -776,14 +857,17 @@ public class SongController implements EditorController, Localizable {
         File file = fc.showSaveDialog(null);
         if (file != null) {
             statusBar.setStatus("Exporting...");
-            new Thread(() -> {
-                if (engine.renderWav(song.get(), file)) {
+            Song snapshot = song.get().snapshot(); // Editing can carry on while this exports.
+            renderService.submit(engine, Priority.EXPORT, job -> {
+                if (engine.renderWav(snapshot, file, job)) {
                     Platform.runLater(
                             () -> statusBar.setStatus("Exported to file: " + file.getName()));
+                } else if (job.isCancelled()) {
+                    Platform.runLater(() -> statusBar.setStatus("Export cancelled."));
                 } else {
                     Platform.runLater(() -> statusBar.setStatus("Export produced no output."));
                 }
-            }).start();
+            });
         }
     }
 
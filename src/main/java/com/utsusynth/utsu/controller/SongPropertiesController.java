@@ -14,6 +14,7 @@ import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.Slider;
 import javafx.scene.control.TextField;
@@ -70,6 +71,12 @@ public class SongPropertiesController implements Localizable {
     @FXML // fx:id="wavtoolName"
     private TextField wavtoolName; // Value injected by FXMLLoader
 
+    @FXML // fx:id="externalWavtoolCB"
+    private CheckBox externalWavtoolCB; // Value injected by FXMLLoader
+
+    @FXML // fx:id="builtInResamplerCB"
+    private CheckBox builtInResamplerCB; // Value injected by FXMLLoader
+
     @FXML // fx:id="voicebankLabel"
     private Label voicebankLabel;
 
@@ -126,6 +133,8 @@ public class SongPropertiesController implements Localizable {
         flagsTF.setText(songContainer.get().getFlags());
         resamplerName.setText(resamplerPath.getName());
         wavtoolName.setText(wavtoolPath.getName());
+        externalWavtoolCB.setSelected(engine.getUseExternalWavtool());
+        builtInResamplerCB.setSelected(engine.getUseBuiltInResampler());
         voicebankName.setText(voicebankContainer.get().getName());
         instrumentalName.setText(instrumentalPath.or(new File("")).getName());
 
@@ -164,6 +173,7 @@ public class SongPropertiesController implements Localizable {
         if (file != null) {
             resamplerPath = file;
             resamplerName.setText(resamplerPath.getName());
+            builtInResamplerCB.setSelected(false); // Assume a new resampler is meant to be used.
         }
     }
 
@@ -179,6 +189,7 @@ public class SongPropertiesController implements Localizable {
         if (file != null) {
             wavtoolPath = file;
             wavtoolName.setText(wavtoolPath.getName());
+            externalWavtoolCB.setSelected(true); // Assume a new wavtool is meant to be used.
         }
     }
 
@@ -222,6 +233,8 @@ public class SongPropertiesController implements Localizable {
                             .setInstrumental(instrumentalPath).build());
             engine.setResamplerPath(resamplerPath);
             engine.setWavtoolPath(wavtoolPath);
+            engine.setUseExternalWavtool(externalWavtoolCB.isSelected());
+            engine.setUseBuiltInResampler(builtInResamplerCB.isSelected());
             onSongChange.run();
         }).start();
         Stage currentStage = (Stage) root.getScene().getWindow();
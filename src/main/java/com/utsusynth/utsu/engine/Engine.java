@@ -2,12 +2,21 @@ package com.utsusynth.utsu.engine;
 
 import java.io.File;
 import java.io.IOException;
-import java.time.LocalTime;
-import java.time.temporal.ChronoUnit;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 import com.google.common.io.Files;
 import com.google.inject.Inject;
 import com.utsusynth.utsu.common.RegionBounds;
@@ -15,6 +24,9 @@ import com.utsusynth.utsu.common.StatusBar;
 import com.utsusynth.utsu.common.exception.ErrorLogger;
 import com.utsusynth.utsu.common.quantize.Quantizer;
 import com.utsusynth.utsu.common.utils.PitchUtils;
+import com.utsusynth.utsu.engine.RenderJob.Priority;
+import com.utsusynth.utsu.engine.ResamplerScheduler.Order;
+import com.utsusynth.utsu.engine.WavMixer.MixListener;
 import com.utsusynth.utsu.files.FileHelper;
 import com.utsusynth.utsu.files.ScriptHelper;
 import com.utsusynth.utsu.model.song.Note;
@@ -40,30 +52,55 @@ public class Engine {
 
     private final Resampler resampler;
     private final Wavtool wavtool;
+    private final WavMixer wavMixer;
+    private final JavaResampler javaResampler;
+    private final ResamplerScheduler scheduler;
     private final File tempDir;
     private final StatusBar statusBar;
     private final ExternalProcessRunner runner;
+    private final File metricsLog; // Summary of every render, one JSON object per line.
     private File resamplerPath;
     private File wavtoolPath;
+    private boolean useExternalWavtool = false; // Mix in-process unless told otherwise.
+    private boolean useBuiltInResampler = false; // Use resamplerPath unless told otherwise.
     private File lastRenderedFile = null;
+    private Optional<MixedSong> lastMix = Optional.absent(); // Last mix written to a temp file.
+    private RenderJob playbackJob = null; // Job behind the current playback, if any.
+    private Optional<RenderMetrics> lastMetrics = Optional.absent();
+
+    // Per-note render plans, reused until a note or its neighbors are marked dirty.
+    private final Map<Note, PlannedNote> plannedNotes =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    // Pitch strings by what they are worked out from, so they outlive the notes of a snapshot.
+    private final Cache<PitchInputs, String> pitchStrings =
+            CacheBuilder.newBuilder().maximumSize(4096).softValues().build();
 
     private MediaPlayer instrumentalPlayer; // Used for background music.
     private MediaPlayer mediaPlayer; // Used for audio playback.
+    private StreamingPlayer streamingPlayer; // Used for playback while rendering.
 
     @Inject
     public Engine(
             Resampler resampler,
             Wavtool wavtool,
+            WavMixer wavMixer,
+            JavaResampler javaResampler,
+            ResamplerScheduler scheduler,
             StatusBar statusBar,
             File resamplerPath,
             File wavtoolPath,
             ExternalProcessRunner runner) {
         this.resampler = resampler;
         this.wavtool = wavtool;
+        this.wavMixer = wavMixer;
+        this.javaResampler = javaResampler;
+        this.scheduler = scheduler;
         this.statusBar = statusBar;
         this.resamplerPath = resamplerPath;
         this.wavtoolPath = wavtoolPath;
         this.runner = runner;
+        this.metricsLog = new File(FileHelper.getUtsuDirectory(), "render-metrics.jsonl");
 
         // Create temporary directory for rendering.
         tempDir = Files.createTempDir();
@@ -92,18 +129,110 @@ public class Engine {
         this.wavtoolPath = wavtoolPath;
     }
 
+    public boolean getUseExternalWavtool() {
+        return useExternalWavtool;
+    }
+
+    /** Whether to call the wavtool at wavtoolPath instead of mixing notes in-process. */
+    public void setUseExternalWavtool(boolean useExternalWavtool) {
+        this.useExternalWavtool = useExternalWavtool;
+    }
+
+    public boolean getUseBuiltInResampler() {
+        return useBuiltInResampler;
+    }
+
+    /** Whether to render notes in-process instead of calling the resampler at resamplerPath. */
+    public void setUseBuiltInResampler(boolean useBuiltInResampler) {
+        this.useBuiltInResampler = useBuiltInResampler;
+    }
+
+    /** Returns timings for the most recent render, if there has been one. */
+    public Optional<RenderMetrics> getLastRenderMetrics() {
+        return lastMetrics;
+    }
+
     /**
      * Exports of region of a song to a WAV file.
      * 
      * @return Whether or not there is any sound to export.
      */
     public boolean renderWav(Song song, File finalDestination) {
-        Optional<File> finalSong = render(song, RegionBounds.WHOLE_SONG, finalDestination);
+        return renderWav(song, finalDestination, new RenderJob(Priority.EXPORT));
+    }
+
+    /**
+     * Exports a song to a WAV file as part of a render job.
+     *
+     * @return Whether or not there is any sound to export, false if the job was cancelled.
+     */
+    public boolean renderWav(Song song, File finalDestination, RenderJob job) {
+        Optional<File> finalSong = render(song, RegionBounds.WHOLE_SONG, finalDestination, job);
         return finalSong.isPresent();
     }
 
     /**
-     * Starts playback for a region of a song.
+     * Works out which notes of a song have not been resampled yet. Plans the whole song, so pass
+     * a snapshot and call this from a render job rather than the thread that edits the song.
+     *
+     * @return Resampler arguments for each cold note.
+     */
+    public List<String[]> getColdNotes(Song song) {
+        // Nothing is ever written to the destination, only the resampler cache is used.
+        File destination = new File(tempDir, "prerender.wav");
+        Optional<RenderPlan> plan = planRender(
+                song,
+                RegionBounds.WHOLE_SONG,
+                destination,
+                createMetrics(song, Priority.BACKGROUND));
+        if (!plan.isPresent()) {
+            return ImmutableList.of();
+        }
+        ImmutableList.Builder<String[]> resamplerLines = ImmutableList.builder();
+        for (String[] args : plan.get().getResamplerScriptLines()) {
+            if (args.length > 0) {
+                resamplerLines.add(args);
+            }
+        }
+        return resamplerLines.build();
+    }
+
+    /**
+     * Resamples notes into the cache without mixing them, so that a later render of the same
+     * notes can skip straight to mixing.
+     *
+     * @return Whether every note was resampled before the job was cancelled.
+     */
+    public boolean warmCache(List<String[]> coldNotes, RenderJob job) {
+        return warmCache(coldNotes, job, false);
+    }
+
+    /**
+     * Resamples notes into the cache without mixing them.
+     *
+     * @param showProgress Whether to move the status bar along as notes are resampled.
+     * @return Whether every note was resampled before the job was cancelled.
+     */
+    public boolean warmCache(List<String[]> coldNotes, RenderJob job, boolean showProgress) {
+        Consumer<File> onNoteFinished = showProgress ? getProgressReporter(coldNotes) : file -> {
+        };
+        ResamplerScheduler.Batch batch = scheduler.submit(
+                coldNotes,
+                Order.LONGEST_FIRST,
+                job.getPriority(),
+                this::resample,
+                packThen(onNoteFinished));
+        job.onCancel(batch::cancel);
+        boolean complete = batch.awaitAll() && !job.isCancelled();
+        if (showProgress) {
+            showProgress(1.0); // Nothing to mix, so the last step is free.
+        }
+        return complete;
+    }
+
+    /**
+     * Starts playback for a region of a song. When mixing in-process, playback starts as soon as
+     * the first notes are resampled and the rest of the region is rendered while it plays.
      * 
      * @return Whether or not there is any sound to play.
      */
@@ -112,35 +241,126 @@ public class Engine {
             RegionBounds bounds,
             Function<Duration, Void> startCallback,
             Runnable endCallback) {
+        return startPlayback(
+                song,
+                bounds,
+                startCallback,
+                endCallback,
+                new RenderJob(Priority.PLAYBACK));
+    }
+
+    /**
+     * Starts playback as part of a render job. Cancelling the job stops playback, and stopping
+     * playback cancels the job.
+     */
+    public boolean startPlayback(
+            Song song,
+            RegionBounds bounds,
+            Function<Duration, Void> startCallback,
+            Runnable endCallback,
+            RenderJob job) {
         stopPlayback(); // Clear existing playback, if present.
-        Optional<File> finalSong = render(song, bounds);
-        if (finalSong.isPresent()) {
-            // Play instrumental, if present.
-            if (song.getInstrumental().isPresent()) {
-                Media instrumental = new Media(song.getInstrumental().get().toURI().toString());
-                System.out.println(instrumental.getSource());
-                instrumentalPlayer = new MediaPlayer(instrumental);
-                instrumentalPlayer.play();
-            }
+        playbackJob = job;
+        if (!useExternalWavtool && !isAlreadyRendered(song, bounds, null)
+                && StreamingPlayer.isSupported()) {
+            return startStreamingPlayback(song, bounds, startCallback, endCallback, job);
+        }
+        Optional<File> finalSong = render(song, bounds, null, job);
+        if (finalSong.isPresent() && !job.isCancelled()) {
+            playInstrumental(song);
             Media media = new Media(finalSong.get().toURI().toString());
-            mediaPlayer = new MediaPlayer(media);
-            mediaPlayer.setOnReady(() -> startCallback.apply(media.getDuration()));
-            mediaPlayer.setOnEndOfMedia(() -> mediaPlayer.stop());
-            mediaPlayer.setOnStopped(() -> {
+            MediaPlayer player = new MediaPlayer(media);
+            player.setOnReady(() -> startCallback.apply(media.getDuration()));
+            player.setOnEndOfMedia(() -> player.stop());
+            player.setOnStopped(() -> {
                 endCallback.run();
                 if (instrumentalPlayer != null) {
                     instrumentalPlayer.stop();
                 }
             });
+            mediaPlayer = player;
             mediaPlayer.play();
         }
         return finalSong.isPresent();
     }
 
+    private boolean startStreamingPlayback(
+            Song song,
+            RegionBounds bounds,
+            Function<Duration, Void> startCallback,
+            Runnable endCallback,
+            RenderJob job) {
+        RenderMetrics metrics = createMetrics(song, job.getPriority());
+        Optional<RenderPlan> plan = planRender(song, bounds, null, metrics);
+        if (!plan.isPresent()) {
+            return false;
+        }
+        List<MixSegment> segments = plan.get().getMixSegments();
+        Duration duration = Duration.millis(WavMixer.getLengthMs(segments));
+        if (duration.lessThanOrEqualTo(Duration.ZERO)) {
+            return false;
+        }
+
+        // Resample notes in the order they will be played.
+        List<String[]> resamplerLines = plan.get().getResamplerScriptLines();
+        ResamplerScheduler.Batch batch = scheduler.submit(
+                resamplerLines,
+                Order.TIMELINE,
+                job.getPriority(),
+                this::resample,
+                packThen(getProgressReporter(resamplerLines)));
+        File finalSong = plan.get().getFinalSong();
+        IntPredicate awaitSegment =
+                index -> batch.await(segments.get(index).getInputFile().get());
+        StreamingPlayer player =
+                new StreamingPlayer(wavMixer, segments, finalSong, lastMix, awaitSegment);
+        streamingPlayer = player;
+        job.onCancel(() -> {
+            player.stop();
+            batch.cancel();
+        });
+        boolean started = player.start(complete -> {
+            batch.cancel();
+            finishMetrics(metrics, batch, finalSong, complete && !job.isCancelled());
+            if (complete && !job.isCancelled()) {
+                song.setRendered(bounds); // Cache region that was played.
+                lastRenderedFile = finalSong;
+                lastMix = Optional.of(new MixedSong(segments, finalSong));
+                showProgress(1.0);
+            }
+            Platform.runLater(() -> {
+                endCallback.run();
+                if (instrumentalPlayer != null) {
+                    instrumentalPlayer.stop();
+                }
+            });
+        });
+        if (!started || !player.awaitStart()) {
+            batch.cancel();
+            return false;
+        }
+        playInstrumental(song);
+        Platform.runLater(() -> startCallback.apply(duration));
+        return true;
+    }
+
+    private void playInstrumental(Song song) {
+        // Play instrumental, if present.
+        if (song.getInstrumental().isPresent()) {
+            Media instrumental = new Media(song.getInstrumental().get().toURI().toString());
+            System.out.println(instrumental.getSource());
+            instrumentalPlayer = new MediaPlayer(instrumental);
+            instrumentalPlayer.play();
+        }
+    }
+
     public void pausePlayback() {
         if (mediaPlayer != null) {
             mediaPlayer.pause();
         }
+        if (streamingPlayer != null) {
+            streamingPlayer.pause();
+        }
         if (instrumentalPlayer != null && instrumentalPlayer.getStatus().equals(Status.PLAYING)) {
             instrumentalPlayer.pause();
         }
@@ -150,18 +370,33 @@ public class Engine {
         if (mediaPlayer != null) {
             mediaPlayer.play();
         }
+        if (streamingPlayer != null) {
+            streamingPlayer.resume();
+        }
         if (instrumentalPlayer != null && instrumentalPlayer.getStatus().equals(Status.PAUSED)) {
             instrumentalPlayer.play();
         }
     }
 
     public void stopPlayback() {
+        if (playbackJob != null) {
+            playbackJob.cancel(); // Stop rendering anything that will no longer be played.
+            playbackJob = null;
+        }
         if (mediaPlayer != null) {
             mediaPlayer.stop();
+            mediaPlayer = null;
+        }
+        if (streamingPlayer != null) {
+            streamingPlayer.stop();
+            streamingPlayer = null;
         }
     }
 
     public PlaybackStatus getStatus() {
+        if (streamingPlayer != null) {
+            return streamingPlayer.getStatus();
+        }
         if (mediaPlayer != null) {
             switch (mediaPlayer.getStatus()) {
                 case PLAYING:
@@ -175,26 +410,195 @@ public class Engine {
         return PlaybackStatus.STOPPED;
     }
 
-    private Optional<File> render(Song song, RegionBounds bounds) {
-        return render(song, bounds, null);
+    /** Returns how far into the current playback the audio output actually is. */
+    public Duration getPlaybackPosition() {
+        if (streamingPlayer != null) {
+            return streamingPlayer.getPosition();
+        }
+        if (mediaPlayer != null) {
+            return mediaPlayer.getCurrentTime();
+        }
+        return Duration.ZERO;
     }
 
-    private Optional<File> render(Song song, RegionBounds bounds, File finalDestination) {
-        if (lastRenderedFile != null && lastRenderedFile.exists() && bounds.equals(song.getLastRenderedRegion())
-                && lastRenderedFile.getAbsolutePath() == finalDestination.getAbsolutePath()){
+    private Optional<File> render(
+            Song song,
+            RegionBounds bounds,
+            File finalDestination,
+            RenderJob job) {
+        if (isAlreadyRendered(song, bounds, finalDestination)) {
             // Return old final song if it has not been invalidated.
             return Optional.of(lastRenderedFile);
         }
 
-        File renderedSilence = new File(tempDir, "rendered_silence.wav");
+        RenderMetrics metrics = createMetrics(song, job.getPriority());
+        Optional<RenderPlan> plan = planRender(song, bounds, finalDestination, metrics);
+        if (!plan.isPresent()) {
+            return Optional.absent();
+        }
+        File finalSong = plan.get().getFinalSong();
+
+        List<String[]> resamplerLines = plan.get().getResamplerScriptLines();
+        ResamplerScheduler.Batch batch = scheduler.submit(
+                resamplerLines,
+                Order.LONGEST_FIRST,
+                job.getPriority(),
+                this::resample,
+                packThen(getProgressReporter(resamplerLines)));
+        job.onCancel(batch::cancel);
+        try {
+            List<MixSegment> segments = plan.get().getMixSegments();
+            if (useExternalWavtool) {
+                if (!batch.awaitAll() || job.isCancelled()) {
+                    finishMetrics(metrics, batch, finalSong, false);
+                    return Optional.absent();
+                }
+                long wavtoolStart = System.nanoTime();
+                new ScriptHelper(runner).runScriptSerial(plan.get().getWavtoolScriptLines());
+                metrics.addMixTime(System.nanoTime() - wavtoolStart);
+            } else {
+                // Mix each note as soon as it is ready rather than waiting for the whole batch.
+                long[] waitNanos = new long[1];
+                MixListener listener = new MixListener() {
+                    @Override
+                    public boolean awaitSegment(int segmentIndex) {
+                        long waitStart = System.nanoTime();
+                        File inputFile = segments.get(segmentIndex).getInputFile().get();
+                        boolean ready = batch.await(inputFile);
+                        waitNanos[0] += System.nanoTime() - waitStart;
+                        return ready;
+                    }
+
+                    @Override
+                    public boolean onBlockMixed(double[] block, int blockLength) {
+                        return !job.isCancelled();
+                    }
+                };
+                long mixStart = System.nanoTime();
+                boolean mixed = wavMixer.mix(segments, finalSong, listener, lastMix);
+                // Time spent waiting for the resampler is not mixing time.
+                metrics.addMixTime(System.nanoTime() - mixStart - waitNanos[0]);
+                if (!mixed || job.isCancelled()) {
+                    batch.cancel();
+                    finishMetrics(metrics, batch, finalSong, false);
+                    return Optional.absent();
+                }
+                if (finalDestination == null) {
+                    lastMix = Optional.of(new MixedSong(segments, finalSong));
+                }
+            }
+        } catch (IOException e) {
+            errorLogger.logError(e);
+            finishMetrics(metrics, batch, finalSong, false);
+            return Optional.absent();
+        }
+
+        finishMetrics(metrics, batch, finalSong, true);
+        showProgress(1.0); // Mark task as complete.
 
+        song.setRendered(bounds); // Cache region that was played.
+        lastRenderedFile = finalSong; // Save this for next time
+        return Optional.of(finalSong);
+    }
+
+    // The path written into resampler arguments, which also keeps each resampler's cache apart.
+    private File getActiveResamplerPath() {
+        return useBuiltInResampler ? JavaResampler.PATH : resamplerPath;
+    }
+
+    // Runs one resampler call with whichever resampler its arguments were planned for.
+    private void resample(String[] args, Consumer<Process> onStart) {
+        if (args[0].equals(JavaResampler.PATH.getAbsolutePath())) {
+            javaResampler.resample(args, onStart);
+        } else {
+            runner.getProcessOutput(args, onStart);
+        }
+    }
+
+    private RenderMetrics createMetrics(Song song, Priority priority) {
+        return new RenderMetrics(
+                priority.toString().toLowerCase(),
+                song.getVoicebank().getName(),
+                getActiveResamplerPath().getName(),
+                useExternalWavtool ? wavtoolPath.getName() : "in-process");
+    }
+
+    private void finishMetrics(
+            RenderMetrics metrics,
+            ResamplerScheduler.Batch batch,
+            File finalSong,
+            boolean completed) {
+        metrics.setResampleTimes(batch.getJobTimes());
+        metrics.setBytesWritten(finalSong.length());
+        metrics.finish(completed);
+        lastMetrics = Optional.of(metrics);
+        metrics.writeSummary(metricsLog);
+    }
+
+    /**
+     * Moves each resampled note into the cache's pack files before anyone waiting on it is told
+     * it is ready. The external wavtool can only read notes from their own files.
+     */
+    private Consumer<File> packThen(Consumer<File> onNoteFinished) {
+        if (useExternalWavtool) {
+            return onNoteFinished;
+        }
+        return file -> {
+            resampler.packCacheFile(file);
+            onNoteFinished.accept(file);
+        };
+    }
+
+    /** Moves the status bar along as each note is resampled, saving the last step for mixing. */
+    private Consumer<File> getProgressReporter(List<String[]> resamplerLines) {
+        Set<String> outputFiles = new HashSet<>();
+        for (String[] args : resamplerLines) {
+            if (args.length > 0) {
+                outputFiles.add(args[2]);
+            }
+        }
+        int numSteps = outputFiles.size() + 1;
+        AtomicInteger numFinished = new AtomicInteger(0);
+        showProgress(1.0 / numSteps);
+        return file -> showProgress((numFinished.incrementAndGet() + 1.0) / numSteps);
+    }
+
+    private void showProgress(double progress) {
+        if (statusBar != null) {
+            // If this is being used as a pure engine, this is not supported
+            Platform.runLater(() -> statusBar.setProgress(progress));
+        }
+    }
+
+    private boolean isAlreadyRendered(Song song, RegionBounds bounds, File finalDestination) {
+        return lastRenderedFile != null && lastRenderedFile.exists()
+                && bounds.equals(song.getLastRenderedRegion())
+                && (finalDestination == null || lastRenderedFile.equals(finalDestination));
+    }
+
+    /** Works out every resampler and wavtool call needed to render a region, in order. */
+    private Optional<RenderPlan> planRender(
+            Song song,
+            RegionBounds bounds,
+            File finalDestination,
+            RenderMetrics metrics) {
+        long planStart = System.nanoTime();
+        Optional<RenderPlan> plan =
+                planRenderImpl(song, bounds, finalDestination, metrics);
+        metrics.addPlanTime(System.nanoTime() - planStart);
+        return plan;
+    }
+
+    private Optional<RenderPlan> planRenderImpl(
+            Song song,
+            RegionBounds bounds,
+            File finalDestination,
+            RenderMetrics metrics) {
         NoteIterator notes = song.getNoteIterator(bounds);
         if (!notes.hasNext()) {
             return Optional.absent();
         }
 
-        LocalTime startTime = LocalTime.now();
-        
         int totalDelta = notes.getCurDelta(); // Absolute position of current note.
         Voicebank voicebank = song.getVoicebank();
         boolean isFirstNote = true;
@@ -210,29 +614,14 @@ public class Engine {
                 return Optional.absent();
             }
         }
-
-        // Holds all of the script lines for resampler and wavtool
-        ArrayList<String[]> wavtoolScriptLines = new ArrayList<>();
-        ArrayList<String[]> resamplerScriptLines = new ArrayList<>();
+        RenderPlan plan = new RenderPlan(finalSong);
 
         while (notes.hasNext()) {
             Note note = notes.next();
             totalDelta += note.getDelta(); // Unique for every note in a single sequence.
 
             // Get lyric config.
-            Optional<LyricConfig> config = Optional.absent();
-            if (!note.getTrueLyric().isEmpty()) {
-                config = voicebank.getLyricConfig(note.getTrueLyric());
-            }
-            if (!config.isPresent()) {
-                // Make one last valiant effort to find the true lyric.
-                String prevLyric = getNearbyPrevLyric(notes.peekPrev());
-                String pitch = PitchUtils.noteNumToPitch(note.getNoteNum());
-                config = voicebank.getLyricConfig(prevLyric, note.getLyric(), pitch);
-                if (config.isPresent()) {
-                    note.setTrueLyric(config.get().getTrueLyric());
-                }
-            }
+            Optional<LyricConfig> config = findLyricConfig(note, notes.peekPrev(), voicebank);
 
             // Find preutterance of current and next notes.
             double preutter = note.getRealPreutter();
@@ -245,7 +634,10 @@ public class Engine {
             if (isFirstNote) {
                 if (notes.getCurDelta() - preutter > bounds.getMinMs()) {
                     double startDelta = notes.getCurDelta() - preutter - bounds.getMinMs();
-                    addSilence(startDelta, song, renderedSilence, finalSong, resamplerScriptLines, wavtoolScriptLines);
+                    addSilence(
+                            startDelta,
+                            song,
+                            plan);
                 }
                 isFirstNote = false;
             }
@@ -257,19 +649,13 @@ public class Engine {
                     addSilence(
                             note.getLength() - notes.peekNext().get().getRealPreutter(),
                             song,
-                            renderedSilence,
-                            finalSong,
-                            resamplerScriptLines,
-                            wavtoolScriptLines);
+                            plan);
                 } else {
                     // Case where the last note in the song is silent.
                     addFinalSilence(
                             note.getLength(),
                             song,
-                            renderedSilence,
-                            finalSong,
-                            resamplerScriptLines,
-                            wavtoolScriptLines);
+                            plan);
                 }
                 continue;
             }
@@ -277,52 +663,107 @@ public class Engine {
             // Adjust note length based on preutterance/overlap.
             double adjustedLength =
                     note.getRealDuration() > -1 ? note.getRealDuration() : note.getDuration();
-            System.out.println("Length is " + adjustedLength);
-
-            // Calculate pitchbends.
-            int firstStep = getFirstPitchStep(totalDelta, preutter);
-            int lastStep = getLastPitchStep(totalDelta, preutter, adjustedLength);
-            String pitchString = song.getPitchString(firstStep, lastStep, note.getNoteNum());
 
             final LyricConfig curConfig = config.get();
-            final boolean includeOverlap =
-                    areNotesTouching(notes.peekPrev(), voicebank, Optional.of(preutter));
+            final boolean includeOverlap = areNotesTouching(
+                    notes.peekPrev(),
+                    notes.peekPrev().isPresent() && findLyricConfig(
+                            notes.peekPrev().get(),
+                            notes.peekPrevPrev(),
+                            voicebank).isPresent(),
+                    Optional.of(preutter));
             final boolean isLastNote = !notes.peekNext().isPresent();
 
-            File resampleCacheFile = resampler.getResampleCacheFile(
-                    resamplerPath,
-                    note,
-                    adjustedLength,
-                    curConfig,
-                    pitchString,
-                    song);
-
-            String[] resampleScriptLine = resampler.getResampleArgsNotCached(
-                    resamplerPath,
-                    note,
-                    adjustedLength,
-                    curConfig,
-                    resampleCacheFile,
-                    pitchString,
-                    song);
-
-            String[] wavScript = wavtool.getNewNoteArgs(
-                    wavtoolPath,
-                    song,
-                    note,
-                    adjustedLength,
-                    curConfig,
-                    resampleCacheFile,
-                    finalSong,
-                    includeOverlap,
-                    isLastNote);
-
-            resamplerScriptLines.add(resampleScriptLine);        
-            wavtoolScriptLines.add(wavScript);
+            if (!useExternalWavtool) {
+                // Reuse the last plan for this note if nothing it depends on has changed,
+                // including the sample file it is rendered from.
+                String settings = song.getTempo() + " " + song.getFlags() + " "
+                        + getActiveResamplerPath() + " " + curConfig + " " + includeOverlap + " "
+                        + resampler.getFingerprint(curConfig.getPathToFile());
+                PlannedNote planned = plannedNotes.get(note);
+                if (planned == null || !planned.isValidFor(
+                        note,
+                        notes.peekPrev(),
+                        notes.peekNext(),
+                        totalDelta,
+                        settings)) {
+                    String[] args = resampler.getResampleArgsToCache(
+                            getActiveResamplerPath(),
+                            note,
+                            adjustedLength,
+                            curConfig,
+                            getPitchString(
+                                    song,
+                                    note,
+                                    notes,
+                                    totalDelta,
+                                    preutter,
+                                    adjustedLength,
+                                    metrics),
+                            song);
+                    MixSegment segment = wavtool.getNewNoteSegment(
+                            song,
+                            note,
+                            adjustedLength,
+                            curConfig,
+                            new File(args[2]),
+                            includeOverlap);
+                    planned = new PlannedNote(
+                            note,
+                            notes.peekPrev(),
+                            notes.peekNext(),
+                            totalDelta,
+                            settings,
+                            args,
+                            segment);
+                    plannedNotes.put(note, planned);
+                }
+                resampler.recordCacheUse(planned.getCacheFile());
+                boolean cached = resampler.isCached(planned.getCacheFile());
+                metrics.addNote(cached);
+                plan.addResamplerLine(
+                        cached ? new String[0] : planned.getResamplerArgs().clone());
+                plan.addMixSegment(planned.getMixSegment());
+            } else {
+                String pitchString = getPitchString(
+                        song,
+                        note,
+                        notes,
+                        totalDelta,
+                        preutter,
+                        adjustedLength,
+                        metrics);
+
+                // Builds the arguments and cache key once, for both the file and the script.
+                String[] resampleArgs = resampler.getResampleArgsToCache(
+                        getActiveResamplerPath(),
+                        note,
+                        adjustedLength,
+                        curConfig,
+                        pitchString,
+                        song);
+                File resampleCacheFile = new File(resampleArgs[2]);
+                // The external wavtool can only read notes from their own files.
+                String[] resampleScriptLine =
+                        resampleCacheFile.exists() ? new String[0] : resampleArgs;
+
+                metrics.addNote(resampleScriptLine.length == 0);
+                plan.addResamplerLine(resampleScriptLine);
+                plan.addWavtoolLine(wavtool.getNewNoteArgs(
+                        wavtoolPath,
+                        song,
+                        note,
+                        adjustedLength,
+                        curConfig,
+                        resampleCacheFile,
+                        finalSong,
+                        includeOverlap,
+                        isLastNote));
+            }
 
             // Possible silence after each note.
             if (notes.peekNext().isPresent()
-                    && !areNotesTouching(Optional.of(note), voicebank, nextPreutter)) {
+                    && !areNotesTouching(Optional.of(note), true, nextPreutter)) {
                 // Add silence
                 double silenceLength;
                 if (nextPreutter.isPresent()) {
@@ -330,80 +771,78 @@ public class Engine {
                 } else {
                     silenceLength = note.getLength() - note.getDuration();
                 }
-                addSilence(silenceLength, song, renderedSilence, finalSong, resamplerScriptLines, wavtoolScriptLines);
+                addSilence(
+                        silenceLength,
+                        song,
+                        plan);
             }
         }
 
-        try {
-            final ScriptHelper scriptHelper = new ScriptHelper(runner);
-            scriptHelper.runScriptParallel(resamplerScriptLines);
-            scriptHelper.runScriptSerial(wavtoolScriptLines);
-
-            LocalTime finishTime = LocalTime.now();
-            System.out.println("Rendered region in " + ChronoUnit.SECONDS.between(startTime, finishTime) + " seconds");
-
-        } catch (IOException e) {
-            errorLogger.logError(e);
-            return Optional.absent();
-        }
-
-        if (statusBar != null) {
-            // If this is being used as a pure engine, this is not supported
-            Platform.runLater(() -> statusBar.setProgress(1.0)); // Mark task as complete.
-        }
-
-        song.setRendered(bounds); // Cache region that was played.
-        lastRenderedFile = finalSong; // Save this for next time
-        return Optional.of(finalSong);
+        return Optional.of(plan);
     }
 
-    private void addSilence(
-            double duration,
-            Song song,
-            File renderedNote,
-            File finalSong,
-            ArrayList<String[]> resamplerScriptLines,
-            ArrayList<String[]> wavtoolScriptLines) {
+    private void addSilence(double duration, Song song, RenderPlan plan) {
 
         double trueDuration = duration * (125.0 / song.getTempo());
 
-        addSilenceImpl(trueDuration, false, song, renderedNote, finalSong, resamplerScriptLines, wavtoolScriptLines);
+        addSilenceImpl(trueDuration, false, plan);
     }
 
-    private void addFinalSilence(
-            double duration,
-            Song song,
-            File renderedNote,
-            File finalSong,
-            ArrayList<String[]> resamplerScriptLines,
-            ArrayList<String[]> wavtoolScriptLines) {
+    private void addFinalSilence(double duration, Song song, RenderPlan plan) {
  
         // The final note must be passed to the wavtool.
         double trueDuration = Math.max(duration, 0) * (125.0 / song.getTempo());
 
-        addSilenceImpl(trueDuration, true, song, renderedNote, finalSong, resamplerScriptLines, wavtoolScriptLines);
+        addSilenceImpl(trueDuration, true, plan);
     }
 
-    private void addSilenceImpl(
-            double trueDuration,
-            boolean isFinal,
-            Song song,
-            File renderedNote,
-            File finalSong,
-            ArrayList<String[]> resamplerScriptLines,
-            ArrayList<String[]> wavtoolScriptLines) {
+    private void addSilenceImpl(double trueDuration, boolean isFinal, RenderPlan plan) {
 
         if (trueDuration <= 0.0) {
             // Is this right for Final silence??
             return;
         }
-        
-        File resampleCacheFile = resampler.getResampleSilenceCacheFile(resamplerPath, trueDuration);
-        String[] resampleScriptLine = resampler.getResampleSilenceArgsNotCached(resamplerPath, resampleCacheFile, trueDuration);
-        String[] wavtoolScriptLine = wavtool.getSilenceArgs(wavtoolPath, trueDuration, resampleCacheFile, finalSong, isFinal);
 
-        resamplerScriptLines.add(resampleScriptLine);
-        wavtoolScriptLines.add(wavtoolScriptLine);
+        if (!useExternalWavtool) {
+            // The in-process mixer has no need for a rendered silence file.
+            plan.addMixSegment(MixSegment.silence(trueDuration));
+            return;
+        }
+
+        // The wavtool still needs an input file, but silence is written directly, not resampled.
+        File silenceFile;
+        try {
+            silenceFile = wavtool.getSilenceFile(trueDuration);
+        } catch (IOException e) {
+            errorLogger.logError(e);
+            return;
+        }
+        plan.addWavtoolLine(wavtool.getSilenceArgs(
+                wavtoolPath,
+                trueDuration,
+                silenceFile,
+                plan.getFinalSong(),
+                isFinal));
+    }
+
+    /**
+     * Finds the lyric config a note renders with. Songs may be snapshots that several renders
+     * share, so the true lyric found here is never written back into the note.
+     */
+    private static Optional<LyricConfig> findLyricConfig(
+            Note note,
+            Optional<Note> prev,
+            Voicebank voicebank) {
+        if (!note.getTrueLyric().isEmpty()) {
+            Optional<LyricConfig> config = voicebank.getLyricConfig(note.getTrueLyric());
+            if (config.isPresent()) {
+                return config;
+            }
+        }
+        // Make one last valiant effort to find the true lyric.
+        String prevLyric = getNearbyPrevLyric(prev);
+        String pitch = PitchUtils.noteNumToPitch(note.getNoteNum());
+        return voicebank.getLyricConfig(prevLyric, note.getLyric(), pitch);
     }
 
     // Returns empty string if there is no nearby (within DEFAULT_NOTE_DURATION) previous note.
@@ -415,6 +854,39 @@ public class Engine {
         return "";
     }
 
+    // Reuses the note's last pitch string unless the pitch curve around it has changed.
+    private String getPitchString(
+            Song song,
+            Note note,
+            NoteIterator notes,
+            int totalDelta,
+            double preutter,
+            double adjustedLength,
+            RenderMetrics metrics) {
+        long pitchStart = System.nanoTime();
+        PitchInputs inputs = PitchInputs.of(
+                getFirstPitchStep(totalDelta, preutter),
+                getLastPitchStep(totalDelta, preutter, adjustedLength),
+                song.getTempo(),
+                note,
+                totalDelta,
+                notes.peekPrevPrev(),
+                notes.peekPrev(),
+                notes.peekNext());
+        String pitchString = pitchStrings.getIfPresent(inputs);
+        boolean reused = pitchString != null;
+        if (!reused) {
+            pitchString = song.getPitchString(
+                    inputs.getFirstStep(),
+                    inputs.getLastStep(),
+                    note.getNoteNum());
+            pitchStrings.put(inputs, pitchString);
+        }
+        metrics.addPitchString(reused);
+        metrics.addPitchTime(System.nanoTime() - pitchStart);
+        return pitchString;
+    }
+
     private static int getFirstPitchStep(int totalDelta, double preutter) {
         return (int) Math.ceil((totalDelta - preutter) / 5.0);
     }
@@ -426,14 +898,14 @@ public class Engine {
     // Determines whether two notes are "touching" given the second note's preutterance.
     private static boolean areNotesTouching(
             Optional<Note> note,
-            Voicebank voicebank,
+            boolean canRenderNote,
             Optional<Double> nextPreutter) {
         if (!note.isPresent() || !nextPreutter.isPresent()) {
             return false;
         }
 
         // Return false if current note cannot be rendered.
-        if (!voicebank.getLyricConfig(note.get().getTrueLyric()).isPresent()) {
+        if (!canRenderNote) {
             return false;
         }
 
@@ -5,6 +5,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 import com.utsusynth.utsu.common.exception.ErrorLogger;
 import com.utsusynth.utsu.files.FileHelper;
@@ -17,13 +20,16 @@ import org.apache.commons.io.IOUtils;
 public class ExternalProcessRunner {
     private static final ErrorLogger errorLogger = ErrorLogger.getLogger();
 
-    private Process curProcess;
+    // Every process started by this runner that has not yet finished.
+    private final Set<Process> liveProcesses = ConcurrentHashMap.newKeySet();
 
     public ExternalProcessRunner() {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             // Destroy any ongoing processes when Utsu closes.
-            if (curProcess != null && curProcess.isAlive()) {
-                curProcess.destroy();
+            for (Process process : liveProcesses) {
+                if (process.isAlive()) {
+                    process.destroy();
+                }
             }
         }));
     }
@@ -38,12 +44,18 @@ public class ExternalProcessRunner {
         if (workingDir != null) {
             builder.directory(workingDir);
         }
+        Process process = null;
         try {
-            curProcess = builder.start();
-            watch(curProcess.getInputStream());
-            curProcess.waitFor();
+            process = builder.start();
+            liveProcesses.add(process);
+            watch(process.getInputStream());
+            process.waitFor();
         } catch (IOException | InterruptedException e) {
             errorLogger.logError(e);
+        } finally {
+            if (process != null) {
+                liveProcesses.remove(process);
+            }
         }
     }
 
@@ -84,10 +96,23 @@ public class ExternalProcessRunner {
     }
     
     public String getProcessOutput(final String[] args) {
+        return getProcessOutput(args, process -> {
+        });
+    }
 
+    /**
+     * Runs a process and returns its output.
+     *
+     * @param onStart Receives the process as soon as it starts, so callers can destroy it early.
+     */
+    public String getProcessOutput(final String[] args, Consumer<Process> onStart) {
+        Process process = null;
         try {
             // Kick off the process
             final Process curProcess = Runtime.getRuntime().exec(args);
+            process = curProcess;
+            liveProcesses.add(curProcess);
+            onStart.accept(curProcess);
 
             // Kick off a thread to handle errors
             new Thread() {
@@ -116,6 +141,10 @@ public class ExternalProcessRunner {
         } catch (IOException | InterruptedException e) {
             errorLogger.logError(e);
             return null;
+        } finally {
+            if (process != null) {
+                liveProcesses.remove(process);
+            }
         }
     }
 
@@ -0,0 +1,430 @@
+package com.utsusynth.utsu.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.inject.Inject;
+import com.utsusynth.utsu.common.data.FrequencyData;
+import com.utsusynth.utsu.common.data.WavData;
+import com.utsusynth.utsu.common.exception.ErrorLogger;
+import com.utsusynth.utsu.common.utils.PitchUtils;
+import com.utsusynth.utsu.engine.ResampleCacheKey.FileFingerprint;
+import com.utsusynth.utsu.files.SoundFileReader;
+import com.utsusynth.utsu.model.voicebank.LyricConfig;
+
+/**
+ * Built-in resampler that runs in-process instead of starting an external program for every note.
+ * Shifts pitch and stretches the vowel with pitch-synchronous overlap-add, reading each sample's
+ * pitch from its frq file. Flags are not supported.
+ */
+public class JavaResampler implements ResamplerEngine {
+    /** Stands in for a resampler path in resampler arguments, so cache files stay separate. */
+    public static final File PATH = new File("utsu-builtin-resampler");
+
+    private static final ErrorLogger errorLogger = ErrorLogger.getLogger();
+    private static final int SAMPLE_RATE = WavMixer.SAMPLE_RATE;
+    private static final double MIN_FREQ = 60;
+    private static final double MAX_FREQ = 1100;
+    private static final double UNVOICED_PERIOD = SAMPLE_RATE * 0.005; // Grain spacing, 5ms.
+
+    private final SoundFileReader soundFileReader;
+    // Voicebank samples, shared across threads. Keyed by fingerprint too, so edits are picked up.
+    private final LoadingCache<SourceKey, Source> sources;
+
+    @Inject
+    public JavaResampler(SoundFileReader soundFileReader) {
+        this.soundFileReader = soundFileReader;
+        this.sources = CacheBuilder.newBuilder().maximumSize(256).softValues()
+                .build(new CacheLoader<SourceKey, Source>() {
+                    @Override
+                    public Source load(SourceKey key) throws IOException {
+                        return loadSource(key.wavFile);
+                    }
+                });
+    }
+
+    /** Renders a note, or writes nothing and logs an error if its sample cannot be read. */
+    @Override
+    public void resample(String[] args, Consumer<Process> onStart) {
+        File outputFile = new File(args[2]);
+        try {
+            Source source = sources.get(new SourceKey(new File(args[1])));
+            double[] rendered = render(source, args);
+            writeWav(rendered, outputFile);
+        } catch (ExecutionException | RuntimeException | IOException e) {
+            errorLogger.logError(e);
+        }
+    }
+
+    private double[] render(Source source, String[] args) {
+        double noteFreq = 440 * Math.pow(2, (PitchUtils.pitchToNoteNum(args[3]) - 69) / 12.0);
+        double velocity = parseDouble(args, 4, 100);
+        double offsetMs = parseDouble(args, 6, 0);
+        double lengthMs = parseDouble(args, 7, 0);
+        double consonantMs = parseDouble(args, 8, 0);
+        double cutoffMs = parseDouble(args, 9, 0);
+        double intensity = parseDouble(args, 10, 100);
+        double modulation = parseDouble(args, 11, 0);
+        double tempo = args.length > 12 ? parseDouble(args[12].substring(1), 125) : 125;
+        int[] pitchbends = args.length > 13 ? decodePitchbends(args[13]) : new int[0];
+
+        // Work out which part of the sample to use. Negative cutoffs count from the offset.
+        int numSource = source.samples.length;
+        int start = clamp(msToSamples(offsetMs), 0, numSource);
+        int end = cutoffMs < 0 ? start + msToSamples(-cutoffMs) : numSource - msToSamples(cutoffMs);
+        end = clamp(end, start, numSource);
+        if (end <= start) {
+            end = numSource;
+        }
+        int consonantEnd = clamp(start + msToSamples(consonantMs), start, end);
+
+        // Higher velocity shortens the consonant; the vowel stretches to fill the rest.
+        int numOutput = Math.max(0, msToSamples(lengthMs));
+        double consonantScale = Math.pow(2, (100 - velocity) / 100);
+        int consonantOutput =
+                Math.min(numOutput, (int) Math.round((consonantEnd - start) * consonantScale));
+        double vowelScale = numOutput > consonantOutput
+                ? (end - consonantEnd) / (double) (numOutput - consonantOutput)
+                : 0;
+
+        double[] output = new double[numOutput];
+        double pointSamples = SAMPLE_RATE * 0.625 / tempo; // Pitchbends are 96 to a beat.
+        double outPosition = 0;
+        while (outPosition < numOutput) {
+            double sourcePosition = outPosition < consonantOutput
+                    ? start + outPosition / consonantScale
+                    : consonantEnd + (outPosition - consonantOutput) * vowelScale;
+            int mark = source.findNearestMark(sourcePosition);
+            double sourceFreq = source.getFreq(mark);
+            double sourcePeriod = sourceFreq > 0 ? SAMPLE_RATE / sourceFreq : UNVOICED_PERIOD;
+
+            // Voiced grains are spaced by the target pitch, unvoiced ones keep their spacing.
+            double outPeriod = sourcePeriod;
+            if (sourceFreq > 0) {
+                double cents = getPitchbend(pitchbends, outPosition / pointSamples);
+                double targetFreq = noteFreq * Math.pow(2, cents / 1200)
+                        * Math.pow(sourceFreq / source.averageFreq, modulation / 100);
+                outPeriod = SAMPLE_RATE / targetFreq;
+            }
+            addGrain(
+                    source.samples,
+                    mark,
+                    (int) sourcePeriod,
+                    output,
+                    (int) Math.round(outPosition),
+                    outPeriod / sourcePeriod);
+            outPosition += outPeriod;
+        }
+
+        double gain = intensity / 100;
+        for (int i = 0; i < numOutput; i++) {
+            output[i] *= gain;
+        }
+        return output;
+    }
+
+    // Overlap-adds two periods of the source, centred on a pitch mark, with a Hann window.
+    private static void addGrain(
+            double[] source,
+            int mark,
+            int halfLength,
+            double[] output,
+            int outCenter,
+            double gain) {
+        halfLength = Math.max(1, halfLength);
+        for (int i = -halfLength; i < halfLength; i++) {
+            int sourceIndex = mark + i;
+            int outIndex = outCenter + i;
+            if (sourceIndex < 0 || sourceIndex >= source.length || outIndex < 0
+                    || outIndex >= output.length) {
+                continue;
+            }
+            double window = 0.5 - 0.5 * Math.cos(Math.PI * (i + halfLength) / halfLength);
+            output[outIndex] += source[sourceIndex] * window * gain;
+        }
+    }
+
+    // Linearly interpolates between pitchbend points, in cents.
+    private static double getPitchbend(int[] pitchbends, double point) {
+        if (pitchbends.length == 0) {
+            return 0;
+        }
+        int index = (int) point;
+        if (index >= pitchbends.length - 1) {
+            return pitchbends[pitchbends.length - 1];
+        }
+        double ratio = point - index;
+        return pitchbends[index] * (1 - ratio) + pitchbends[index + 1] * ratio;
+    }
+
+    /**
+     * Decodes a resampler pitch string: pairs of base64 digits holding 12-bit two's complement
+     * cent values, where "#n#" repeats the previous value n more times.
+     */
+    static int[] decodePitchbends(String encoded) {
+        int[] values = new int[encoded.length() / 2 + 1];
+        int numValues = 0;
+        int i = 0;
+        while (i < encoded.length()) {
+            if (encoded.charAt(i) == '#') {
+                int close = encoded.indexOf('#', i + 1);
+                if (close < 0) {
+                    break;
+                }
+                int repeats = Integer.parseInt(encoded.substring(i + 1, close));
+                int last = numValues > 0 ? values[numValues - 1] : 0;
+                if (numValues + repeats > values.length) {
+                    values = Arrays.copyOf(values, numValues + repeats + encoded.length() / 2);
+                }
+                Arrays.fill(values, numValues, numValues + repeats, last);
+                numValues += repeats;
+                i = close + 1;
+            } else if (i + 1 < encoded.length()) {
+                int value = decodeDigit(encoded.charAt(i)) * 64 + decodeDigit(encoded.charAt(i + 1));
+                if (numValues == values.length) {
+                    values = Arrays.copyOf(values, values.length * 2);
+                }
+                values[numValues++] = value >= 2048 ? value - 4096 : value;
+                i += 2;
+            } else {
+                break;
+            }
+        }
+        return Arrays.copyOf(values, numValues);
+    }
+
+    private static int decodeDigit(char digit) {
+        if (digit >= 'A' && digit <= 'Z') {
+            return digit - 'A';
+        } else if (digit >= 'a' && digit <= 'z') {
+            return digit - 'a' + 26;
+        } else if (digit >= '0' && digit <= '9') {
+            return digit - '0' + 52;
+        } else if (digit == '+') {
+            return 62;
+        } else if (digit == '/') {
+            return 63;
+        }
+        return 0;
+    }
+
+    private Source loadSource(File wavFile) throws IOException {
+        Optional<WavData> wavData = soundFileReader.loadWavData(wavFile);
+        if (!wavData.isPresent() || wavData.get().getSamples().length == 0) {
+            // Rather than cache a silent note, which would hide the problem for good.
+            throw new IOException("Could not read sample " + wavFile);
+        }
+        int[] intSamples = wavData.get().getSamples();
+        double[] samples = new double[intSamples.length];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = intSamples[i];
+        }
+        Optional<FrequencyData> frqData = Optional.absent();
+        File frqFile = LyricConfig.getDefaultFrqFile(wavFile);
+        if (frqFile.canRead()) {
+            frqData = soundFileReader.loadFrqData(frqFile);
+        }
+        return frqData.isPresent() ? new Source(samples, frqData.get())
+                : new Source(samples, estimateFrequencies(samples));
+    }
+
+    // Fallback for samples without an frq file: autocorrelation over 256-sample hops.
+    private static FrequencyData estimateFrequencies(double[] samples) {
+        int hop = 256;
+        int window = 1024;
+        int minLag = (int) (SAMPLE_RATE / MAX_FREQ);
+        int maxLag = (int) (SAMPLE_RATE / MIN_FREQ);
+        int numFrames = samples.length / hop + 1;
+        double[] freqs = new double[numFrames];
+        double[] amplitudes = new double[numFrames];
+        double freqSum = 0;
+        int numVoiced = 0;
+        for (int frame = 0; frame < numFrames; frame++) {
+            int from = frame * hop;
+            int to = Math.min(samples.length, from + window);
+            if (to - from <= maxLag) {
+                continue;
+            }
+            double energy = 0;
+            for (int i = from; i < to; i++) {
+                energy += samples[i] * samples[i];
+            }
+            amplitudes[frame] = Math.sqrt(energy / (to - from));
+            if (energy <= 0) {
+                continue;
+            }
+            double bestCorrelation = 0;
+            int bestLag = 0;
+            for (int lag = minLag; lag <= maxLag; lag++) {
+                double correlation = 0;
+                for (int i = from; i < to - lag; i++) {
+                    correlation += samples[i] * samples[i + lag];
+                }
+                correlation /= energy * (to - from - lag) / (to - from);
+                if (correlation > bestCorrelation) {
+                    bestCorrelation = correlation;
+                    bestLag = lag;
+                }
+            }
+            if (bestCorrelation > 0.5 && bestLag > 0) {
+                freqs[frame] = SAMPLE_RATE / (double) bestLag;
+                freqSum += freqs[frame];
+                numVoiced++;
+            }
+        }
+        double average = numVoiced > 0 ? freqSum / numVoiced : 0;
+        return new FrequencyData(average, hop, freqs, amplitudes);
+    }
+
+    private static void writeWav(double[] rendered, File outputFile) throws IOException {
+        ByteBuffer bytes =
+                ByteBuffer.allocate(rendered.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (double sample : rendered) {
+            bytes.putShort(
+                    (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample)));
+        }
+        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+        AudioInputStream stream = new AudioInputStream(
+                new ByteArrayInputStream(bytes.array()),
+                format,
+                rendered.length);
+        // The scheduler gives each call a temporary file of its own, so write straight to it.
+        AudioSystem.write(stream, AudioFileFormat.Type.WAVE, outputFile);
+    }
+
+    private static double parseDouble(String[] args, int index, double defaultValue) {
+        return index < args.length ? parseDouble(args[index], defaultValue) : defaultValue;
+    }
+
+    private static double parseDouble(String value, double defaultValue) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static int msToSamples(double ms) {
+        return (int) Math.round(ms * SAMPLE_RATE / 1000);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /** A sample and its frq file as they are on disk right now. */
+    private static class SourceKey {
+        private final File wavFile;
+        private final FileFingerprint wavFingerprint;
+        private final FileFingerprint frqFingerprint;
+
+        private SourceKey(File wavFile) {
+            this.wavFile = wavFile;
+            this.wavFingerprint = FileFingerprint.of(wavFile);
+            this.frqFingerprint = FileFingerprint.of(LyricConfig.getDefaultFrqFile(wavFile));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof SourceKey)) {
+                return false;
+            }
+            SourceKey key = (SourceKey) other;
+            return wavFile.equals(key.wavFile) && wavFingerprint.equals(key.wavFingerprint)
+                    && frqFingerprint.equals(key.frqFingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return (wavFile.hashCode() * 31 + wavFingerprint.hashCode()) * 31
+                    + frqFingerprint.hashCode();
+        }
+    }
+
+    /** A voicebank sample, its pitch, and the pitch marks found from it. */
+    private static class Source {
+        private final double[] samples;
+        private final double[] freqs;
+        private final int samplesPerFreq;
+        private final double averageFreq;
+        private final int[] marks; // One per pitch period, at the loudest point of the period.
+
+        private Source(double[] samples, FrequencyData frqData) {
+            this.samples = samples;
+            this.freqs = frqData.getFrequencies();
+            this.samplesPerFreq = Math.max(1, frqData.getSamplesPerFreqValue());
+            this.averageFreq = frqData.getAverageFreq() > 0 ? frqData.getAverageFreq() : 1;
+            this.marks = findMarks();
+        }
+
+        // Frequency at a sample, or 0 if the sample is unvoiced.
+        private double getFreq(int sample) {
+            if (freqs.length == 0) {
+                return 0;
+            }
+            double freq = freqs[clamp(sample / samplesPerFreq, 0, freqs.length - 1)];
+            return freq >= MIN_FREQ && freq <= MAX_FREQ ? freq : 0;
+        }
+
+        private int[] findMarks() {
+            int[] found = new int[samples.length / (int) (SAMPLE_RATE / MAX_FREQ) + 2];
+            int numMarks = 0;
+            double position = 0;
+            while (position < samples.length && numMarks < found.length) {
+                int expected = (int) position;
+                double freq = getFreq(expected);
+                double period = freq > 0 ? SAMPLE_RATE / freq : UNVOICED_PERIOD;
+                int mark = expected;
+                if (freq > 0) {
+                    // Snap to the peak nearby so grains line up from one period to the next.
+                    int radius = (int) (period / 4);
+                    for (int i = Math.max(0, expected - radius); i < Math.min(
+                            samples.length,
+                            expected + radius); i++) {
+                        if (Math.abs(samples[i]) > Math.abs(samples[mark])) {
+                            mark = i;
+                        }
+                    }
+                }
+                if (numMarks == 0 || mark > found[numMarks - 1]) {
+                    found[numMarks++] = mark;
+                }
+                position = Math.max(position, mark) + period;
+            }
+            return Arrays.copyOf(found, numMarks);
+        }
+
+        private int findNearestMark(double position) {
+            if (marks.length == 0) {
+                return (int) position;
+            }
+            int index = Arrays.binarySearch(marks, (int) position);
+            if (index >= 0) {
+                return marks[index];
+            }
+            int after = -index - 1;
+            if (after == 0) {
+                return marks[0];
+            } else if (after == marks.length) {
+                return marks[marks.length - 1];
+            }
+            int before = after - 1;
+            return position - marks[before] <= marks[after] - position ? marks[before]
+                    : marks[after];
+        }
+    }
+}
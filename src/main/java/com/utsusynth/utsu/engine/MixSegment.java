@@ -0,0 +1,143 @@
+package com.utsusynth.utsu.engine;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Objects;
+import com.google.common.base.Optional;
+
+/**
+ * One wavtool call's worth of input: a resampled note (or a stretch of silence) plus the envelope
+ * and overlap used to place it on the output timeline.
+ */
+public class MixSegment {
+    private final Optional<File> inputFile; // Absent for silence.
+    private final double startPointMs;
+    private final double lengthMs; // Tempo already applied.
+    private final double overlapMs; // Tempo already applied.
+    private final double[] envWidths; // "p" in ms, in the order p1, p2, p3, p4, p5.
+    private final double[] envHeights; // "v" in %, in the order v1, v2, v3, v4, v5.
+
+    // Envelope control points, in ms from the start of the segment and % volume.
+    private final double[] envX;
+    private final double[] envY;
+
+    public static MixSegment note(
+            File inputFile,
+            double startPointMs,
+            double lengthMs,
+            double overlapMs,
+            double[] envWidths,
+            double[] envHeights) {
+        return new MixSegment(
+                Optional.of(inputFile),
+                startPointMs,
+                lengthMs,
+                overlapMs,
+                envWidths,
+                envHeights);
+    }
+
+    public static MixSegment silence(double lengthMs) {
+        return new MixSegment(
+                Optional.absent(),
+                0,
+                lengthMs,
+                0,
+                new double[] {0, 0, 0, 0, 0},
+                new double[] {0, 0, 0, 0, 0});
+    }
+
+    private MixSegment(
+            Optional<File> inputFile,
+            double startPointMs,
+            double lengthMs,
+            double overlapMs,
+            double[] envWidths,
+            double[] envHeights) {
+        this.inputFile = inputFile;
+        this.startPointMs = startPointMs;
+        this.lengthMs = lengthMs;
+        this.overlapMs = overlapMs;
+        this.envWidths = envWidths;
+        this.envHeights = envHeights;
+
+        double p1 = envWidths[0];
+        double p2 = p1 + envWidths[1];
+        double p5 = p2 + envWidths[4];
+        double p4 = lengthMs - envWidths[3];
+        double p3 = p4 - envWidths[2];
+        this.envX = new double[] {0, p1, p2, p5, p3, p4, lengthMs};
+        this.envY = new double[] {
+                0, envHeights[0], envHeights[1], envHeights[4], envHeights[2], envHeights[3], 0};
+    }
+
+    public Optional<File> getInputFile() {
+        return inputFile;
+    }
+
+    public boolean isSilence() {
+        return !inputFile.isPresent();
+    }
+
+    public double getStartPointMs() {
+        return startPointMs;
+    }
+
+    public double getLengthMs() {
+        return lengthMs;
+    }
+
+    public double getOverlapMs() {
+        return overlapMs;
+    }
+
+    public double[] getEnvelopeWidths() {
+        return envWidths;
+    }
+
+    public double[] getEnvelopeHeights() {
+        return envHeights;
+    }
+
+    /**
+     * Returns the envelope volume (1.0 being unchanged) at a position within this segment. Follows
+     * the usual UTAU layout: 0 -> p1 -> p2 -> p5 ... p3 -> p4 -> end.
+     */
+    double getEnvelopeGain(double positionMs) {
+        if (positionMs <= 0 || positionMs >= lengthMs) {
+            return 0;
+        }
+        for (int i = 1; i < envX.length; i++) {
+            if (positionMs < envX[i]) {
+                double width = envX[i] - envX[i - 1];
+                if (width <= 0) {
+                    return envY[i] / 100.0;
+                }
+                double ratio = (positionMs - envX[i - 1]) / width;
+                return (envY[i - 1] + (envY[i] - envY[i - 1]) * ratio) / 100.0;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof MixSegment)) {
+            return false;
+        }
+        MixSegment segment = (MixSegment) other;
+        return inputFile.equals(segment.inputFile) && startPointMs == segment.startPointMs
+                && lengthMs == segment.lengthMs && overlapMs == segment.overlapMs
+                && Arrays.equals(envWidths, segment.envWidths)
+                && Arrays.equals(envHeights, segment.envHeights);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(inputFile, startPointMs, lengthMs, overlapMs)
+                + 31 * Arrays.hashCode(envWidths) + Arrays.hashCode(envHeights);
+    }
+}
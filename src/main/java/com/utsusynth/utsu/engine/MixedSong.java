@@ -0,0 +1,27 @@
+package com.utsusynth.utsu.engine;
+
+import java.io.File;
+import java.util.List;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A finished mix and the segments it was made from, kept so the next mix can copy any audio that
+ * has not changed instead of mixing it again.
+ */
+public class MixedSong {
+    private final ImmutableList<MixSegment> segments;
+    private final File wavFile;
+
+    public MixedSong(List<MixSegment> segments, File wavFile) {
+        this.segments = ImmutableList.copyOf(segments);
+        this.wavFile = wavFile;
+    }
+
+    public ImmutableList<MixSegment> getSegments() {
+        return segments;
+    }
+
+    public File getWavFile() {
+        return wavFile;
+    }
+}
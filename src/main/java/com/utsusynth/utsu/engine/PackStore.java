@@ -0,0 +1,490 @@
+package com.utsusynth.utsu.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Optional;
+
+/**
+ * Stores resampled notes in a few large segment files instead of one file each. A memory-mapped
+ * hash table maps each note's 128-bit cache key to where its bytes are, so finding a note takes a
+ * single probe and reading it is a slice of a mapped segment, with no copying. Notes are only ever
+ * appended. Removed notes leave holes, which compaction reclaims by moving the live notes out of
+ * mostly empty segments.
+ */
+class PackStore {
+    private static final Pattern NOTE_NAME =
+            Pattern.compile("note-([0-9a-f]{16})([0-9a-f]{16})\\.wav");
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.pack");
+    private static final int DEFAULT_SEGMENT_BYTES = 256 * 1024 * 1024;
+    private static final int MAGIC = 0x55505331; // "UPS1"
+    private static final int HEADER_BYTES = 64;
+    private static final int SLOT_BYTES = 32; // Key (16 bytes), segment, offset, length, unused.
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final int EMPTY = 0; // Segment number of a slot that was never used.
+    private static final int REMOVED = -1; // Segment number of a slot whose note was removed.
+
+    private final File dir;
+    private final File indexFile;
+    private final int maxSegmentBytes;
+    private final TreeMap<Integer, Segment> segments; // By segment number, from 1.
+    private MappedByteBuffer index;
+    private int capacity; // Number of slots, always a power of two.
+    private int numLive;
+    private int numUsed; // Live and removed slots, which both lengthen probes.
+    private Segment activeSegment; // The only segment that is appended to.
+
+    private PackStore(File dir, int maxSegmentBytes) {
+        this.dir = dir;
+        this.indexFile = new File(dir, "index.bin");
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.segments = new TreeMap<>();
+    }
+
+    /** Opens the pack files in a directory, creating them if needed. */
+    static PackStore open(File dir) throws IOException {
+        return open(dir, DEFAULT_SEGMENT_BYTES, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param maxSegmentBytes Size at which to start a new segment.
+     * @param initialCapacity Number of index slots if creating a new index, a power of two.
+     */
+    static PackStore open(File dir, int maxSegmentBytes, int initialCapacity) throws IOException {
+        dir.mkdirs();
+        PackStore store = new PackStore(dir, maxSegmentBytes);
+        store.openIndex(initialCapacity);
+        store.openSegments();
+        return store;
+    }
+
+    synchronized boolean contains(String name) {
+        Optional<long[]> key = parseKey(name);
+        return key.isPresent() && findSlot(key.get()[0], key.get()[1]) >= 0;
+    }
+
+    /** Returns the bytes of a note, as a read-only slice of its mapped segment. */
+    synchronized Optional<ByteBuffer> get(String name) {
+        Optional<long[]> key = parseKey(name);
+        if (!key.isPresent()) {
+            return Optional.absent();
+        }
+        int slot = findSlot(key.get()[0], key.get()[1]);
+        if (slot < 0) {
+            return Optional.absent();
+        }
+        Segment segment = segments.get(getSegmentNumber(slot));
+        try {
+            return Optional.of(segment.slice(getOffset(slot), getLength(slot)));
+        } catch (IOException e) {
+            return Optional.absent();
+        }
+    }
+
+    /** Returns how many bytes a note takes up, or 0 if it is not in the pack. */
+    synchronized long getLength(String name) {
+        Optional<long[]> key = parseKey(name);
+        if (!key.isPresent()) {
+            return 0;
+        }
+        int slot = findSlot(key.get()[0], key.get()[1]);
+        return slot < 0 ? 0 : getLength(slot);
+    }
+
+    /**
+     * Appends the contents of a note file, unless the pack already has it.
+     *
+     * @return Whether the note is now in the pack.
+     */
+    synchronized boolean put(String name, File noteFile) throws IOException {
+        Optional<long[]> key = parseKey(name);
+        if (!key.isPresent()) {
+            return false;
+        }
+        long hi = key.get()[0];
+        long lo = key.get()[1];
+        if (findSlot(hi, lo) >= 0) {
+            return true;
+        }
+        try (FileChannel input = FileChannel.open(noteFile.toPath(), StandardOpenOption.READ)) {
+            long length = input.size();
+            if (length > maxSegmentBytes) {
+                return false;
+            }
+            Segment segment = getSegmentWithRoom(length);
+            int offset = (int) segment.size;
+            long position = 0;
+            try {
+                // Writes at an explicit offset, so a failed copy cannot shift later notes.
+                while (position < length) {
+                    long copied = segment.channel.transferFrom(
+                            input,
+                            segment.size + position,
+                            length - position);
+                    if (copied <= 0) {
+                        throw new IOException("Could not read all of " + noteFile);
+                    }
+                    position += copied;
+                }
+            } catch (IOException e) {
+                segment.channel.truncate(segment.size);
+                throw e;
+            }
+            segment.size += length;
+            insert(hi, lo, segment.number, offset, (int) length);
+        }
+        return true;
+    }
+
+    synchronized boolean remove(String name) {
+        Optional<long[]> key = parseKey(name);
+        if (!key.isPresent()) {
+            return false;
+        }
+        int slot = findSlot(key.get()[0], key.get()[1]);
+        if (slot < 0) {
+            return false;
+        }
+        segments.get(getSegmentNumber(slot)).liveBytes -= getLength(slot);
+        index.putInt(slotPosition(slot) + 16, REMOVED);
+        numLive--;
+        writeCounts();
+        return true;
+    }
+
+    /** Calls back with the name and length of every note in the pack. */
+    synchronized void forEach(BiConsumer<String, Long> action) {
+        for (int slot = 0; slot < capacity; slot++) {
+            if (getSegmentNumber(slot) > 0) {
+                int position = slotPosition(slot);
+                String name = String.format(
+                        "note-%016x%016x.wav",
+                        index.getLong(position),
+                        index.getLong(position + 8));
+                action.accept(name, (long) getLength(slot));
+            }
+        }
+    }
+
+    /**
+     * Moves the live notes of any segment that is less than half full onto the end of the active
+     * segment, then deletes the old segment. Holds the lock for one note at a time, so lookups are
+     * never blocked for long.
+     */
+    void compact() {
+        List<Segment> sparse = new ArrayList<>();
+        synchronized (this) {
+            for (Segment segment : segments.values()) {
+                if (segment != activeSegment && segment.liveBytes * 2 < segment.size) {
+                    sparse.add(segment);
+                }
+            }
+        }
+        for (Segment segment : sparse) {
+            for (int slot = 0; slot < capacity; slot++) {
+                synchronized (this) {
+                    if (slot >= capacity) {
+                        break; // The index has grown and been rehashed, try again next time.
+                    }
+                    if (getSegmentNumber(slot) == segment.number) {
+                        try {
+                            moveToActiveSegment(slot, segment);
+                        } catch (IOException e) {
+                            return;
+                        }
+                    }
+                }
+            }
+            synchronized (this) {
+                if (segment.liveBytes == 0) {
+                    segments.remove(segment.number);
+                    segment.close();
+                    // Readers may still hold slices of the old segment, which stay valid on
+                    // platforms that allow deleting mapped files. Elsewhere, delete it next time.
+                    segment.file.delete();
+                }
+            }
+        }
+        synchronized (this) {
+            for (File file : dir.listFiles()) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+                if (matcher.matches() && !segments.containsKey(Integer.parseInt(matcher.group(1)))) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /** Saves the index and closes every file. */
+    synchronized void close() {
+        index.force();
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    private void moveToActiveSegment(int slot, Segment from) throws IOException {
+        int length = getLength(slot);
+        ByteBuffer bytes = from.slice(getOffset(slot), length);
+        Segment to = getSegmentWithRoom(length);
+        int offset = (int) to.size;
+        try {
+            while (bytes.hasRemaining()) {
+                to.channel.write(bytes, to.size + length - bytes.remaining());
+            }
+        } catch (IOException e) {
+            to.channel.truncate(to.size);
+            throw e;
+        }
+        to.size += length;
+        to.liveBytes += length;
+        from.liveBytes -= length;
+        int position = slotPosition(slot);
+        index.putInt(position + 20, offset);
+        index.putInt(position + 16, to.number); // Last, so the slot is never half moved.
+    }
+
+    private Segment getSegmentWithRoom(long length) throws IOException {
+        if (activeSegment == null || activeSegment.size + length > maxSegmentBytes) {
+            int number = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+            activeSegment = new Segment(number, new File(dir, "segment-" + number + ".pack"));
+            segments.put(number, activeSegment);
+            index.putInt(20, number);
+        }
+        return activeSegment;
+    }
+
+    // Returns the slot holding a key, or -1 if it is not in the index.
+    private int findSlot(long hi, long lo) {
+        int mask = capacity - 1;
+        for (int slot = hash(hi, lo) & mask;; slot = (slot + 1) & mask) {
+            int position = slotPosition(slot);
+            int segment = index.getInt(position + 16);
+            if (segment == EMPTY) {
+                return -1;
+            }
+            if (segment > 0 && index.getLong(position) == hi
+                    && index.getLong(position + 8) == lo) {
+                return slot;
+            }
+        }
+    }
+
+    private void insert(long hi, long lo, int segment, int offset, int length) throws IOException {
+        if ((numUsed + 1) * 10L > capacity * 6L) {
+            rehash(numLive * 4 > capacity ? capacity * 2 : capacity);
+        }
+        int mask = capacity - 1;
+        int slot = hash(hi, lo) & mask;
+        while (getSegmentNumber(slot) > 0) {
+            slot = (slot + 1) & mask;
+        }
+        int position = slotPosition(slot);
+        if (index.getInt(position + 16) == EMPTY) {
+            numUsed++;
+        }
+        index.putLong(position, hi);
+        index.putLong(position + 8, lo);
+        index.putInt(position + 20, offset);
+        index.putInt(position + 24, length);
+        index.putInt(position + 16, segment); // Last, so the slot is never half written.
+        numLive++;
+        segments.get(segment).liveBytes += length;
+        writeCounts();
+    }
+
+    // Copies live slots into a fresh index file, dropping removed ones, and swaps it in.
+    private void rehash(int newCapacity) throws IOException {
+        File newFile = new File(dir, "index.bin.new");
+        newFile.delete();
+        MappedByteBuffer newIndex = mapIndex(newFile, newCapacity);
+        int mask = newCapacity - 1;
+        int numCopied = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (getSegmentNumber(slot) <= 0) {
+                continue;
+            }
+            int from = slotPosition(slot);
+            long hi = index.getLong(from);
+            long lo = index.getLong(from + 8);
+            int newSlot = hash(hi, lo) & mask;
+            while (newIndex.getInt(HEADER_BYTES + newSlot * SLOT_BYTES + 16) != EMPTY) {
+                newSlot = (newSlot + 1) & mask;
+            }
+            int to = HEADER_BYTES + newSlot * SLOT_BYTES;
+            for (int i = 0; i < SLOT_BYTES; i += 4) {
+                newIndex.putInt(to + i, index.getInt(from + i));
+            }
+            numCopied++;
+        }
+        newIndex.putInt(20, index.getInt(20));
+        newIndex.force();
+        index = newIndex;
+        capacity = newCapacity;
+        numLive = numCopied;
+        numUsed = numCopied;
+        writeCounts();
+        Files.move(
+                newFile.toPath(),
+                indexFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void openIndex(int initialCapacity) throws IOException {
+        if (indexFile.exists()) {
+            index = mapIndex(indexFile, 0);
+            if (isWholeIndex(index)) {
+                capacity = index.getInt(8);
+                numLive = index.getInt(12);
+                numUsed = index.getInt(16);
+                return;
+            }
+            System.out.println("Warning: Starting a new pack index in place of " + indexFile);
+            index = null;
+            indexFile.delete();
+        }
+        index = mapIndex(indexFile, initialCapacity);
+        capacity = initialCapacity;
+        numLive = 0;
+        numUsed = 0;
+        writeCounts();
+    }
+
+    // Whether a mapped index file has a header and exactly as many slots as the header says.
+    private static boolean isWholeIndex(MappedByteBuffer index) {
+        if (index.capacity() < HEADER_BYTES || index.getInt(0) != MAGIC) {
+            return false;
+        }
+        int capacity = index.getInt(8);
+        return capacity > 0 && Integer.bitCount(capacity) == 1
+                && index.capacity() == HEADER_BYTES + (long) capacity * SLOT_BYTES;
+    }
+
+    private void openSegments() throws IOException {
+        Map<Integer, Long> liveBytes = new TreeMap<>();
+        for (int slot = 0; slot < capacity; slot++) {
+            int segment = getSegmentNumber(slot);
+            if (segment > 0) {
+                liveBytes.merge(segment, (long) getLength(slot), Long::sum);
+            }
+        }
+        for (File file : dir.listFiles()) {
+            Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+            if (matcher.matches()) {
+                int number = Integer.parseInt(matcher.group(1));
+                Segment segment = new Segment(number, file);
+                segment.liveBytes = liveBytes.getOrDefault(number, 0L);
+                segments.put(number, segment);
+            }
+        }
+        activeSegment = segments.get(index.getInt(20));
+    }
+
+    // Maps an index file. A capacity of 0 maps an existing file at its current size.
+    private static MappedByteBuffer mapIndex(File file, int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long size = capacity > 0 ? HEADER_BYTES + (long) capacity * SLOT_BYTES : channel.size();
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (capacity > 0) {
+                mapped.putInt(0, MAGIC);
+                mapped.putInt(4, 1); // Version.
+                mapped.putInt(8, capacity);
+            }
+            return mapped;
+        }
+    }
+
+    private void writeCounts() {
+        index.putInt(12, numLive);
+        index.putInt(16, numUsed);
+    }
+
+    private int getSegmentNumber(int slot) {
+        return index.getInt(slotPosition(slot) + 16);
+    }
+
+    private int getOffset(int slot) {
+        return index.getInt(slotPosition(slot) + 20);
+    }
+
+    private int getLength(int slot) {
+        return index.getInt(slotPosition(slot) + 24);
+    }
+
+    private static int slotPosition(int slot) {
+        return HEADER_BYTES + slot * SLOT_BYTES;
+    }
+
+    private static int hash(long hi, long lo) {
+        long mixed = hi ^ (lo * 0x9E3779B97F4A7C15L);
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    // Resampler cache file names hold a 128-bit hash, which is used as the key.
+    private static Optional<long[]> parseKey(String name) {
+        Matcher matcher = NOTE_NAME.matcher(name);
+        if (!matcher.matches()) {
+            return Optional.absent();
+        }
+        return Optional.of(new long[] {Long.parseUnsignedLong(matcher.group(1), 16),
+                Long.parseUnsignedLong(matcher.group(2), 16)});
+    }
+
+    /** One segment file, mapped for reading up to however much had been written last time. */
+    private static class Segment {
+        private final int number;
+        private final File file;
+        private final FileChannel channel;
+        private MappedByteBuffer mapped;
+        private long size;
+        private long liveBytes;
+
+        private Segment(int number, File file) throws IOException {
+            this.number = number;
+            this.file = file;
+            this.channel = FileChannel.open(
+                    file.toPath(),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.size = channel.size();
+            this.liveBytes = 0;
+        }
+
+        private ByteBuffer slice(int offset, int length) throws IOException {
+            if (mapped == null || offset + length > mapped.capacity()) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer slice = mapped.duplicate();
+            slice.position(offset).limit(offset + length);
+            return slice.slice().asReadOnlyBuffer();
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing left to save.
+            }
+            mapped = null;
+        }
+    }
+}
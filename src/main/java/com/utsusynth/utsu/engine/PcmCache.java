@@ -0,0 +1,85 @@
+package com.utsusynth.utsu.engine;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import com.google.common.base.Optional;
+
+/**
+ * Decoded 16-bit samples of recently mixed resampler outputs, held in direct buffers outside the
+ * Java heap so that a large cache costs the garbage collector nothing. Resampler cache files are
+ * named after everything that went into them and never change once written, so a note found here
+ * is mixed without touching the disk. Least recently used notes are dropped past a size limit.
+ */
+public class PcmCache {
+    private static final int BYTES_PER_SAMPLE = 2;
+
+    private final long maxBytes;
+    private final LinkedHashMap<File, ByteBuffer> notes; // In least to most recently used order.
+    private long curBytes;
+
+    public PcmCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.notes = new LinkedHashMap<>(16, 0.75f, true);
+        this.curBytes = 0;
+    }
+
+    /** Returns a read-only view of a note's samples, if they are in memory. */
+    public synchronized Optional<ShortBuffer> get(File noteFile) {
+        ByteBuffer samples = notes.get(noteFile.getAbsoluteFile());
+        return samples == null ? Optional.absent() : Optional.of(asSamples(samples));
+    }
+
+    /**
+     * Copies a note's samples off-heap and keeps them if there is room.
+     *
+     * @return A read-only view of the copied samples.
+     */
+    public ShortBuffer put(File noteFile, int[] samples) {
+        long numBytes = (long) samples.length * BYTES_PER_SAMPLE;
+        if (numBytes > maxBytes) {
+            // Would push out everything else, so don't bother copying it off-heap.
+            ShortBuffer heapSamples = ShortBuffer.allocate(samples.length);
+            for (int sample : samples) {
+                heapSamples.put((short) sample);
+            }
+            heapSamples.flip();
+            return heapSamples.asReadOnlyBuffer();
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) numBytes).order(ByteOrder.nativeOrder());
+        for (int sample : samples) {
+            buffer.putShort((short) sample);
+        }
+        buffer.flip();
+        synchronized (this) {
+            ByteBuffer replaced = notes.put(noteFile.getAbsoluteFile(), buffer);
+            if (replaced != null) {
+                curBytes -= replaced.capacity();
+            }
+            curBytes += numBytes;
+            for (Iterator<ByteBuffer> iterator = notes.values().iterator(); curBytes > maxBytes
+                    && iterator.hasNext();) {
+                curBytes -= iterator.next().capacity();
+                iterator.remove();
+            }
+        }
+        return asSamples(buffer);
+    }
+
+    public synchronized long getCurBytes() {
+        return curBytes;
+    }
+
+    public synchronized void clear() {
+        notes.clear();
+        curBytes = 0;
+    }
+
+    // A separate view per caller, so readers never share a position.
+    private static ShortBuffer asSamples(ByteBuffer buffer) {
+        return buffer.asReadOnlyBuffer().order(ByteOrder.nativeOrder()).asShortBuffer();
+    }
+}
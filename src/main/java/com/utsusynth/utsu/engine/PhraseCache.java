@@ -0,0 +1,91 @@
+package com.utsusynth.utsu.engine;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Finished audio for phrases, meaning runs of notes with silence on either side. A phrase sounds
+ * the same wherever it is placed on the timeline, so once mixed it can be copied into any later
+ * mix that contains the same notes. Least recently used phrases are dropped past a size limit.
+ */
+public class PhraseCache {
+    private final long maxBytes;
+    private final LinkedHashMap<Key, int[]> phrases; // In least to most recently used order.
+    private long curBytes;
+
+    public PhraseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.phrases = new LinkedHashMap<>(16, 0.75f, true);
+        this.curBytes = 0;
+    }
+
+    /** Whether a phrase this long is worth keeping. Very long phrases would crowd out the rest. */
+    public boolean isCacheable(long numSamples) {
+        return numSamples > 0 && numSamples * 4L <= maxBytes / 4;
+    }
+
+    /** Returns a phrase's mixed 32-bit samples, if they have been cached. */
+    public synchronized Optional<int[]> get(Key key) {
+        return Optional.fromNullable(phrases.get(key));
+    }
+
+    public synchronized void put(Key key, int[] samples) {
+        long numBytes = samples.length * 4L;
+        if (numBytes > maxBytes) {
+            return; // Would push out everything else.
+        }
+        int[] replaced = phrases.put(key, samples);
+        if (replaced != null) {
+            curBytes -= replaced.length * 4L;
+        }
+        curBytes += numBytes;
+        for (Iterator<int[]> iterator = phrases.values().iterator(); curBytes > maxBytes
+                && iterator.hasNext();) {
+            curBytes -= iterator.next().length * 4L;
+            iterator.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        phrases.clear();
+        curBytes = 0;
+    }
+
+    /**
+     * Identifies a phrase by its notes' resampler outputs and envelopes, and where each note sits
+     * relative to the start of the phrase.
+     */
+    public static class Key {
+        private final ImmutableList<MixSegment> segments;
+        private final long[] offsets; // Start and end sample of each segment, from phrase start.
+        private final int hashCode;
+
+        public Key(List<MixSegment> segments, long[] offsets) {
+            this.segments = ImmutableList.copyOf(segments);
+            this.offsets = offsets;
+            this.hashCode = 31 * this.segments.hashCode() + Arrays.hashCode(offsets);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return hashCode == key.hashCode && Arrays.equals(offsets, key.offsets)
+                    && segments.equals(key.segments);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.utsusynth.utsu.engine;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.utsusynth.utsu.common.data.PitchbendData;
+import com.utsusynth.utsu.model.song.Note;
+
+/**
+ * Everything one note's pitch string is worked out from: the pitch steps it covers, which follow
+ * from its position and preutterance, the tempo, and the pitchbends of the note and both of its
+ * neighbors, whose bends can reach into those steps. Lyrics, envelopes and the like are left out,
+ * so a note keeps its pitch string when only they change.
+ */
+class PitchInputs {
+    private final int firstStep;
+    private final int lastStep;
+    private final double tempo;
+    private final Bend prevBend;
+    private final Bend bend;
+    private final Bend nextBend;
+
+    private PitchInputs(
+            int firstStep,
+            int lastStep,
+            double tempo,
+            Bend prevBend,
+            Bend bend,
+            Bend nextBend) {
+        this.firstStep = firstStep;
+        this.lastStep = lastStep;
+        this.tempo = tempo;
+        this.prevBend = prevBend;
+        this.bend = bend;
+        this.nextBend = nextBend;
+    }
+
+    /**
+     * @param position Absolute position of the note, in milliseconds.
+     * @param prevPrevNote The note before prevNote, whose note number its portamento starts from.
+     */
+    static PitchInputs of(
+            int firstStep,
+            int lastStep,
+            double tempo,
+            Note note,
+            int position,
+            Optional<Note> prevPrevNote,
+            Optional<Note> prevNote,
+            Optional<Note> nextNote) {
+        Bend prevBend = null;
+        int prevNoteNum = note.getNoteNum();
+        if (prevNote.isPresent()) {
+            int prevPrevNoteNum = prevPrevNote.isPresent()
+                    ? prevPrevNote.get().getNoteNum()
+                    : prevNote.get().getNoteNum();
+            prevBend = new Bend(prevNote.get(), position - note.getDelta(), prevPrevNoteNum);
+            prevNoteNum = prevNote.get().getNoteNum();
+        }
+        Bend nextBend = null;
+        if (nextNote.isPresent()) {
+            nextBend = new Bend(
+                    nextNote.get(),
+                    position + nextNote.get().getDelta(),
+                    note.getNoteNum());
+        }
+        return new PitchInputs(
+                firstStep,
+                lastStep,
+                tempo,
+                prevBend,
+                new Bend(note, position, prevNoteNum),
+                nextBend);
+    }
+
+    int getFirstStep() {
+        return firstStep;
+    }
+
+    int getLastStep() {
+        return lastStep;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof PitchInputs)) {
+            return false;
+        }
+        PitchInputs inputs = (PitchInputs) other;
+        return firstStep == inputs.firstStep && lastStep == inputs.lastStep
+                && tempo == inputs.tempo && Objects.equals(prevBend, inputs.prevBend)
+                && bend.equals(inputs.bend) && Objects.equals(nextBend, inputs.nextBend);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(firstStep, lastStep, tempo, prevBend, bend, nextBend);
+    }
+
+    /** What one note adds to the pitch curve. */
+    private static class Bend {
+        private final int position;
+        private final int duration;
+        private final int length;
+        private final int noteNum;
+        private final int prevNoteNum; // Where the note's portamento starts from.
+        private final ImmutableList<Double> pbs;
+        private final ImmutableList<Double> pbw;
+        private final ImmutableList<Double> pby;
+        private final ImmutableList<String> pbm;
+        private final int[] vibrato;
+
+        private Bend(Note note, int position, int prevNoteNum) {
+            PitchbendData pitchbends = note.getPitchbends();
+            this.position = position;
+            this.duration = note.getDuration();
+            this.length = note.getLength();
+            this.noteNum = note.getNoteNum();
+            this.prevNoteNum = prevNoteNum;
+            this.pbs = pitchbends.getPBS();
+            this.pbw = pitchbends.getPBW();
+            this.pby = pitchbends.getPBY();
+            this.pbm = pitchbends.getPBM();
+            this.vibrato = pitchbends.getVibrato().clone();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Bend)) {
+                return false;
+            }
+            Bend bend = (Bend) other;
+            return position == bend.position && duration == bend.duration
+                    && length == bend.length && noteNum == bend.noteNum
+                    && prevNoteNum == bend.prevNoteNum && pbs.equals(bend.pbs)
+                    && pbw.equals(bend.pbw) && pby.equals(bend.pby) && pbm.equals(bend.pbm)
+                    && Arrays.equals(vibrato, bend.vibrato);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(position, duration, noteNum, prevNoteNum, pbs, pby)
+                    * 31 + Arrays.hashCode(vibrato);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.utsusynth.utsu.engine;
+
+import java.io.File;
+import com.google.common.base.Optional;
+import com.utsusynth.utsu.model.song.Note;
+
+/**
+ * The resampler call and mixer segment worked out for one note, along with the render revisions
+ * they were worked out from. Can be reused for as long as neither the note nor its neighbors have
+ * been marked dirty.
+ */
+class PlannedNote {
+    private final int revision;
+    private final Optional<Note> prevNote;
+    private final int prevRevision;
+    private final Optional<Note> nextNote;
+    private final int nextRevision;
+    private final int position;
+    private final String settings;
+
+    private final String[] resamplerArgs;
+    private final MixSegment mixSegment;
+
+    PlannedNote(
+            Note note,
+            Optional<Note> prevNote,
+            Optional<Note> nextNote,
+            int position,
+            String settings,
+            String[] resamplerArgs,
+            MixSegment mixSegment) {
+        this.revision = note.getRenderRevision();
+        this.prevNote = prevNote;
+        this.prevRevision = prevNote.isPresent() ? prevNote.get().getRenderRevision() : 0;
+        this.nextNote = nextNote;
+        this.nextRevision = nextNote.isPresent() ? nextNote.get().getRenderRevision() : 0;
+        this.position = position;
+        this.settings = settings;
+        this.resamplerArgs = resamplerArgs;
+        this.mixSegment = mixSegment;
+    }
+
+    /**
+     * Whether this plan still holds for a note.
+     *
+     * @param settings Every song-wide or voicebank value the note's render depends on.
+     */
+    boolean isValidFor(
+            Note note,
+            Optional<Note> prevNote,
+            Optional<Note> nextNote,
+            int position,
+            String settings) {
+        return revision == note.getRenderRevision() && isSameNote(this.prevNote, prevNote)
+                && prevRevision == getRevision(prevNote) && isSameNote(this.nextNote, nextNote)
+                && nextRevision == getRevision(nextNote) && this.position == position
+                && this.settings.equals(settings);
+    }
+
+    /** Resampler arguments, including the cache file to render to. */
+    String[] getResamplerArgs() {
+        return resamplerArgs;
+    }
+
+    File getCacheFile() {
+        return new File(resamplerArgs[2]);
+    }
+
+    MixSegment getMixSegment() {
+        return mixSegment;
+    }
+
+    private static boolean isSameNote(Optional<Note> first, Optional<Note> second) {
+        if (!first.isPresent() || !second.isPresent()) {
+            return first.isPresent() == second.isPresent();
+        }
+        return first.get() == second.get();
+    }
+
+    private static int getRevision(Optional<Note> note) {
+        return note.isPresent() ? note.get().getRenderRevision() : 0;
+    }
+}
@@ -0,0 +1,76 @@
+package com.utsusynth.utsu.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One request to render part of a song. Carries the priority its resampler calls should run at
+ * and lets whoever owns the job cancel it midway through.
+ */
+public class RenderJob {
+    private static final AtomicLong idCounter = new AtomicLong(0);
+
+    /** Render priorities, most urgent first. */
+    public enum Priority {
+        PLAYBACK, // The user is waiting to hear something.
+        EXPORT, // The user is waiting, but not listening.
+        BACKGROUND, // Nobody is waiting yet.
+    }
+
+    private final long id;
+    private final Priority priority;
+    private final List<Runnable> cancelHooks;
+    private boolean cancelled;
+
+    public RenderJob(Priority priority) {
+        this.id = idCounter.incrementAndGet();
+        this.priority = priority;
+        this.cancelHooks = new ArrayList<>();
+        this.cancelled = false;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Cancels this job and anything it has started. Idempotent. */
+    public void cancel() {
+        List<Runnable> hooks;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            hooks = new ArrayList<>(cancelHooks);
+            cancelHooks.clear();
+        }
+        for (Runnable hook : hooks) {
+            hook.run();
+        }
+    }
+
+    /** Runs something when this job is cancelled, or right away if it already has been. */
+    public void onCancel(Runnable hook) {
+        synchronized (this) {
+            if (!cancelled) {
+                cancelHooks.add(hook);
+                return;
+            }
+        }
+        hook.run();
+    }
+
+    @Override
+    public String toString() {
+        return "RenderJob " + id + " (" + priority + ")";
+    }
+}
@@ -0,0 +1,224 @@
+package com.utsusynth.utsu.engine;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import com.utsusynth.utsu.common.exception.ErrorLogger;
+
+/**
+ * Timings and counts for one pass through the render pipeline. Each render appends a JSON line to
+ * a log file, so that renders can be compared across voicebanks and resamplers, and the last
+ * render's metrics are available from {@link Engine#getLastRenderMetrics()}.
+ */
+public class RenderMetrics {
+    private static final ErrorLogger errorLogger = ErrorLogger.getLogger();
+
+    private final String kind;
+    private final String voicebank;
+    private final String resampler;
+    private final String wavtool;
+    private final long startNanos;
+
+    private long planNanos = 0;
+    private long pitchNanos = 0;
+    private int numNotes = 0;
+    private int cacheHits = 0;
+    private int cacheMisses = 0;
+    private int pitchStrings = 0;
+    private int pitchStringsReused = 0;
+    private List<Long> resampleNanos = Collections.emptyList();
+    private long mixNanos = 0;
+    private long bytesWritten = 0;
+    private long totalNanos = 0;
+    private boolean completed = false;
+
+    /** @param kind What the render was for, such as "playback" or "export". */
+    public RenderMetrics(String kind, String voicebank, String resampler, String wavtool) {
+        this.kind = kind;
+        this.voicebank = voicebank;
+        this.resampler = resampler;
+        this.wavtool = wavtool;
+        this.startNanos = System.nanoTime();
+    }
+
+    void addPlanTime(long nanos) {
+        planNanos += nanos;
+    }
+
+    void addPitchTime(long nanos) {
+        pitchNanos += nanos;
+    }
+
+    /** Records a pitch string, and whether it was reused from an earlier render. */
+    void addPitchString(boolean reused) {
+        pitchStrings++;
+        if (reused) {
+            pitchStringsReused++;
+        }
+    }
+
+    /** Records a note, and whether its resampler output was already cached. */
+    void addNote(boolean cached) {
+        numNotes++;
+        if (cached) {
+            cacheHits++;
+        } else {
+            cacheMisses++;
+        }
+    }
+
+    void setResampleTimes(List<Long> nanos) {
+        resampleNanos = new ArrayList<>(nanos);
+        Collections.sort(resampleNanos);
+    }
+
+    void addMixTime(long nanos) {
+        mixNanos += nanos;
+    }
+
+    void setBytesWritten(long bytesWritten) {
+        this.bytesWritten = bytesWritten;
+    }
+
+    /** Stops the clock, once the final file has been written or the render abandoned. */
+    void finish(boolean completed) {
+        this.totalNanos = System.nanoTime() - startNanos;
+        this.completed = completed;
+    }
+
+    public int getNumNotes() {
+        return numNotes;
+    }
+
+    public int getCacheHits() {
+        return cacheHits;
+    }
+
+    public int getCacheMisses() {
+        return cacheMisses;
+    }
+
+    public int getPitchStrings() {
+        return pitchStrings;
+    }
+
+    public int getPitchStringsReused() {
+        return pitchStringsReused;
+    }
+
+    public double getTotalMs() {
+        return toMs(totalNanos);
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /** Appends this render's summary to a file as a single line of JSON. */
+    public void writeSummary(File logFile) {
+        try (Writer writer = new FileWriter(logFile, StandardCharsets.UTF_8, true)) {
+            writer.write(toJson());
+            writer.write(System.lineSeparator());
+        } catch (IOException e) {
+            errorLogger.logError(e);
+        }
+    }
+
+    String toJson() {
+        return String.format(
+                Locale.ROOT,
+                "{\"time\":\"%s\",\"kind\":%s,\"voicebank\":%s,\"resampler\":%s,\"wavtool\":%s,"
+                        + "\"completed\":%b,\"totalMs\":%.1f,\"planMs\":%.1f,\"pitchMs\":%.1f,"
+                        + "\"pitchStrings\":%d,\"pitchStringsReused\":%d,"
+                        + "\"notes\":%d,\"cacheHits\":%d,\"cacheMisses\":%d,"
+                        + "\"resamples\":%d,\"resampleTotalMs\":%.1f,\"resampleMeanMs\":%.1f,"
+                        + "\"resampleP95Ms\":%.1f,\"resampleMaxMs\":%.1f,\"mixMs\":%.1f,"
+                        + "\"bytesWritten\":%d}",
+                Instant.now(),
+                quote(kind),
+                quote(voicebank),
+                quote(resampler),
+                quote(wavtool),
+                completed,
+                toMs(totalNanos),
+                toMs(planNanos),
+                toMs(pitchNanos),
+                pitchStrings,
+                pitchStringsReused,
+                numNotes,
+                cacheHits,
+                cacheMisses,
+                resampleNanos.size(),
+                toMs(getResampleTotal()),
+                resampleNanos.isEmpty() ? 0 : toMs(getResampleTotal() / resampleNanos.size()),
+                toMs(getResamplePercentile(0.95)),
+                toMs(getResamplePercentile(1.0)),
+                toMs(mixNanos),
+                bytesWritten);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                Locale.ROOT,
+                "Rendered %d notes (%d cached) in %.2f seconds: planning %.0f ms, "
+                        + "%d resamples (max %.0f ms), mixing %.0f ms, %d bytes written",
+                numNotes,
+                cacheHits,
+                toMs(totalNanos) / 1000,
+                toMs(planNanos),
+                resampleNanos.size(),
+                toMs(getResamplePercentile(1.0)),
+                toMs(mixNanos),
+                bytesWritten);
+    }
+
+    private long getResampleTotal() {
+        long total = 0;
+        for (long nanos : resampleNanos) {
+            total += nanos;
+        }
+        return total;
+    }
+
+    private long getResamplePercentile(double percentile) {
+        if (resampleNanos.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * resampleNanos.size()) - 1;
+        return resampleNanos.get(Math.max(0, index));
+    }
+
+    private static double toMs(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,52 @@
+package com.utsusynth.utsu.engine;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything needed to render one region of a song, in timeline order: the resampler calls that
+ * produce each note and either the wavtool calls or the mixer segments that join them.
+ */
+class RenderPlan {
+    private final File finalSong;
+    private final ArrayList<String[]> resamplerScriptLines;
+    private final ArrayList<String[]> wavtoolScriptLines;
+    private final ArrayList<MixSegment> mixSegments;
+
+    RenderPlan(File finalSong) {
+        this.finalSong = finalSong;
+        this.resamplerScriptLines = new ArrayList<>();
+        this.wavtoolScriptLines = new ArrayList<>();
+        this.mixSegments = new ArrayList<>();
+    }
+
+    File getFinalSong() {
+        return finalSong;
+    }
+
+    /** Resampler arguments, or an empty array when the note is already cached. */
+    ArrayList<String[]> getResamplerScriptLines() {
+        return resamplerScriptLines;
+    }
+
+    ArrayList<String[]> getWavtoolScriptLines() {
+        return wavtoolScriptLines;
+    }
+
+    List<MixSegment> getMixSegments() {
+        return mixSegments;
+    }
+
+    void addResamplerLine(String[] args) {
+        resamplerScriptLines.add(args);
+    }
+
+    void addWavtoolLine(String[] args) {
+        wavtoolScriptLines.add(args);
+    }
+
+    void addMixSegment(MixSegment segment) {
+        mixSegments.add(segment);
+    }
+}
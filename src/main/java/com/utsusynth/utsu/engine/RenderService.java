@@ -0,0 +1,78 @@
+package com.utsusynth.utsu.engine;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import com.utsusynth.utsu.common.exception.ErrorLogger;
+import com.utsusynth.utsu.engine.RenderJob.Priority;
+
+/**
+ * Owns every render job in the app. Starting a job supersedes any older job from the same owner
+ * at the same priority, as well as that owner's background work, so a stale render never competes
+ * with the one the user just asked for. CPU time between jobs that do run at once is divided by
+ * priority in the {@link ResamplerScheduler}.
+ */
+public class RenderService {
+    private static final ErrorLogger errorLogger = ErrorLogger.getLogger();
+
+    private final ExecutorService executor;
+    private final Map<RenderJob, Object> activeJobs; // Maps each job to its owner.
+
+    public RenderService() {
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "render-job");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.activeJobs = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Starts a render job in the background.
+     *
+     * @param owner Whatever the job renders for, usually an engine. Jobs from different owners
+     *        never cancel each other.
+     */
+    public RenderJob submit(Object owner, Priority priority, Consumer<RenderJob> task) {
+        RenderJob job = new RenderJob(priority);
+        for (Iterator<Map.Entry<RenderJob, Object>> iterator =
+                activeJobs.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry<RenderJob, Object> entry = iterator.next();
+            RenderJob oldJob = entry.getKey();
+            if (entry.getValue() == owner && (oldJob.getPriority() == priority
+                    || oldJob.getPriority() == Priority.BACKGROUND)) {
+                oldJob.cancel();
+                iterator.remove();
+            }
+        }
+        activeJobs.put(job, owner);
+        executor.execute(() -> {
+            try {
+                if (!job.isCancelled()) {
+                    task.accept(job);
+                }
+            } catch (RuntimeException e) {
+                errorLogger.logError(e);
+            } finally {
+                activeJobs.remove(job);
+            }
+        });
+        return job;
+    }
+
+    /** Cancels every job started for an owner, for example when its song is closed. */
+    public void cancelAll(Object owner) {
+        for (Iterator<Map.Entry<RenderJob, Object>> iterator =
+                activeJobs.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry<RenderJob, Object> entry = iterator.next();
+            if (entry.getValue() == owner) {
+                entry.getKey().cancel();
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.utsusynth.utsu.engine;
+
+import java.io.File;
+import java.util.function.Function;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Identifies one resampler output by everything that goes into it: which resampler and source
+ * sample, down to their size and modification time, and each argument that shapes the note.
+ * Re-recording a sample or replacing the resampler therefore changes the key.
+ */
+class ResampleCacheKey {
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final File resampler;
+    private final FileFingerprint resamplerFingerprint;
+    private final File source;
+    private final FileFingerprint sourceFingerprint;
+    private final String pitch;
+    private final String velocity;
+    private final String flags;
+    private final String offset;
+    private final String length;
+    private final String consonant;
+    private final String cutoff;
+    private final String intensity;
+    private final String modulation;
+    private final String tempo; // Empty if there are no tempo or pitchbend arguments.
+    private final String pitchbends; // Empty if there are no pitchbend arguments.
+    private final HashCode hash;
+
+    private ResampleCacheKey(String[] args, Function<File, FileFingerprint> fingerprints) {
+        this.resampler = new File(args[0]);
+        this.resamplerFingerprint = fingerprints.apply(resampler);
+        this.source = new File(args[1]);
+        this.sourceFingerprint = fingerprints.apply(source);
+        this.pitch = args[3];
+        this.velocity = args[4];
+        this.flags = args[5];
+        this.offset = args[6];
+        this.length = args[7];
+        this.consonant = args[8];
+        this.cutoff = args[9];
+        this.intensity = args[10];
+        this.modulation = args[11];
+        this.tempo = args.length > 12 ? args[12] : "";
+        this.pitchbends = args.length > 13 ? args[13] : "";
+        this.hash = computeHash();
+    }
+
+    /**
+     * Builds a key from resampler arguments, ignoring the output file in args[2].
+     *
+     * @param fingerprints Looks up the current size and modification time of a file.
+     */
+    static ResampleCacheKey fromArgs(
+            String[] args,
+            Function<File, FileFingerprint> fingerprints) {
+        return new ResampleCacheKey(args, fingerprints);
+    }
+
+    /** Name of the cache file for this key, from its 128-bit hash. */
+    String getFileName() {
+        return "note-" + hash + ".wav";
+    }
+
+    private HashCode computeHash() {
+        Hasher hasher = HASH_FUNCTION.newHasher();
+        putString(hasher, resampler.getPath());
+        hasher.putLong(resamplerFingerprint.size).putLong(resamplerFingerprint.lastModified);
+        putString(hasher, source.getPath());
+        hasher.putLong(sourceFingerprint.size).putLong(sourceFingerprint.lastModified);
+        // The whole pitch string goes in, as it is the field most likely to differ.
+        for (String field : new String[] {pitch, velocity, flags, offset, length, consonant,
+                cutoff, intensity, modulation, tempo, pitchbends}) {
+            putString(hasher, field);
+        }
+        return hasher.hash();
+    }
+
+    // Length-prefixed so that no two sets of fields hash the same input.
+    private static void putString(Hasher hasher, String value) {
+        hasher.putInt(value.length()).putUnencodedChars(value);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ResampleCacheKey)) {
+            return false;
+        }
+        return hash.equals(((ResampleCacheKey) other).hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash.asInt();
+    }
+
+    @Override
+    public String toString() {
+        return String.join(
+                " ",
+                resampler.getPath(),
+                resamplerFingerprint.toString(),
+                source.getPath(),
+                sourceFingerprint.toString(),
+                pitch,
+                velocity,
+                flags,
+                offset,
+                length,
+                consonant,
+                cutoff,
+                intensity,
+                modulation,
+                tempo,
+                pitchbends.length() + ":" + Integer.toHexString(pitchbends.hashCode()));
+    }
+
+    /** Size and modification time of a file, which change whenever it is rewritten. */
+    static class FileFingerprint {
+        private final long size;
+        private final long lastModified;
+
+        FileFingerprint(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        static FileFingerprint of(File file) {
+            return new FileFingerprint(file.length(), file.lastModified());
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof FileFingerprint)) {
+                return false;
+            }
+            FileFingerprint fingerprint = (FileFingerprint) other;
+            return size == fingerprint.size && lastModified == fingerprint.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + Long.hashCode(lastModified);
+        }
+
+        @Override
+        public String toString() {
+            return size + "@" + lastModified;
+        }
+    }
+}
@@ -1,13 +1,11 @@
 package com.utsusynth.utsu.engine;
 
 import java.io.File;
-import java.io.UnsupportedEncodingException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.inject.Inject;
 import com.utsusynth.utsu.common.utils.PitchUtils;
+import com.utsusynth.utsu.engine.ResampleCacheKey.FileFingerprint;
 import com.utsusynth.utsu.files.FileHelper;
 import com.utsusynth.utsu.files.FileNameMapper;
 import com.utsusynth.utsu.files.ScriptHelper;
@@ -16,18 +14,36 @@ import com.utsusynth.utsu.model.song.Song;
 import com.utsusynth.utsu.model.voicebank.LyricConfig;
 
 public class Resampler {
-    private static final File SILENCE_PATH = new File("assets/silence.wav");
+    private static final long FINGERPRINT_MAX_AGE_MS = 2000;
 
-    private ConcurrentHashMap<String, String> cacheMap = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<File, TimedFingerprint> fingerprints =
+            new ConcurrentHashMap<>();
     private final ExternalProcessRunner runner;
+    private final ResamplerCache cache;
     private final String cacheDir;
 
     @Inject
-    Resampler(ExternalProcessRunner runner) {
+    Resampler(ExternalProcessRunner runner, ResamplerCache cache) {
         this.runner = runner;
+        this.cache = cache;
         this.cacheDir = FileHelper.getUtsuCacheDirectory();
     }
 
+    /** Marks a cache file as still in use, so it is kept over ones that have not been used. */
+    public void recordCacheUse(File cacheFile) {
+        cache.recordUse(cacheFile);
+    }
+
+    /** Whether a cache file has been resampled, including into the cache's pack files. */
+    public boolean isCached(File cacheFile) {
+        return cache.contains(cacheFile);
+    }
+
+    /** Moves a finished cache file into the cache's pack files, if it uses them. */
+    public void packCacheFile(File cacheFile) {
+        cache.pack(cacheFile);
+    }
+
     public File resample(
             File resamplerPath,
             Note note,
@@ -42,20 +58,8 @@ public class Resampler {
         return resampleWithCache(args, outputFile);
     }
 
-    public String[] getResampleArgsNotCached(
-        File resamplerPath,
-        Note note,
-        double noteLength,
-        LyricConfig config,
-        File outputFile,
-        String pitchString,
-        Song song) {
-
-        String[] args = getResampleArgs(resamplerPath, note, noteLength, config, pitchString, song);
-        return getResampleArgsNotCached(args, outputFile);
-    }
-
-    public File getResampleCacheFile(
+    /** Returns resampler arguments that always write to the note's cache file. */
+    public String[] getResampleArgsToCache(
         File resamplerPath,
         Note note,
         double noteLength,
@@ -64,22 +68,8 @@ public class Resampler {
         Song song) {
 
         String[] args = getResampleArgs(resamplerPath, note, noteLength, config, pitchString, song);
-        return new File(getCacheFileName(args));
-    }
-
-    public File resampleSilence(File resamplerPath, File outputFile, double duration) {
-        String[] args = getResampleSilenceArgs(resamplerPath, duration);
-        return resampleWithCache(args, outputFile);
-    }
-
-    public String[] getResampleSilenceArgsNotCached(File resamplerPath, File outputFile, double duration) {
-        String[] args = getResampleSilenceArgs(resamplerPath, duration);
-        return getResampleArgsNotCached(args, outputFile);
-    }
-    
-    public File getResampleSilenceCacheFile(File resamplerPath, double duration) {
-        String[] args = getResampleSilenceArgs(resamplerPath, duration);
-        return new File(getCacheFileName(args));
+        args[2] = getCacheFileName(args);
+        return args;
     }
 
     private String[] getResampleArgs(File resamplerPath, Note note, double noteLength, LyricConfig config, String pitchString, Song song) {
@@ -118,28 +108,6 @@ public class Resampler {
         return args;
     }
 
-    private String[] getResampleSilenceArgs(File resamplerPath, double duration) {
-
-        String desiredLength = Double.toString(duration + 1);
-
-        String[] args = {
-            resamplerPath.getAbsolutePath(),
-            SILENCE_PATH.getAbsolutePath(),
-            "",
-            "C4",
-            "100",
-            "?",
-            "0",
-            desiredLength,
-            "0",
-            "0",
-            "100",
-            "0"
-        };
-
-        return args;
-    }
-
     private File resampleWithCache(String[] args, File outputFile) {
 
         File cacheFile;
@@ -165,27 +133,6 @@ public class Resampler {
         return cacheFile;
     }
 
-    private String[] getResampleArgsNotCached(String[] args, File outputFile) {
-
-        try {
-            String cacheFileName = getCacheFileName(args);
-            File cacheFile = new File(cacheFileName);
-            
-            if (cacheFile.exists()) {
-                // This has already been cached
-                return new String[0];
-            }
-
-            // Output the render to this file name
-            args[2] = cacheFileName;
-
-        } catch (Exception e) {
-            // Do what??
-        }
-
-        return args;
-    }
-
     private String getResampleScriptFromArgs(String[] args) {
 
         String cacheFileName = getCacheFileName(args);
@@ -203,39 +150,34 @@ public class Resampler {
     }
 
     private String getCacheFileName(String[] args) {
+        ResampleCacheKey key = ResampleCacheKey.fromArgs(args, this::getFingerprint);
+        String cacheFileName = cacheDir + key.getFileName();
+        cache.recordUse(new File(cacheFileName), key.toString());
+        return cacheFileName;
+    }
 
-        String cacheString = String.join("::", args);
-        String cacheFileName = null;
-
-        if (cacheMap.contains(cacheString)) {
-            // Avoid creating a new MD5, if possible
-            cacheFileName = cacheMap.get(cacheString);
+    /**
+     * Returns a file's size and modification time, checking the disk at most every few seconds
+     * per file since a song asks about the same samples over and over.
+     */
+    FileFingerprint getFingerprint(File file) {
+        long now = System.currentTimeMillis();
+        TimedFingerprint cached = fingerprints.get(file);
+        if (cached != null && now - cached.checkedAtMs < FINGERPRINT_MAX_AGE_MS) {
+            return cached.fingerprint;
         }
+        FileFingerprint fingerprint = FileFingerprint.of(file);
+        fingerprints.put(file, new TimedFingerprint(fingerprint, now));
+        return fingerprint;
+    }
 
-        if (cacheFileName == null || cacheFileName.length() == 0) {
-
-            try {
-                // Create a hash of the values for good file names
-                byte[] bytesOfMessage = cacheString.getBytes("UTF-8");
-                MessageDigest md = MessageDigest.getInstance("MD5");
-                byte[] thedigest = md.digest(bytesOfMessage);
-
-                StringBuilder sb = new StringBuilder();
-                for (byte b : thedigest) {
-                    sb.append(String.format("%02x", b));
-                }
-
-                cacheFileName = cacheDir + "note-" + sb.toString() + ".wav";
-
-            } catch (UnsupportedEncodingException | NoSuchAlgorithmException e) {
-                cacheFileName = cacheDir + "note-" + cacheString.hashCode() + ".wav";                
-            }
+    private static class TimedFingerprint {
+        private final FileFingerprint fingerprint;
+        private final long checkedAtMs;
 
-            if (!cacheMap.contains(cacheString)) {
-                cacheMap.put(cacheString, cacheFileName);
-            }
+        private TimedFingerprint(FileFingerprint fingerprint, long checkedAtMs) {
+            this.fingerprint = fingerprint;
+            this.checkedAtMs = checkedAtMs;
         }
-
-        return cacheFileName;
     }
-}
\ No newline at end of file
+}
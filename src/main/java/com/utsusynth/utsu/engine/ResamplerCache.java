@@ -0,0 +1,361 @@
+package com.utsusynth.utsu.engine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Optional;
+import com.utsusynth.utsu.common.exception.ErrorLogger;
+
+/**
+ * Keeps the resampler cache directory under a size budget. An index file in the directory records
+ * each note file's size, when it was last used and the resampler arguments it came from. Least
+ * recently used files are deleted in the background whenever the cache outgrows its budget.
+ *
+ * <p>
+ * Optionally, finished notes are moved into pack files, which keeps the directory small and lets
+ * the mixer read notes straight out of mapped memory. Notes keep their file names as keys either
+ * way, so callers ask this class whether a note is cached rather than checking the disk.
+ */
+public class ResamplerCache {
+    private static final ErrorLogger errorLogger = ErrorLogger.getLogger();
+    private static final String INDEX_FILE_NAME = "cache-index.tsv";
+    private static final String INDEX_HEADER = "# name\tbytes\tlastUsedMs\tkey";
+    private static final long EVICTION_PERIOD_MS = 60 * 1000;
+    private static final long MIN_AGE_MS = 10 * 60 * 1000; // Files used since then are kept.
+    private static final double TARGET_FILL = 0.9; // Evict a little extra to avoid thrashing.
+
+    private final File cacheDir;
+    private final File indexFile;
+    private final long maxBytes;
+    private final Map<String, Entry> entries; // By file name. Guarded by this.
+    private boolean indexChanged; // Guarded by this.
+    private final Object indexFileLock = new Object(); // Held while writing the index file.
+    private final PackStore pack; // Null unless notes are kept in pack files.
+    private ScheduledExecutorService executor;
+
+    public ResamplerCache(File cacheDir, long maxBytes) {
+        this(cacheDir, maxBytes, false);
+    }
+
+    public ResamplerCache(File cacheDir, long maxBytes, boolean usePackFiles) {
+        this.cacheDir = cacheDir;
+        this.indexFile = new File(cacheDir, INDEX_FILE_NAME);
+        this.maxBytes = maxBytes;
+        this.entries = new HashMap<>();
+        this.indexChanged = false;
+        this.pack = usePackFiles ? openPack(new File(cacheDir, "pack")) : null;
+    }
+
+    private static PackStore openPack(File packDir) {
+        try {
+            return PackStore.open(packDir);
+        } catch (IOException e) {
+            System.out.println("Warning: Keeping resampled notes as separate files.");
+            errorLogger.logError(e);
+            return null;
+        }
+    }
+
+    /**
+     * Reconciles the index with the files on disk, then keeps the cache within budget until
+     * shutdown. Both happen on a background thread.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "resampler-cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::reconcile);
+        executor.scheduleWithFixedDelay(
+                this::evict,
+                EVICTION_PERIOD_MS,
+                EVICTION_PERIOD_MS,
+                TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            saveIndex();
+            if (pack != null) {
+                pack.close();
+            }
+        }));
+    }
+
+    /** Whether a note has been resampled, either as its own file or in a pack file. */
+    public boolean contains(File cacheFile) {
+        return (pack != null && pack.contains(cacheFile.getName())) || cacheFile.exists();
+    }
+
+    /** Returns a packed note's WAV bytes as a read-only view of mapped memory. */
+    public Optional<ByteBuffer> readPacked(File cacheFile) {
+        return pack == null ? Optional.absent() : pack.get(cacheFile.getName());
+    }
+
+    /**
+     * Moves a freshly resampled note into the pack files, if there are any. The note can be read
+     * through {@link #readPacked} before its own file is deleted.
+     */
+    public void pack(File cacheFile) {
+        if (pack == null || !cacheFile.exists()) {
+            return;
+        }
+        try {
+            if (pack.put(cacheFile.getName(), cacheFile)) {
+                cacheFile.delete();
+            }
+        } catch (IOException e) {
+            errorLogger.logError(e); // The note stays where it is.
+        }
+    }
+
+    /**
+     * Marks a cache file as used just now. It may not have been written yet.
+     *
+     * @param key The resampler arguments the file was rendered from.
+     */
+    public synchronized void recordUse(File cacheFile, String key) {
+        Entry entry = entries.get(cacheFile.getName());
+        if (entry == null) {
+            entry = new Entry(cacheFile.getName(), 0, key);
+            entries.put(entry.name, entry);
+        } else if (!key.isEmpty()) {
+            entry.key = key;
+        }
+        entry.lastUsedMs = System.currentTimeMillis();
+        indexChanged = true;
+    }
+
+    /** Marks a cache file as used just now, keeping whatever key it was recorded with. */
+    public void recordUse(File cacheFile) {
+        recordUse(cacheFile, "");
+    }
+
+    public synchronized int getNumEntries() {
+        return entries.size();
+    }
+
+    /** Total size of the cache as of the last eviction pass. */
+    public synchronized long getTotalBytes() {
+        long totalBytes = 0;
+        for (Entry entry : entries.values()) {
+            totalBytes += entry.bytes;
+        }
+        return totalBytes;
+    }
+
+    /** Loads the index, then brings it in line with the note files actually in the directory. */
+    void reconcile() {
+        Map<String, Entry> indexed = loadIndex();
+        Map<String, Entry> onDisk = new HashMap<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(cacheDir.toPath(), "note-*")) {
+            for (Path path : dir) {
+                File file = path.toFile();
+                String name = file.getName();
+                if (!name.endsWith(".wav")) {
+                    continue;
+                }
+                Entry entry = indexed.get(name);
+                if (entry == null) {
+                    // Written before there was an index, or since it was last saved.
+                    entry = new Entry(name, 0, "");
+                    entry.lastUsedMs = file.lastModified();
+                }
+                entry.bytes = file.length();
+                onDisk.put(name, entry);
+            }
+        } catch (IOException e) {
+            errorLogger.logError(e);
+            return;
+        }
+        // Notes that were still being written when the program last closed.
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(cacheDir.toPath(), "part-*")) {
+            for (Path path : dir) {
+                if (now - path.toFile().lastModified() > MIN_AGE_MS) {
+                    path.toFile().delete();
+                }
+            }
+        } catch (IOException e) {
+            errorLogger.logError(e);
+        }
+        if (pack != null) {
+            pack.forEach((name, bytes) -> {
+                Entry entry = indexed.get(name);
+                if (entry == null) {
+                    entry = new Entry(name, 0, "");
+                    entry.lastUsedMs = System.currentTimeMillis();
+                }
+                entry.bytes = bytes;
+                onDisk.put(name, entry);
+            });
+        }
+        synchronized (this) {
+            // Files used since startup may not be on disk yet, so keep them as they are.
+            for (Entry entry : onDisk.values()) {
+                Entry current = entries.get(entry.name);
+                if (current == null) {
+                    entries.put(entry.name, entry);
+                } else {
+                    current.bytes = entry.bytes;
+                    current.lastUsedMs = Math.max(current.lastUsedMs, entry.lastUsedMs);
+                    if (current.key.isEmpty()) {
+                        current.key = entry.key;
+                    }
+                }
+            }
+            indexChanged = true;
+        }
+        evict();
+    }
+
+    /** Deletes least recently used files until the cache is back under budget. */
+    void evict() {
+        long now = System.currentTimeMillis();
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (this) {
+            long totalBytes = 0;
+            for (Entry entry : new ArrayList<>(entries.values())) {
+                // Sizes are only known once the resampler has finished writing.
+                if (entry.bytes == 0) {
+                    entry.bytes = new File(cacheDir, entry.name).length();
+                }
+                if (entry.bytes == 0 && pack != null) {
+                    entry.bytes = pack.getLength(entry.name);
+                }
+                if (entry.bytes == 0 && now - entry.lastUsedMs > MIN_AGE_MS) {
+                    entries.remove(entry.name); // Never written, or deleted by someone else.
+                    indexChanged = true;
+                }
+                totalBytes += entry.bytes;
+            }
+            if (totalBytes > maxBytes) {
+                List<Entry> byLastUse = new ArrayList<>(entries.values());
+                byLastUse.sort(Comparator.comparingLong(entry -> entry.lastUsedMs));
+                long targetBytes = (long) (maxBytes * TARGET_FILL);
+                for (Entry entry : byLastUse) {
+                    if (totalBytes <= targetBytes || now - entry.lastUsedMs < MIN_AGE_MS) {
+                        break;
+                    }
+                    entries.remove(entry.name);
+                    evicted.add(entry);
+                    totalBytes -= entry.bytes;
+                }
+                indexChanged = true;
+            }
+        }
+        for (Entry entry : evicted) {
+            new File(cacheDir, entry.name).delete();
+            if (pack != null) {
+                pack.remove(entry.name);
+            }
+        }
+        saveIndex();
+        if (pack != null) {
+            pack.compact();
+        }
+    }
+
+    private Map<String, Entry> loadIndex() {
+        Map<String, Entry> indexed = new HashMap<>();
+        if (!indexFile.exists()) {
+            return indexed;
+        }
+        try (BufferedReader reader =
+                Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                if (line.startsWith("#") || fields.length < 3) {
+                    continue;
+                }
+                try {
+                    Entry entry = new Entry(
+                            fields[0],
+                            Long.parseLong(fields[1]),
+                            fields.length > 3 ? fields[3] : "");
+                    entry.lastUsedMs = Long.parseLong(fields[2]);
+                    indexed.put(entry.name, entry);
+                } catch (NumberFormatException e) {
+                    System.out.println("Warning: Skipping bad cache index line: " + line);
+                }
+            }
+        } catch (IOException e) {
+            errorLogger.logError(e);
+        }
+        return indexed;
+    }
+
+    private void saveIndex() {
+        synchronized (indexFileLock) {
+            saveIndexLocked();
+        }
+    }
+
+    private void saveIndexLocked() {
+        List<String> lines = new ArrayList<>();
+        synchronized (this) {
+            if (!indexChanged) {
+                return;
+            }
+            for (Entry entry : entries.values()) {
+                lines.add(entry.name + "\t" + entry.bytes + "\t" + entry.lastUsedMs + "\t"
+                        + entry.key.replaceAll("[\t\r\n]", " "));
+            }
+            indexChanged = false;
+        }
+        // Write a new file and swap it in, so that a crash never leaves half an index.
+        File newIndex = new File(cacheDir, INDEX_FILE_NAME + ".tmp");
+        try (BufferedWriter writer =
+                Files.newBufferedWriter(newIndex.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(INDEX_HEADER);
+            writer.newLine();
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            errorLogger.logError(e);
+            return;
+        }
+        try {
+            Files.move(
+                    newIndex.toPath(),
+                    indexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            errorLogger.logError(e);
+        }
+    }
+
+    private static class Entry {
+        private final String name;
+        private long bytes;
+        private long lastUsedMs;
+        private String key;
+
+        private Entry(String name, long bytes, String key) {
+            this.name = name;
+            this.bytes = bytes;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.utsusynth.utsu.engine;
+
+import java.util.function.Consumer;
+
+/**
+ * Renders single notes from UTAU resampler arguments: input file, output file, pitch, velocity,
+ * flags, offset, length, consonant, cutoff, intensity, modulation, tempo and pitchbends, in that
+ * order after the resampler path. Implementations are called from many threads at once.
+ */
+public interface ResamplerEngine {
+    /**
+     * Renders a note to the output file in args[2].
+     *
+     * @param onStart Receives any child process as soon as it starts, so it can be killed early.
+     */
+    void resample(String[] args, Consumer<Process> onStart);
+}
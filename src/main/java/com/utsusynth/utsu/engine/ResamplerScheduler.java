@@ -0,0 +1,428 @@
+package com.utsusynth.utsu.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.utsusynth.utsu.common.exception.ErrorLogger;
+import com.utsusynth.utsu.engine.RenderJob.Priority;
+
+/**
+ * Runs resampler calls on a fixed pool of threads that share one queue. Each thread takes the next
+ * job as soon as it finishes its last one, so no core sits idle while another works through a
+ * backlog, and callers can act on each note the moment it is rendered.
+ *
+ * <p>
+ * Each output file is written by at most one resampler at a time. A job for a file that another
+ * batch is already writing waits for that job instead. Resamplers write to a temporary file of
+ * their own, which is renamed into place once it is complete. Cancelling a batch only ever
+ * deletes these temporary files, and leaves running any job that another batch is waiting on.
+ */
+public class ResamplerScheduler {
+    private static final ErrorLogger errorLogger = ErrorLogger.getLogger();
+    private static final int LENGTH_INDEX = 7; // Position of desired length in resampler args.
+
+    /** The order in which a batch's jobs are started. */
+    public enum Order {
+        LONGEST_FIRST, // Finishes the whole batch soonest.
+        TIMELINE, // Finishes the start of the song soonest.
+    }
+
+    private final ResamplerEngine externalResampler;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong batchCounter;
+    private final AtomicLong tempFileCounter;
+    private final ConcurrentHashMap<File, Render> inFlight;
+
+    public ResamplerScheduler(ExternalProcessRunner runner, int numThreads) {
+        this.externalResampler = runner::getProcessOutput;
+        this.executor = new ThreadPoolExecutor(
+                numThreads,
+                numThreads,
+                30,
+                TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.executor.setThreadFactory(runnable -> {
+            Thread thread = new Thread(runnable, "resampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.batchCounter = new AtomicLong(0);
+        this.tempFileCounter = new AtomicLong(0);
+        this.inFlight = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Queues a set of resampler calls, skipping empty (already cached) and duplicate ones. Jobs
+     * from more urgent batches always start before jobs from less urgent ones.
+     *
+     * @param resampler Runs each call, either in-process or by starting the program in args[0].
+     * @param onJobFinished Called from a worker thread with each output file once it is written.
+     */
+    public Batch submit(
+            List<String[]> resamplerArgs,
+            Order order,
+            Priority priority,
+            ResamplerEngine resampler,
+            Consumer<File> onJobFinished) {
+        Map<File, String[]> uniqueJobs = new LinkedHashMap<>();
+        for (String[] args : resamplerArgs) {
+            if (args.length > 0) {
+                uniqueJobs.putIfAbsent(new File(args[2]), args);
+            }
+        }
+
+        long batchNumber = batchCounter.getAndIncrement();
+        ImmutableMap.Builder<File, CompletableFuture<File>> futures = ImmutableMap.builder();
+        List<Job> jobs = new ArrayList<>(uniqueJobs.size());
+        int timelineIndex = 0;
+        for (Map.Entry<File, String[]> entry : uniqueJobs.entrySet()) {
+            double jobPriority = order == Order.LONGEST_FIRST ? -getLength(entry.getValue())
+                    : timelineIndex++;
+            Job job = new Job(
+                    resampler,
+                    priority,
+                    batchNumber,
+                    jobPriority,
+                    entry.getKey(),
+                    entry.getValue());
+            futures.put(entry.getKey(), job.future);
+            jobs.add(job);
+        }
+        Batch batch = new Batch(futures.build(), onJobFinished);
+        for (Job job : jobs) {
+            job.batch = batch;
+            executor.execute(job);
+        }
+        return batch;
+    }
+
+    /** Queues a set of calls to the external resampler in args[0]. */
+    public Batch submit(
+            List<String[]> resamplerArgs,
+            Order order,
+            Priority priority,
+            Consumer<File> onJobFinished) {
+        return submit(resamplerArgs, order, priority, externalResampler, onJobFinished);
+    }
+
+    public Batch submit(List<String[]> resamplerArgs, Order order, Priority priority) {
+        return submit(resamplerArgs, order, priority, file -> {
+        });
+    }
+
+    /** Returns how many batches are waiting on another batch's job for this file. */
+    int getNumWaiting(File outputFile) {
+        Render render = inFlight.get(outputFile);
+        return render == null ? 0 : render.numWaiting.get();
+    }
+
+    private static double getLength(String[] args) {
+        try {
+            return Double.parseDouble(args[LENGTH_INDEX]);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return 0;
+        }
+    }
+
+    /** Resampler calls that were queued together. */
+    public static class Batch {
+        private final ImmutableMap<File, CompletableFuture<File>> jobs;
+        private final Consumer<File> onJobFinished;
+        private final AtomicInteger numFinished;
+        private final Map<Process, Render> runningProcesses;
+        private final Set<Render> waitingOn; // Other batches' renders this batch is waiting for.
+        private final Queue<Long> jobTimes; // Wall time of each finished job, in nanoseconds.
+        private volatile boolean cancelled;
+
+        private Batch(
+                ImmutableMap<File, CompletableFuture<File>> jobs,
+                Consumer<File> onJobFinished) {
+            this.jobs = jobs;
+            this.onJobFinished = onJobFinished;
+            this.numFinished = new AtomicInteger(0);
+            this.runningProcesses = new ConcurrentHashMap<>();
+            this.waitingOn = ConcurrentHashMap.newKeySet();
+            this.jobTimes = new ConcurrentLinkedQueue<>();
+            this.cancelled = false;
+        }
+
+        public int getNumJobs() {
+            return jobs.size();
+        }
+
+        public int getNumFinished() {
+            return numFinished.get();
+        }
+
+        /** Returns how long each finished job took to run, in nanoseconds. */
+        public List<Long> getJobTimes() {
+            return ImmutableList.copyOf(jobTimes);
+        }
+
+        /**
+         * Blocks until a file in this batch has been rendered. Returns immediately if the file was
+         * not part of this batch.
+         *
+         * @return false if the job was cancelled or the wait was interrupted.
+         */
+        public boolean await(File outputFile) {
+            CompletableFuture<File> job = jobs.get(outputFile);
+            if (job == null) {
+                return true;
+            }
+            try {
+                job.get();
+                return true;
+            } catch (InterruptedException e) {
+                return false;
+            } catch (ExecutionException e) {
+                errorLogger.logError(e);
+                return true; // A failed note is mixed as silence.
+            } catch (CancellationException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Blocks until every job in this batch has finished.
+         *
+         * @return false if the batch was cancelled or the wait was interrupted.
+         */
+        public boolean awaitAll() {
+            for (File outputFile : jobs.keySet()) {
+                if (!await(outputFile)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Drops any jobs that have not started yet and kills the ones that are running, unless
+         * another batch is waiting for them.
+         */
+        public void cancel() {
+            cancelled = true;
+            for (CompletableFuture<File> job : jobs.values()) {
+                job.cancel(false);
+            }
+            for (Render render : waitingOn) {
+                stopWaiting(render);
+            }
+            for (Map.Entry<Process, Render> running : runningProcesses.entrySet()) {
+                if (!running.getValue().isWanted()) {
+                    running.getValue().kill(running.getKey());
+                }
+            }
+        }
+
+        private void startWaiting(Render render) {
+            if (waitingOn.add(render)) {
+                render.numWaiting.incrementAndGet();
+            }
+            if (cancelled) {
+                stopWaiting(render); // Cancelled while it started waiting.
+            }
+        }
+
+        private void stopWaiting(Render render) {
+            if (waitingOn.remove(render)) {
+                render.release();
+            }
+        }
+
+        private void finish(File outputFile, long nanos) {
+            jobTimes.add(nanos);
+            numFinished.incrementAndGet();
+            onJobFinished.accept(outputFile);
+        }
+    }
+
+    private class Job implements Runnable, Comparable<Job> {
+        private final ResamplerEngine resampler;
+        private final Priority batchPriority;
+        private final long batchNumber;
+        private final double priority;
+        private final File outputFile;
+        private final String[] args;
+        private final CompletableFuture<File> future;
+        private Batch batch;
+
+        private Job(
+                ResamplerEngine resampler,
+                Priority batchPriority,
+                long batchNumber,
+                double priority,
+                File outputFile,
+                String[] args) {
+            this.resampler = resampler;
+            this.batchPriority = batchPriority;
+            this.batchNumber = batchNumber;
+            this.priority = priority;
+            this.outputFile = outputFile;
+            this.args = args;
+            this.future = new CompletableFuture<>();
+        }
+
+        @Override
+        public void run() {
+            if (batch.cancelled || future.isDone()) {
+                return;
+            }
+            long startNanos = System.nanoTime();
+            Render render = new Render(batch);
+            Render existing = inFlight.putIfAbsent(outputFile, render);
+            if (existing != null) {
+                // Another batch is writing this file, so wait for it rather than write it twice.
+                batch.startWaiting(existing);
+                existing.written.whenComplete((written, error) -> {
+                    batch.stopWaiting(existing);
+                    if (batch.cancelled) {
+                        return;
+                    } else if (error != null) {
+                        future.completeExceptionally(error);
+                    } else if (written) {
+                        finish(startNanos);
+                    } else {
+                        executor.execute(this); // Cancelled before it was written.
+                    }
+                });
+                return;
+            }
+
+            File tempFile = new File(
+                    outputFile.getAbsoluteFile().getParentFile(),
+                    "part-" + tempFileCounter.getAndIncrement() + "-" + outputFile.getName());
+            String[] tempArgs = args.clone();
+            tempArgs[2] = tempFile.getAbsolutePath();
+            Process[] process = new Process[1];
+            boolean written = false;
+            try {
+                resampler.resample(tempArgs, started -> {
+                    process[0] = started;
+                    render.process = started;
+                    batch.runningProcesses.put(started, render);
+                    if (batch.cancelled && !render.isWanted()) {
+                        render.kill(started); // Cancelled while starting up.
+                    }
+                });
+                if (render.killed || (batch.cancelled && !render.isWanted())) {
+                    // May have been cut short. Only ever delete our own file, never the cache's.
+                    tempFile.delete();
+                } else {
+                    moveIntoPlace(tempFile);
+                    written = true;
+                }
+            } catch (RuntimeException | IOException e) {
+                tempFile.delete();
+                inFlight.remove(outputFile, render);
+                render.written.completeExceptionally(e);
+                future.completeExceptionally(e);
+                return;
+            } finally {
+                if (process[0] != null) {
+                    batch.runningProcesses.remove(process[0]);
+                }
+            }
+            inFlight.remove(outputFile, render);
+            render.written.complete(written);
+            if (written && !batch.cancelled) {
+                finish(startNanos);
+            }
+        }
+
+        private void finish(long startNanos) {
+            batch.finish(outputFile, System.nanoTime() - startNanos);
+            future.complete(outputFile);
+        }
+
+        // Renames a finished note to its cache file. Does nothing if the resampler wrote nothing.
+        private void moveIntoPlace(File tempFile) throws IOException {
+            if (!tempFile.exists()) {
+                return;
+            }
+            try {
+                Files.move(
+                        tempFile.toPath(),
+                        outputFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(
+                        tempFile.toPath(),
+                        outputFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            // More urgent batches first, then earlier batches, then by priority within a batch.
+            if (batchPriority != other.batchPriority) {
+                return batchPriority.compareTo(other.batchPriority);
+            }
+            if (batchNumber != other.batchNumber) {
+                return Long.compare(batchNumber, other.batchNumber);
+            }
+            return Double.compare(priority, other.priority);
+        }
+    }
+
+    /** A job that is writing a file, which jobs for the same file from other batches wait on. */
+    private static class Render {
+        private final CompletableFuture<Boolean> written; // False if cancelled before writing.
+        private final Batch owner;
+        private final AtomicInteger numWaiting;
+        private volatile Process process;
+        private volatile boolean killed;
+
+        private Render(Batch owner) {
+            this.written = new CompletableFuture<>();
+            this.owner = owner;
+            this.numWaiting = new AtomicInteger(0);
+            this.killed = false;
+        }
+
+        // Called as each waiting batch stops waiting. Kills the process once no one wants it.
+        private void release() {
+            Process running = process;
+            if (numWaiting.decrementAndGet() == 0 && owner.cancelled && running != null
+                    && !written.isDone()) {
+                kill(running);
+            }
+        }
+
+        private void kill(Process process) {
+            killed = true;
+            process.destroy();
+        }
+
+        // Whether a job from another batch is waiting for this one.
+        private boolean isWanted() {
+            return numWaiting.get() > 0;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.utsusynth.utsu.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+import com.google.common.base.Optional;
+import com.utsusynth.utsu.common.exception.ErrorLogger;
+import com.utsusynth.utsu.engine.Engine.PlaybackStatus;
+import com.utsusynth.utsu.engine.WavMixer.MixListener;
+
+import javafx.util.Duration;
+
+/**
+ * Plays a song while it is still being mixed. Each block of mixed audio is pushed to the sound
+ * card as soon as the notes under it have been resampled, and is also written to a WAV file so
+ * that later playback of the same region can skip rendering entirely.
+ */
+class StreamingPlayer {
+    private static final ErrorLogger errorLogger = ErrorLogger.getLogger();
+    private static final AudioFormat LINE_FORMAT =
+            new AudioFormat(WavMixer.SAMPLE_RATE, 16, 1, true, false);
+
+    private final WavMixer wavMixer;
+    private final List<MixSegment> segments;
+    private final File outputFile;
+    private final Optional<MixedSong> previousMix;
+    private final IntPredicate awaitSegment;
+    private final CountDownLatch started;
+
+    private SourceDataLine line;
+    private Thread mixThread;
+    private byte[] lineBuffer = new byte[0];
+    private volatile boolean hasAudio = false;
+    private volatile boolean paused = false;
+    private volatile boolean stopped = false;
+
+    /**
+     * @param awaitSegment Blocks until a segment's input file is ready, returning false if
+     *        playback should be abandoned.
+     */
+    StreamingPlayer(
+            WavMixer wavMixer,
+            List<MixSegment> segments,
+            File outputFile,
+            Optional<MixedSong> previousMix,
+            IntPredicate awaitSegment) {
+        this.wavMixer = wavMixer;
+        this.segments = segments;
+        this.outputFile = outputFile;
+        this.previousMix = previousMix;
+        this.awaitSegment = awaitSegment;
+        this.started = new CountDownLatch(1);
+    }
+
+    /** Whether this machine has an audio line that streaming playback can write to. */
+    static boolean isSupported() {
+        return AudioSystem.isLineSupported(new DataLine.Info(SourceDataLine.class, LINE_FORMAT));
+    }
+
+    /**
+     * Starts mixing in the background. The callback is called from the mixing thread with
+     * whether the whole song was played and written to the output file.
+     */
+    boolean start(Consumer<Boolean> onFinished) {
+        try {
+            line = AudioSystem.getSourceDataLine(LINE_FORMAT);
+            line.open(LINE_FORMAT);
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            errorLogger.logError(e);
+            return false;
+        }
+        mixThread = new Thread(() -> {
+            boolean complete = false;
+            try {
+                complete = wavMixer.mix(segments, outputFile, new MixListener() {
+                    @Override
+                    public boolean awaitSegment(int segmentIndex) {
+                        return !stopped && awaitSegment.test(segmentIndex);
+                    }
+
+                    @Override
+                    public boolean onBlockMixed(double[] block, int blockLength) {
+                        return writeToLine(block, blockLength);
+                    }
+                }, previousMix);
+                if (complete && !stopped) {
+                    line.drain(); // Wait for the last block to finish playing.
+                }
+            } catch (IOException e) {
+                errorLogger.logError(e);
+            } finally {
+                complete = complete && !stopped;
+                stopped = true;
+                started.countDown();
+                line.stop();
+                line.close();
+                onFinished.accept(complete);
+            }
+        });
+        mixThread.setDaemon(true);
+        mixThread.start();
+        return true;
+    }
+
+    /**
+     * Waits until the first audio reaches the sound card.
+     *
+     * @return Whether any audio is playing.
+     */
+    boolean awaitStart() {
+        try {
+            started.await();
+        } catch (InterruptedException e) {
+            return false;
+        }
+        return hasAudio;
+    }
+
+    /** Returns how much of the song has actually been played. */
+    Duration getPosition() {
+        if (line == null) {
+            return Duration.ZERO;
+        }
+        return Duration.millis(line.getLongFramePosition() * 1000.0 / WavMixer.SAMPLE_RATE);
+    }
+
+    PlaybackStatus getStatus() {
+        if (stopped) {
+            return PlaybackStatus.STOPPED;
+        }
+        return paused ? PlaybackStatus.PAUSED : PlaybackStatus.PLAYING;
+    }
+
+    void pause() {
+        paused = true;
+        if (line != null) {
+            line.stop();
+        }
+    }
+
+    void resume() {
+        paused = false;
+        if (line != null && hasAudio && !stopped) {
+            line.start();
+        }
+    }
+
+    /** Abandons playback and mixing. Idempotent. */
+    void stop() {
+        stopped = true;
+        if (line != null) {
+            line.stop();
+            line.flush(); // Unblocks any pending write.
+        }
+        if (mixThread != null) {
+            mixThread.interrupt(); // Unblocks any wait for a note to render.
+        }
+    }
+
+    // Converts a mixed block to 16-bit PCM and blocks until the line has accepted all of it.
+    private boolean writeToLine(double[] block, int blockLength) {
+        if (stopped) {
+            return false;
+        }
+        int numBytes = blockLength * 2;
+        if (lineBuffer.length < numBytes) {
+            lineBuffer = new byte[numBytes];
+        }
+        for (int i = 0; i < blockLength; i++) {
+            int sample = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, block[i]));
+            lineBuffer[i * 2] = (byte) sample;
+            lineBuffer[i * 2 + 1] = (byte) (sample >> 8);
+        }
+        if (!hasAudio) {
+            hasAudio = true;
+            if (!paused) {
+                line.start();
+            }
+            started.countDown();
+        }
+        int written = 0;
+        while (written < numBytes && !stopped) {
+            written += line.write(lineBuffer, written, numBytes - written);
+        }
+        return !stopped;
+    }
+}
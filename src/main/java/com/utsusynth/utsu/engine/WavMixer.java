@@ -0,0 +1,556 @@
+package com.utsusynth.utsu.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+import com.utsusynth.utsu.common.data.WavData;
+import com.utsusynth.utsu.files.SoundFileReader;
+
+/**
+ * In-process replacement for an external wavtool. Overlap-adds resampled notes onto a single
+ * timeline and writes the finished song in one pass, instead of appending to the output file once
+ * per note.
+ */
+public class WavMixer {
+    public static final int SAMPLE_RATE = 44100;
+    // Output matches wavtool-yawu: mono, 32-bit signed PCM.
+    private static final int BYTES_PER_SAMPLE = 4;
+    private static final int HEADER_SIZE = 44;
+    private static final int BLOCK_SIZE = 16384; // Samples mixed per write.
+    // Input that could not be read.
+    private static final ShortBuffer MISSING_SAMPLES = ShortBuffer.allocate(0);
+
+    private final SoundFileReader soundFileReader;
+    private final PhraseCache phraseCache;
+    private final PcmCache pcmCache;
+    private final ResamplerCache resamplerCache; // Null if notes are only read from files.
+
+    /** Receives progress from a mix that is still running. */
+    public interface MixListener {
+        /**
+         * Called before a segment's input file is read, so callers can wait for it to be rendered.
+         *
+         * @return false to cancel the mix.
+         */
+        boolean awaitSegment(int segmentIndex);
+
+        /**
+         * Called with each block of mixed audio, in 16-bit scale, once it has been written.
+         *
+         * @return false to cancel the mix.
+         */
+        boolean onBlockMixed(double[] block, int blockLength);
+    }
+
+    private static final MixListener NO_LISTENER = new MixListener() {
+        @Override
+        public boolean awaitSegment(int segmentIndex) {
+            return true;
+        }
+
+        @Override
+        public boolean onBlockMixed(double[] block, int blockLength) {
+            return true;
+        }
+    };
+
+    @Inject
+    public WavMixer(
+            SoundFileReader soundFileReader,
+            PhraseCache phraseCache,
+            PcmCache pcmCache,
+            ResamplerCache resamplerCache) {
+        this.soundFileReader = soundFileReader;
+        this.phraseCache = phraseCache;
+        this.pcmCache = pcmCache;
+        this.resamplerCache = resamplerCache;
+    }
+
+    /** Creates a mixer that reads notes only from their own files. */
+    public WavMixer(SoundFileReader soundFileReader, PhraseCache phraseCache, PcmCache pcmCache) {
+        this(soundFileReader, phraseCache, pcmCache, null);
+    }
+
+    /** Creates a mixer that does not keep notes in memory between mixes. */
+    public WavMixer(SoundFileReader soundFileReader, PhraseCache phraseCache) {
+        this(soundFileReader, phraseCache, new PcmCache(0));
+    }
+
+    /** Creates a mixer that does not cache phrases or notes. */
+    public WavMixer(SoundFileReader soundFileReader) {
+        this(soundFileReader, new PhraseCache(0));
+    }
+
+    /**
+     * Mixes all segments, in order, and writes the result to a WAV file.
+     *
+     * @return Whether or not any audio was written.
+     */
+    public boolean mix(List<MixSegment> segments, File outputFile) throws IOException {
+        return mix(segments, outputFile, NO_LISTENER, Optional.absent());
+    }
+
+    /**
+     * Mixes all segments, copying audio from a previous mix wherever it has not changed.
+     *
+     * @return Whether or not any audio was written.
+     */
+    public boolean mix(List<MixSegment> segments, File outputFile, Optional<MixedSong> previous)
+            throws IOException {
+        return mix(segments, outputFile, NO_LISTENER, previous);
+    }
+
+    /**
+     * Mixes all segments in timeline order, copying audio from a previous mix wherever the
+     * segments under it have not changed, and from the phrase cache wherever a whole phrase has
+     * been mixed before. Only segments in changed phrases are read from disk.
+     *
+     * @return Whether the whole song was written, false if it was empty or cancelled.
+     */
+    public boolean mix(
+            List<MixSegment> segments,
+            File outputFile,
+            MixListener listener,
+            Optional<MixedSong> previous) throws IOException {
+        // Lay out every segment on the timeline before mixing anything.
+        int numSegments = segments.size();
+        long[] startSamples = new long[numSegments];
+        long[] endSamples = new long[numSegments];
+        long totalSamples = layOut(segments, startSamples, endSamples);
+        if (totalSamples <= 0) {
+            return false;
+        }
+
+        // By default, mix the whole song.
+        Splice splice = new Splice(0, totalSamples, 0);
+        FileChannel previousChannel = null;
+        if (previous.isPresent() && previous.get().getWavFile().exists()
+                && !previous.get().getWavFile().equals(outputFile)) {
+            Optional<Splice> maybeSplice =
+                    Splice.find(previous.get().getSegments(), segments, startSamples, endSamples);
+            if (maybeSplice.isPresent()) {
+                splice = maybeSplice.get();
+                previousChannel = FileChannel
+                        .open(previous.get().getWavFile().toPath(), StandardOpenOption.READ);
+            }
+        }
+
+        // Split the timeline into phrases, and look up which ones have already been mixed.
+        int[] phraseOf = new int[numSegments];
+        List<Phrase> phrases = findPhrases(segments, startSamples, endSamples, phraseOf);
+        for (Phrase phrase : phrases) {
+            Optional<int[]> cached = phraseCache.get(phrase.key);
+            if (cached.isPresent() && cached.get().length == phrase.end - phrase.start) {
+                phrase.samples = cached.get();
+                phrase.isCached = true;
+            } else if (!phraseCache.isCacheable(phrase.end - phrase.start)) {
+                phrase.isCacheable = false;
+            }
+        }
+
+        ShortBuffer[] loaded = new ShortBuffer[numSegments];
+        double[] mixBuffer = new double[BLOCK_SIZE];
+        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(BLOCK_SIZE * BYTES_PER_SAMPLE);
+        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(
+                outputFile.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(createHeader(totalSamples));
+
+            int firstActive = 0; // Segments before this one have already been mixed in full.
+            int firstPhrase = 0; // Phrases before this one have already been written in full.
+            for (long blockStart = 0; blockStart < totalSamples; blockStart += BLOCK_SIZE) {
+                int blockLength = (int) Math.min(BLOCK_SIZE, totalSamples - blockStart);
+                long blockEnd = blockStart + blockLength;
+                Arrays.fill(mixBuffer, 0, blockLength, 0);
+
+                // Copy unchanged audio from before and after the part that needs mixing.
+                long mixFrom = Math.max(blockStart, splice.dirtyStart);
+                long mixTo = Math.min(blockEnd, splice.dirtyEnd);
+                if (previousChannel != null) {
+                    copyPrevious(
+                            previousChannel,
+                            blockStart,
+                            Math.min(blockEnd, splice.dirtyStart),
+                            0,
+                            blockStart,
+                            byteBuffer,
+                            mixBuffer);
+                    copyPrevious(
+                            previousChannel,
+                            Math.max(blockStart, splice.dirtyEnd),
+                            blockEnd,
+                            splice.shift,
+                            blockStart,
+                            byteBuffer,
+                            mixBuffer);
+                }
+
+                while (firstActive < numSegments && endSamples[firstActive] <= mixFrom) {
+                    loaded[firstActive] = null; // Let finished notes be garbage collected.
+                    firstActive++;
+                }
+                for (int i = firstActive; i < numSegments && startSamples[i] < mixTo; i++) {
+                    MixSegment segment = segments.get(i);
+                    if (phraseOf[i] < 0 || endSamples[i] <= mixFrom
+                            || phrases.get(phraseOf[i]).isCached) {
+                        continue;
+                    }
+                    if (loaded[i] == null) {
+                        if (!listener.awaitSegment(i)) {
+                            return false;
+                        }
+                        loaded[i] = loadSamples(segment);
+                        if (loaded[i] == MISSING_SAMPLES) {
+                            phrases.get(phraseOf[i]).isCacheable = false;
+                        }
+                    }
+                    addSegment(
+                            segment,
+                            loaded[i],
+                            startSamples[i],
+                            endSamples[i],
+                            mixFrom,
+                            mixTo,
+                            blockStart,
+                            mixBuffer);
+                }
+
+                // Copy phrases that have been mixed before, and remember newly mixed ones.
+                while (firstPhrase < phrases.size()
+                        && phrases.get(firstPhrase).end <= blockStart) {
+                    firstPhrase++;
+                }
+                for (int p = firstPhrase; p < phrases.size(); p++) {
+                    Phrase phrase = phrases.get(p);
+                    if (phrase.start >= blockEnd) {
+                        break;
+                    }
+                    if (phrase.isCached) {
+                        phrase.copyTo(mixBuffer, mixFrom, mixTo, blockStart);
+                    } else if (phrase.isCacheable) {
+                        phrase.copyFrom(mixBuffer, blockStart, blockEnd);
+                        if (phrase.end <= blockEnd) {
+                            phraseCache.put(phrase.key, phrase.samples);
+                            phrase.samples = null;
+                        }
+                    }
+                }
+
+                byteBuffer.clear();
+                for (int i = 0; i < blockLength; i++) {
+                    byteBuffer.putInt(toOutputSample(mixBuffer[i]));
+                }
+                byteBuffer.flip();
+                while (byteBuffer.hasRemaining()) {
+                    channel.write(byteBuffer);
+                }
+                if (!listener.onBlockMixed(mixBuffer, blockLength)) {
+                    return false;
+                }
+            }
+        } finally {
+            if (previousChannel != null) {
+                previousChannel.close();
+            }
+        }
+        return true;
+    }
+
+    // Reads samples [from, to) of the new mix from the previous mix, which is offset by shift.
+    private static void copyPrevious(
+            FileChannel previousChannel,
+            long from,
+            long to,
+            long shift,
+            long blockStart,
+            ByteBuffer byteBuffer,
+            double[] mixBuffer) throws IOException {
+        if (from >= to) {
+            return;
+        }
+        byteBuffer.clear();
+        byteBuffer.limit((int) (to - from) * BYTES_PER_SAMPLE);
+        long position = HEADER_SIZE + (from - shift) * BYTES_PER_SAMPLE;
+        while (byteBuffer.hasRemaining()) {
+            int numRead = previousChannel.read(byteBuffer, position);
+            if (numRead < 0) {
+                break; // Previous mix was cut short, leave the rest silent.
+            }
+            position += numRead;
+        }
+        byteBuffer.flip();
+        int offset = (int) (from - blockStart);
+        while (byteBuffer.remaining() >= BYTES_PER_SAMPLE) {
+            mixBuffer[offset++] = byteBuffer.getInt() / 65536.0;
+        }
+    }
+
+    // Groups segments that sound at the same time. Every non-silent segment gets a phrase.
+    private static List<Phrase> findPhrases(
+            List<MixSegment> segments,
+            long[] startSamples,
+            long[] endSamples,
+            int[] phraseOf) {
+        List<Phrase> phrases = new ArrayList<>();
+        Phrase curPhrase = null;
+        for (int i = 0; i < segments.size(); i++) {
+            phraseOf[i] = -1;
+            if (segments.get(i).isSilence() || endSamples[i] <= startSamples[i]) {
+                continue;
+            }
+            if (curPhrase == null || startSamples[i] >= curPhrase.end) {
+                curPhrase = new Phrase(i, startSamples[i]);
+                phrases.add(curPhrase);
+            }
+            curPhrase.lastSegment = i;
+            curPhrase.end = Math.max(curPhrase.end, endSamples[i]);
+            phraseOf[i] = phrases.size() - 1;
+        }
+        for (Phrase phrase : phrases) {
+            int numInPhrase = phrase.lastSegment - phrase.firstSegment + 1;
+            long[] offsets = new long[numInPhrase * 2];
+            for (int i = 0; i < numInPhrase; i++) {
+                offsets[i * 2] = startSamples[phrase.firstSegment + i] - phrase.start;
+                offsets[i * 2 + 1] = endSamples[phrase.firstSegment + i] - phrase.start;
+            }
+            phrase.key = new PhraseCache.Key(
+                    segments.subList(phrase.firstSegment, phrase.lastSegment + 1),
+                    offsets);
+        }
+        return phrases;
+    }
+
+    /** A run of segments with silence on either side, from start to end sample. */
+    private static class Phrase {
+        private final int firstSegment;
+        private final long start;
+        private int lastSegment;
+        private long end;
+        private PhraseCache.Key key;
+        private int[] samples; // Mixed output, once cached or while being captured.
+        private boolean isCached = false;
+        private boolean isCacheable = true;
+
+        private Phrase(int firstSegment, long start) {
+            this.firstSegment = firstSegment;
+            this.start = start;
+            this.lastSegment = firstSegment;
+            this.end = start;
+        }
+
+        // Writes cached samples into the parts of a block that are being mixed.
+        private void copyTo(double[] mixBuffer, long mixFrom, long mixTo, long blockStart) {
+            long from = Math.max(start, mixFrom);
+            long to = Math.min(end, mixTo);
+            for (long sample = from; sample < to; sample++) {
+                mixBuffer[(int) (sample - blockStart)] = samples[(int) (sample - start)] / 65536.0;
+            }
+        }
+
+        // Keeps the finished output of a block, however it was arrived at.
+        private void copyFrom(double[] mixBuffer, long blockStart, long blockEnd) {
+            if (samples == null) {
+                samples = new int[(int) (end - start)];
+            }
+            long from = Math.max(start, blockStart);
+            long to = Math.min(end, blockEnd);
+            for (long sample = from; sample < to; sample++) {
+                samples[(int) (sample - start)] =
+                        toOutputSample(mixBuffer[(int) (sample - blockStart)]);
+            }
+        }
+    }
+
+    /**
+     * The part of a new mix that differs from the previous one. Audio before dirtyStart is the same
+     * in both mixes, and audio from dirtyEnd on is the previous mix's moved later by shift samples.
+     */
+    private static class Splice {
+        private final long dirtyStart;
+        private final long dirtyEnd;
+        private final long shift;
+
+        private Splice(long dirtyStart, long dirtyEnd, long shift) {
+            this.dirtyStart = dirtyStart;
+            this.dirtyEnd = dirtyEnd;
+            this.shift = shift;
+        }
+
+        /** Compares two mixes segment by segment. Returns absent if nothing can be reused. */
+        private static Optional<Splice> find(
+                List<MixSegment> oldSegments,
+                List<MixSegment> newSegments,
+                long[] newStarts,
+                long[] newEnds) {
+            int numOld = oldSegments.size();
+            int numNew = newSegments.size();
+            long[] oldStarts = new long[numOld];
+            long[] oldEnds = new long[numOld];
+            long oldTotal = layOut(oldSegments, oldStarts, oldEnds);
+            long newTotal = numNew > 0 ? layOut(newSegments, new long[numNew], new long[numNew]) : 0;
+
+            // Unchanged segments at the start keep their place on the timeline.
+            int prefix = 0;
+            while (prefix < Math.min(numOld, numNew)
+                    && oldSegments.get(prefix).equals(newSegments.get(prefix))) {
+                prefix++;
+            }
+            // Unchanged segments at the end can be reused if they all moved by the same amount.
+            long shift = newTotal - oldTotal;
+            int suffix = 0;
+            while (suffix < Math.min(numOld, numNew) - prefix) {
+                int oldIndex = numOld - 1 - suffix;
+                int newIndex = numNew - 1 - suffix;
+                if (!oldSegments.get(oldIndex).equals(newSegments.get(newIndex))
+                        || newStarts[newIndex] - oldStarts[oldIndex] != shift
+                        || newEnds[newIndex] - oldEnds[oldIndex] != shift) {
+                    break;
+                }
+                suffix++;
+            }
+            if (prefix == 0 && suffix == 0) {
+                return Optional.absent();
+            }
+
+            // Everything that might sound different has to be mixed again.
+            long dirtyStart = Math.min(oldTotal, newTotal);
+            long dirtyEnd = 0;
+            for (int i = prefix; i < numOld; i++) {
+                dirtyStart = Math.min(dirtyStart, oldStarts[i]);
+                if (i < numOld - suffix) {
+                    dirtyEnd = Math.max(dirtyEnd, oldEnds[i] + shift);
+                }
+            }
+            for (int i = prefix; i < numNew; i++) {
+                dirtyStart = Math.min(dirtyStart, newStarts[i]);
+                if (i < numNew - suffix) {
+                    dirtyEnd = Math.max(dirtyEnd, newEnds[i]);
+                }
+            }
+            for (int i = 0; i < prefix; i++) {
+                dirtyEnd = Math.max(dirtyEnd, newEnds[i] + Math.max(0, shift));
+            }
+            if (suffix == 0) {
+                dirtyEnd = newTotal;
+            }
+            dirtyEnd = Math.max(dirtyStart, Math.min(newTotal, dirtyEnd));
+            return Optional.of(new Splice(dirtyStart, dirtyEnd, shift));
+        }
+    }
+
+    /** Returns the length of the mixed song in milliseconds. */
+    public static double getLengthMs(List<MixSegment> segments) {
+        int numSegments = segments.size();
+        long totalSamples = layOut(segments, new long[numSegments], new long[numSegments]);
+        return totalSamples * 1000.0 / SAMPLE_RATE;
+    }
+
+    // Fills in where each segment starts and ends, and returns the total number of samples.
+    private static long layOut(List<MixSegment> segments, long[] startSamples, long[] endSamples) {
+        double cursorMs = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            MixSegment segment = segments.get(i);
+            double startMs = Math.max(0, cursorMs - segment.getOverlapMs());
+            double endMs = startMs + Math.max(0, segment.getLengthMs());
+            startSamples[i] = msToSamples(startMs);
+            endSamples[i] = msToSamples(endMs);
+            cursorMs = Math.max(cursorMs, endMs);
+        }
+        return msToSamples(cursorMs);
+    }
+
+    private ShortBuffer loadSamples(MixSegment segment) {
+        File inputFile = segment.getInputFile().get();
+        Optional<ShortBuffer> inMemory = pcmCache.get(inputFile);
+        if (inMemory.isPresent()) {
+            return inMemory.get();
+        }
+        if (resamplerCache != null) {
+            // Packed notes are already in mapped memory, so read them in place.
+            Optional<ByteBuffer> packed = resamplerCache.readPacked(inputFile);
+            if (packed.isPresent()) {
+                Optional<ShortBuffer> samples = soundFileReader.loadWavSamples(packed.get());
+                if (samples.isPresent()) {
+                    return samples.get();
+                }
+            }
+        }
+        Optional<WavData> wavData = soundFileReader.loadWavData(inputFile);
+        if (!wavData.isPresent()) {
+            // Treat unreadable notes as silence rather than failing the whole render.
+            System.out.println("Warning: could not mix " + inputFile);
+            return MISSING_SAMPLES;
+        }
+        return pcmCache.put(inputFile, wavData.get().getSamples());
+    }
+
+    private static void addSegment(
+            MixSegment segment,
+            ShortBuffer samples,
+            long segmentStart,
+            long segmentEnd,
+            long mixFrom,
+            long mixTo,
+            long blockStart,
+            double[] mixBuffer) {
+        long offset = msToSamples(segment.getStartPointMs());
+        long from = Math.max(segmentStart, mixFrom);
+        long to = Math.min(segmentEnd, mixTo);
+        for (long sample = from; sample < to; sample++) {
+            long sourceIndex = offset + (sample - segmentStart);
+            if (sourceIndex < 0 || sourceIndex >= samples.limit()) {
+                continue;
+            }
+            double positionMs = (sample - segmentStart) * 1000.0 / SAMPLE_RATE;
+            mixBuffer[(int) (sample - blockStart)] +=
+                    samples.get((int) sourceIndex) * segment.getEnvelopeGain(positionMs);
+        }
+    }
+
+    // Converts a mixed 16-bit value into a clipped 32-bit output sample.
+    private static int toOutputSample(double mixed) {
+        double scaled = mixed * 65536;
+        if (scaled >= Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        } else if (scaled <= Integer.MIN_VALUE) {
+            return Integer.MIN_VALUE;
+        }
+        return (int) Math.round(scaled);
+    }
+
+    private static ByteBuffer createHeader(long totalSamples) {
+        long dataSize = totalSamples * BYTES_PER_SAMPLE;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] {'R', 'I', 'F', 'F'});
+        header.putInt((int) (dataSize + HEADER_SIZE - 8));
+        header.put(new byte[] {'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+        header.putInt(16); // Size of fmt chunk.
+        header.putShort((short) 1); // PCM.
+        header.putShort((short) 1); // Mono.
+        header.putInt(SAMPLE_RATE);
+        header.putInt(SAMPLE_RATE * BYTES_PER_SAMPLE); // Byte rate.
+        header.putShort((short) BYTES_PER_SAMPLE); // Block align.
+        header.putShort((short) (BYTES_PER_SAMPLE * 8)); // Bits per sample.
+        header.put(new byte[] {'d', 'a', 't', 'a'});
+        header.putInt((int) dataSize);
+        header.flip();
+        return header;
+    }
+
+    static long msToSamples(double ms) {
+        return Math.round(ms * SAMPLE_RATE / 1000.0);
+    }
+}
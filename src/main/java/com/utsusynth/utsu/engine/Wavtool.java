@@ -1,18 +1,85 @@
 package com.utsusynth.utsu.engine;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import com.google.inject.Inject;
+import com.utsusynth.utsu.files.FileHelper;
 import com.utsusynth.utsu.model.song.Song;
 import com.utsusynth.utsu.files.ScriptHelper;
 import com.utsusynth.utsu.model.song.Note;
 import com.utsusynth.utsu.model.voicebank.LyricConfig;
 
 public class Wavtool {
+    private static final int SILENCE_SAMPLE_RATE = 44100;
+
     private final ExternalProcessRunner runner;
+    private final File silenceDir;
 
     @Inject
     Wavtool(ExternalProcessRunner runner) {
+        this(runner, new File(FileHelper.getUtsuCacheDirectory()));
+    }
+
+    /** Writes silence files to the given directory, such as a test's temporary folder. */
+    Wavtool(ExternalProcessRunner runner, File silenceDir) {
         this.runner = runner;
+        this.silenceDir = silenceDir;
+    }
+
+    /**
+     * Returns a silent 16-bit WAV file at least as long as a gap, for the wavtool to read from.
+     * Written directly instead of resampled. Lengths are rounded up to a power of two seconds so
+     * that a handful of files covers every gap.
+     */
+    synchronized File getSilenceFile(double durationMs) throws IOException {
+        int seconds = 1;
+        while (seconds * 1000.0 < durationMs) {
+            seconds *= 2;
+        }
+        File silenceFile = new File(silenceDir, "silence-" + seconds + "s.wav");
+        if (silenceFile.exists()) {
+            return silenceFile;
+        }
+        int dataSize = seconds * SILENCE_SAMPLE_RATE * 2;
+        ByteBuffer header = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] {'R', 'I', 'F', 'F'});
+        header.putInt(dataSize + 36);
+        header.put(new byte[] {'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+        header.putInt(16); // Size of fmt chunk.
+        header.putShort((short) 1); // PCM.
+        header.putShort((short) 1); // Mono.
+        header.putInt(SILENCE_SAMPLE_RATE);
+        header.putInt(SILENCE_SAMPLE_RATE * 2); // Byte rate.
+        header.putShort((short) 2); // Block align.
+        header.putShort((short) 16); // Bits per sample.
+        header.put(new byte[] {'d', 'a', 't', 'a'});
+        header.putInt(dataSize);
+        header.flip();
+
+        // Write to a temporary file first so no one reads a half-written file.
+        File partial = new File(silenceDir, silenceFile.getName() + ".part");
+        try (FileChannel channel = FileChannel.open(
+                partial.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(header);
+            ByteBuffer zeros = ByteBuffer.allocate(SILENCE_SAMPLE_RATE * 2);
+            for (int second = 0; second < seconds; second++) {
+                zeros.clear();
+                while (zeros.hasRemaining()) {
+                    channel.write(zeros);
+                }
+            }
+        }
+        Files.move(partial.toPath(), silenceFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return silenceFile;
     }
 
     void addNewNote(
@@ -59,13 +126,7 @@ public class Wavtool {
         String inputFilePath = inputFile.getAbsolutePath();
         double startPoint = note.getStartPoint(); // TODO: Add auto start point.
         String[] envelope = note.getFullEnvelope();
-
-        double overlap = Math.min(config.getOverlap(), note.getFadeIn());
-        double boundedOverlap = Math.max(0, Math.min(overlap, noteLength));
-        // Ignore overlap if current note doesn't touch previous one.
-        if (!includeOverlap) {
-            boundedOverlap = 0;
-        }
+        double boundedOverlap = getBoundedOverlap(note, noteLength, config, includeOverlap);
 
         double scaleFactor = 125 / song.getTempo();
 
@@ -92,6 +153,27 @@ public class Wavtool {
         return args;
     }
 
+    /** Returns the same inputs as getNewNoteArgs, in a form the in-process mixer can use. */
+    public MixSegment getNewNoteSegment(
+            Song song,
+            Note note,
+            double noteLength,
+            LyricConfig config,
+            File inputFile,
+            boolean includeOverlap) {
+        double boundedOverlap = getBoundedOverlap(note, noteLength, config, includeOverlap);
+        double scaleFactor = 125 / song.getTempo();
+        double[] envelope = note.getRawFullEnvelope();
+
+        return MixSegment.note(
+                inputFile,
+                note.getStartPoint(), // TODO: Add auto start point.
+                noteLength * scaleFactor,
+                boundedOverlap * scaleFactor,
+                new double[] {envelope[0], envelope[1], envelope[2], envelope[8], envelope[9]},
+                new double[] {envelope[3], envelope[4], envelope[5], envelope[6], envelope[10]});
+    }
+
     public String[] getSilenceArgs(
         File wavtoolPath,
         double duration,
@@ -125,4 +207,17 @@ public class Wavtool {
 
         return args;
     }
+
+    private static double getBoundedOverlap(
+            Note note,
+            double noteLength,
+            LyricConfig config,
+            boolean includeOverlap) {
+        // Ignore overlap if current note doesn't touch previous one.
+        if (!includeOverlap) {
+            return 0;
+        }
+        double overlap = Math.min(config.getOverlap(), note.getFadeIn());
+        return Math.max(0, Math.min(overlap, noteLength));
+    }
 }
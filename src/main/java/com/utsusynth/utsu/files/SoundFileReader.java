@@ -109,4 +109,54 @@ public class SoundFileReader {
             return Optional.absent();
         }
     }
+
+    /**
+     * Reads the 16-bit PCM samples of a WAV file already in memory. Mono files come back as a view
+     * of the given bytes, with no copying. Files with more channels are reduced to their first.
+     */
+    public Optional<ShortBuffer> loadWavSamples(ByteBuffer wav) {
+        ByteBuffer bytes = wav.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (bytes.remaining() < 12 || bytes.getInt(0) != 0x46464952 // "RIFF"
+                || bytes.getInt(8) != 0x45564157) { // "WAVE"
+            System.out.println("Error: Not a wav file.");
+            return Optional.absent();
+        }
+        int numChannels = 0;
+        int position = 12;
+        while (position + 8 <= bytes.limit()) {
+            int chunkId = bytes.getInt(position);
+            int chunkSize = bytes.getInt(position + 4);
+            int chunkStart = position + 8;
+            if (chunkId == 0x20746d66) { // "fmt "
+                int format = bytes.getShort(chunkStart);
+                numChannels = bytes.getShort(chunkStart + 2);
+                int bitsPerSample = bytes.getShort(chunkStart + 14);
+                if (format != 1 || bitsPerSample != 16 || numChannels < 1) {
+                    System.out.println("Error: Only 16-bit PCM wav files are supported.");
+                    return Optional.absent();
+                }
+            } else if (chunkId == 0x61746164 && numChannels > 0) { // "data"
+                // Tolerate files whose data size was never filled in.
+                int dataEnd = chunkSize < 0 || chunkStart + chunkSize > bytes.limit()
+                        ? bytes.limit()
+                        : chunkStart + chunkSize;
+                bytes.position(chunkStart).limit(dataEnd);
+                ShortBuffer samples = bytes.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+                if (numChannels == 1) {
+                    return Optional.of(samples);
+                }
+                ShortBuffer firstChannel = ShortBuffer.allocate(samples.limit() / numChannels);
+                for (int i = 0; i < firstChannel.limit(); i++) {
+                    firstChannel.put(i, samples.get(i * numChannels));
+                }
+                return Optional.of(firstChannel);
+            }
+            position = chunkStart + chunkSize + (chunkSize & 1); // Chunks are word-aligned.
+            if (chunkSize < 0) {
+                break;
+            }
+        }
+        System.out.println("Error: Could not find samples in wav file.");
+        return Optional.absent();
+    }
 }
@@ -1,7 +1,10 @@
 package com.utsusynth.utsu.model.song;
 
+import java.util.Arrays;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.utsusynth.utsu.common.data.EnvelopeData;
 import com.utsusynth.utsu.common.data.NoteConfigData;
 import com.utsusynth.utsu.common.data.NoteUpdateData;
@@ -13,6 +16,10 @@ import com.utsusynth.utsu.common.utils.RoundUtils;
  * directly and not injected.
  */
 public class Note {
+    // Lyrics and flags repeat a lot within a song, so notes share a single copy of each.
+    private static final Interner<String> STRINGS = Interners.newWeakInterner();
+    private static final int[] NO_VIBRATO = new int[10]; // Shared, never written to.
+
     // Values the user has control over. These are saved to file.
     private int delta; // In ms, corresponds with 125 bpm tempo.
     private int duration; // In ms, corresponds with 125 bpm tempo.
@@ -26,14 +33,11 @@ public class Note {
     private int intensity;
     private int modulation;
     private String noteFlags;
-    private ImmutableList<Double> pbs; // Pitch bend start.
-    private ImmutableList<Double> pbw; // Pitch bend widths
-    private ImmutableList<Double> pby; // Pitch bend shifts
-    private ImmutableList<String> pbm; // Pitch bend curves
+    private PitchbendPoints pitchbendPoints; // Pitch bend starts, widths, shifts and curves.
     private double[] envelopeWidth; // "p" in ms
     private double[] envelopeHeight; // "v" in % of total intensity (0-100)
     private double envelopeOverlap; // This value is meaningless.
-    private int[] vibrato;
+    private int[] vibrato; // Replaced rather than written to, as it may be NO_VIBRATO.
 
     // Values calculated in-program and not saved to any file.
     // These are set in SongNoteStandardizer
@@ -41,6 +45,7 @@ public class Note {
     private double realDuration;
     private double autoStartPoint; // This is added to the user-added startPoint.
     private String trueLyric; // Note's lyric after processing and formatting.
+    private int renderRevision; // Changes whenever this note may render differently.
 
     public Note() {
         // Set every required field to its default.
@@ -56,20 +61,18 @@ public class Note {
         this.intensity = 100;
         this.modulation = 0;
         this.noteFlags = "";
-        this.pbs = ImmutableList.of(-40.0, 0.0);
-        this.pbw = ImmutableList.of(80.0);
-        this.pby = ImmutableList.of();
-        this.pbm = ImmutableList.of();
+        this.pitchbendPoints = PitchbendPoints.DEFAULT;
         this.envelopeWidth = new double[5];
         this.envelopeHeight = new double[5];
         this.setEnvelope(
                 new String[] {"5", "1", "1", "100", "100", "100", "100", "7", "35", "1", "100"});
-        this.vibrato = new int[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+        this.vibrato = NO_VIBRATO;
 
         this.realPreutter = 0;
         this.realDuration = -1; // Should be ignored if not explicitly set.
         this.autoStartPoint = 0;
         this.trueLyric = ""; // Defaults to "" if no lyric is found.
+        this.renderRevision = 0;
     }
 
     public void setDelta(int delta) {
@@ -112,7 +115,7 @@ public class Note {
     }
 
     public void setLyric(String lyric) {
-        this.lyric = lyric;
+        this.lyric = STRINGS.intern(lyric);
     }
 
     public String getLyric() {
@@ -193,7 +196,7 @@ public class Note {
     }
 
     public void setNoteFlags(String noteFlags) {
-        this.noteFlags = noteFlags;
+        this.noteFlags = STRINGS.intern(noteFlags);
     }
 
     public String getNoteFlags() {
@@ -235,63 +238,54 @@ public class Note {
         this.startPoint = configData.getStartPoint();
         this.intensity = configData.getIntensity();
         this.modulation = configData.getModulation();
-        this.noteFlags = configData.getNoteFlags();
+        this.noteFlags = STRINGS.intern(configData.getNoteFlags());
+        markDirty(); // These are set directly by the note properties editor.
     }
 
     public PitchbendData getPitchbends() {
-        return new PitchbendData(pbs, pbw, pby, pbm, vibrato);
+        // Copy the vibrato, as the view edits the arrays it is given.
+        return new PitchbendData(getPBS(), getPBW(), getPBY(), getPBM(), vibrato.clone());
     }
 
     public void setPitchbends(PitchbendData pitchbends) {
-        this.pbs = pitchbends.getPBS();
-        this.pbw = pitchbends.getPBW();
-        this.pby = pitchbends.getPBY();
-        this.pbm = pitchbends.getPBM();
-        this.vibrato = pitchbends.getVibrato();
+        this.pitchbendPoints = PitchbendPoints.of(
+                pitchbends.getPBS(),
+                pitchbends.getPBW(),
+                pitchbends.getPBY(),
+                pitchbends.getPBM());
+        setVibrato(pitchbends.getVibrato());
     }
 
     public void setPBS(String[] pbsValues) {
-        ImmutableList.Builder<Double> builder = ImmutableList.builder();
-        for (String value : pbsValues) {
-            builder.add(safeParseDouble(value, 0));
-        }
-        pbs = builder.build();
+        pitchbendPoints = pitchbendPoints.withStarts(parseDoubles(pbsValues, 0));
     }
 
     public ImmutableList<Double> getPBS() {
-        return pbs;
+        return pitchbendPoints.getStarts();
     }
 
     public void setPBW(String[] pbwValues) {
-        ImmutableList.Builder<Double> builder = ImmutableList.builder();
-        for (String value : pbwValues) {
-            builder.add(safeParseDouble(value, 1));
-        }
-        pbw = builder.build();
+        pitchbendPoints = pitchbendPoints.withWidths(parseDoubles(pbwValues, 1));
     }
 
     public ImmutableList<Double> getPBW() {
-        return pbw;
+        return pitchbendPoints.getWidths();
     }
 
     public void setPBY(String[] pbyValues) {
-        ImmutableList.Builder<Double> builder = ImmutableList.builder();
-        for (String value : pbyValues) {
-            builder.add(safeParseDouble(value, 0));
-        }
-        pby = builder.build();
+        pitchbendPoints = pitchbendPoints.withShifts(parseDoubles(pbyValues, 0));
     }
 
     public ImmutableList<Double> getPBY() {
-        return pby;
+        return pitchbendPoints.getShifts();
     }
 
     public void setPBM(String[] pbmValues) {
-        pbm = ImmutableList.copyOf(pbmValues);
+        pitchbendPoints = pitchbendPoints.withCurves(pbmValues);
     }
 
     public ImmutableList<String> getPBM() {
-        return pbm;
+        return pitchbendPoints.getCurves();
     }
 
     public void setEnvelope(String[] envelopeValues) {
@@ -317,7 +311,18 @@ public class Note {
             envelopeWidth[4] = safeParseDouble(envelopeValues[9], envelopeWidth[4]); // p5
             envelopeHeight[4] = safeParseDouble(envelopeValues[10], envelopeHeight[4]); // v5
         }
+        fixCrossfadedEnvelope();
+    }
 
+    /** Scales the p2, p3 and p5 widths of the envelope, as when it is too long for the note. */
+    void scaleEnvelopeWidths(double scaleFactor) {
+        envelopeWidth[1] *= scaleFactor;
+        envelopeWidth[2] *= scaleFactor;
+        envelopeWidth[4] *= scaleFactor;
+        fixCrossfadedEnvelope();
+    }
+
+    private void fixCrossfadedEnvelope() {
         // Try to catch an envelope that's V2/V3 crossfaded.
         if (envelopeHeight[0] < 1 && envelopeHeight[3] < 1) {
             // TODO: Ask the user if the weird envelope values were intentional.
@@ -390,12 +395,19 @@ public class Note {
     }
 
     public void setVibrato(String[] vibratoValues) {
+        int[] newVibrato = vibrato.clone();
         for (int i = 0; i < 10; i++) {
             // Leave all unfilled vibrato values as the defaults.
             if (vibratoValues.length > i) {
-                vibrato[i] = RoundUtils.round(safeParseDouble(vibratoValues[i], 0));
+                newVibrato[i] = RoundUtils.round(safeParseDouble(vibratoValues[i], 0));
             }
         }
+        setVibrato(newVibrato);
+    }
+
+    private void setVibrato(int[] newVibrato) {
+        // Most notes have no vibrato, so they all share one array for it.
+        vibrato = Arrays.equals(newVibrato, NO_VIBRATO) ? NO_VIBRATO : newVibrato.clone();
     }
 
     public String[] getVibrato() {
@@ -435,7 +447,56 @@ public class Note {
     }
 
     public void setTrueLyric(String trueLyric) {
-        this.trueLyric = trueLyric;
+        this.trueLyric = STRINGS.intern(trueLyric);
+    }
+
+    /** Marks this note as needing to be rendered again. */
+    public void markDirty() {
+        this.renderRevision++;
+    }
+
+    /** Returns a value that changes every time this note is marked dirty. */
+    public int getRenderRevision() {
+        return this.renderRevision;
+    }
+
+    /**
+     * Returns a copy of this note for a song snapshot. Pitchbends and vibrato are never written
+     * to, so they are shared with this note.
+     */
+    Note copy() {
+        Note copy = new Note();
+        copy.delta = this.delta;
+        copy.duration = this.duration;
+        copy.length = this.length;
+        copy.lyric = this.lyric;
+        copy.noteNum = this.noteNum;
+        copy.preutter = this.preutter;
+        copy.overlap = this.overlap;
+        copy.velocity = this.velocity;
+        copy.startPoint = this.startPoint;
+        copy.intensity = this.intensity;
+        copy.modulation = this.modulation;
+        copy.noteFlags = this.noteFlags;
+        copy.pitchbendPoints = this.pitchbendPoints;
+        copy.envelopeWidth = this.envelopeWidth.clone();
+        copy.envelopeHeight = this.envelopeHeight.clone();
+        copy.envelopeOverlap = this.envelopeOverlap;
+        copy.vibrato = this.vibrato;
+        copy.realPreutter = this.realPreutter;
+        copy.realDuration = this.realDuration;
+        copy.autoStartPoint = this.autoStartPoint;
+        copy.trueLyric = this.trueLyric;
+        copy.renderRevision = this.renderRevision;
+        return copy;
+    }
+
+    private static double[] parseDoubles(String[] values, double fallback) {
+        double[] parsed = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            parsed[i] = safeParseDouble(values[i], fallback);
+        }
+        return parsed;
     }
 
     private static double safeParseDouble(String fromMe, double fallback) {
@@ -2,6 +2,7 @@ package com.utsusynth.utsu.model.song;
 
 import java.util.Iterator;
 import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
 import com.utsusynth.utsu.common.RegionBounds;
 
 /**
@@ -10,29 +11,29 @@ import com.utsusynth.utsu.common.RegionBounds;
 public class NoteIterator implements Iterator<Note> {
     private final RegionBounds bounds;
 
+    private final Supplier<Integer> startIndex; // Index of the first note.
+
     private Optional<NoteNode> prevNode;
     private Optional<NoteNode> curNode;
-    int curIndex;
-    int curDelta;
+    private int numVisited;
+    private int curDelta;
 
-    NoteIterator(Optional<NoteNode> startNode, RegionBounds bounds) {
+    /**
+     * @param startNode First note in bounds, if any.
+     * @param startDelta Absolute position of the note before startNode.
+     * @param startIndex Index of startNode in the whole song.
+     */
+    NoteIterator(
+            Optional<NoteNode> startNode,
+            int startDelta,
+            Supplier<Integer> startIndex,
+            RegionBounds bounds) {
         this.bounds = bounds;
+        this.startIndex = startIndex;
         this.prevNode = Optional.absent();
         this.curNode = startNode;
-        this.curIndex = 0;
-        this.curDelta = 0;
-
-        // Start at first note contained within bounds, if it exists.
-        while (curNode.isPresent()) {
-            int newDelta = curDelta + curNode.get().getNote().getDelta();
-            if (bounds.intersects(newDelta, newDelta + curNode.get().getNote().getDuration())) {
-                break;
-            } else {
-                curIndex++;
-                curDelta = newDelta;
-                curNode = curNode.get().getNext();
-            }
-        }
+        this.numVisited = 0;
+        this.curDelta = startDelta;
     }
 
     @Override
@@ -46,7 +47,7 @@ public class NoteIterator implements Iterator<Note> {
             return null;
         }
         Note note = curNode.get().getNote();
-        curIndex++;
+        numVisited++;
         curDelta += note.getDelta();
         prevNode = curNode;
 
@@ -64,7 +65,7 @@ public class NoteIterator implements Iterator<Note> {
     }
 
     public int getCurIndex() {
-        return curIndex;
+        return startIndex.get() + numVisited;
     }
 
     public int getCurDelta() {
@@ -80,6 +81,18 @@ public class NoteIterator implements Iterator<Note> {
         }
     }
 
+    /** Look at the node before the previous node without proceeding in iterator. */
+    public Optional<Note> peekPrevPrev() {
+        if (!prevNode.isPresent() || !prevNode.get().getPrev().isPresent()) {
+            return Optional.absent();
+        }
+        Optional<NoteNode> prevPrevNode = prevNode.get().getPrev().get().getPrev();
+        if (!prevPrevNode.isPresent()) {
+            return Optional.absent();
+        }
+        return Optional.of(prevPrevNode.get().getNote());
+    }
+
     /** Look at the next node without proceeding in iterator. */
     public Optional<Note> peekNext() {
         if (!curNode.isPresent()) {
@@ -1,18 +1,23 @@
 package com.utsusynth.utsu.model.song;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.utsusynth.utsu.common.RegionBounds;
 import com.utsusynth.utsu.common.exception.NoteAlreadyExistsException;
 import com.utsusynth.utsu.model.voicebank.Voicebank;
 
 /**
- * Implementation of a linked list of SongNotes, including head.
+ * Implementation of a linked list of SongNotes, including head. Nodes are also indexed by their
+ * absolute position in a sorted tree, so that finding where a note goes or where a region starts
+ * takes O(log n) rather than a walk from the head.
  */
 public class NoteList implements Iterable<Note> {
     private Optional<NoteNode> head;
-    private Map<Integer, NoteNode> nodeMap;
+    private NavigableMap<Integer, NoteNode> nodeMap;
 
     public class Builder {
         private NoteList noteList;
@@ -30,7 +35,7 @@ public class NoteList implements Iterable<Note> {
 
         private Builder setHead(Optional<NoteNode> newHead) {
             noteList.head = newHead;
-            noteList.nodeMap = new HashMap<>();
+            noteList.nodeMap = new TreeMap<>();
             totalDelta = 0;
             overrideDelta = 0;
             if (newHead.isPresent()) {
@@ -111,7 +116,9 @@ public class NoteList implements Iterable<Note> {
         public Builder standardize(NoteStandardizer standardizer, Voicebank voicebank) {
             Optional<NoteNode> cur = tail;
             while (cur.isPresent()) {
-                cur.get().standardize(standardizer, voicebank);
+                if (cur.get().standardizeIfChanged(standardizer, voicebank)) {
+                    cur.get().markDirty();
+                }
                 cur = cur.get().getPrev();
             }
             return this;
@@ -136,7 +143,7 @@ public class NoteList implements Iterable<Note> {
 
     public NoteList() {
         this.head = Optional.absent();
-        this.nodeMap = new HashMap<>();
+        this.nodeMap = new TreeMap<>();
     }
 
     /**
@@ -148,31 +155,28 @@ public class NoteList implements Iterable<Note> {
      * @throws NoteAlreadyExistsException
      */
     NoteNode insertNote(Note noteToInsert, int deltaToInsert) throws NoteAlreadyExistsException {
+        if (nodeMap.containsKey(deltaToInsert)) {
+            throw new NoteAlreadyExistsException();
+        }
         NoteNode inserted;
+        Map.Entry<Integer, NoteNode> prevEntry = nodeMap.lowerEntry(deltaToInsert);
         if (!head.isPresent()) {
             this.head = Optional.of(new NoteNode(noteToInsert));
             this.head.get().getNote().setDelta(deltaToInsert);
             inserted = this.head.get();
-        } else if (head.get().getNote().getDelta() > deltaToInsert) {
+        } else if (prevEntry == null) {
             this.head = Optional.of(this.head.get().insertFirstNote(noteToInsert, deltaToInsert));
             inserted = this.head.get();
         } else {
-            inserted = this.head.get().insertNote(noteToInsert, deltaToInsert, 0);
+            // Insert directly after the closest earlier note.
+            NoteNode prevNode = prevEntry.getValue();
+            int prevPrevDelta = prevEntry.getKey() - prevNode.getNote().getDelta();
+            inserted = prevNode.insertNote(noteToInsert, deltaToInsert, prevPrevDelta);
         }
         nodeMap.put(deltaToInsert, inserted);
         return inserted;
     }
 
-    /**
-     * Adds a note to the note list, starting search at a specific node.
-     */
-    NoteNode insertNote(Note noteToInsert, int deltaToInsert, NoteNode startNode, int startDelta)
-            throws NoteAlreadyExistsException {
-        NoteNode inserted = startNode.insertNote(noteToInsert, deltaToInsert, startDelta);
-        nodeMap.put(deltaToInsert, inserted);
-        return inserted;
-    }
-
     /**
      * Removes a note from the note list.
      * 
@@ -220,12 +224,69 @@ public class NoteList implements Iterable<Note> {
         return new Builder(new NoteList()).setHead(this.head);
     }
 
+    /**
+     * Returns a copy of this list that later edits to it will not reach. Only the nodes are
+     * copied; notes that have not changed since the last snapshot are shared with it.
+     */
+    NoteList snapshot() {
+        NoteList snapshot = new NoteList();
+        Optional<NoteNode> tail = Optional.absent();
+        for (Map.Entry<Integer, NoteNode> entry : nodeMap.entrySet()) {
+            NoteNode node = new NoteNode(entry.getValue().freeze());
+            if (tail.isPresent()) {
+                tail.get().linkNext(node);
+            } else {
+                snapshot.head = Optional.of(node);
+            }
+            snapshot.nodeMap.put(entry.getKey(), node);
+            tail = Optional.of(node);
+        }
+        return snapshot;
+    }
+
     @Override
     public NoteIterator iterator() {
-        return new NoteIterator(this.head, RegionBounds.WHOLE_SONG);
+        return boundedIterator(RegionBounds.WHOLE_SONG);
     }
 
     NoteIterator boundedIterator(RegionBounds bounds) {
-        return new NoteIterator(this.head, bounds);
+        Optional<Map.Entry<Integer, NoteNode>> first = findFirstNote(bounds);
+        if (!first.isPresent()) {
+            int size = nodeMap.size();
+            return new NoteIterator(Optional.absent(), 0, Suppliers.ofInstance(size), bounds);
+        }
+        int position = first.get().getKey();
+        NoteNode node = first.get().getValue();
+        // Counting the notes before the region is O(n), so only do it if asked.
+        Supplier<Integer> index = Suppliers.memoize(() -> nodeMap.headMap(position).size());
+        return new NoteIterator(
+                Optional.of(node),
+                position - node.getNote().getDelta(),
+                index,
+                bounds);
+    }
+
+    // Finds the first note that overlaps a region, if any.
+    private Optional<Map.Entry<Integer, NoteNode>> findFirstNote(RegionBounds bounds) {
+        // Only the last note to start before the region can reach into it.
+        Map.Entry<Integer, NoteNode> entry = nodeMap.floorEntry(bounds.getMinMs());
+        if (entry == null || !overlaps(entry, bounds)) {
+            entry = nodeMap.higherEntry(bounds.getMinMs());
+            if (entry == null || !overlaps(entry, bounds)) {
+                return Optional.absent();
+            }
+        }
+        // Unless notes overlap each other, in which case step back to the first one that counts.
+        Map.Entry<Integer, NoteNode> prevEntry = nodeMap.lowerEntry(entry.getKey());
+        while (prevEntry != null && overlaps(prevEntry, bounds)) {
+            entry = prevEntry;
+            prevEntry = nodeMap.lowerEntry(entry.getKey());
+        }
+        return Optional.of(entry);
+    }
+
+    private static boolean overlaps(Map.Entry<Integer, NoteNode> entry, RegionBounds bounds) {
+        int position = entry.getKey();
+        return bounds.intersects(position, position + entry.getValue().getNote().getDuration());
     }
 }
@@ -11,11 +11,16 @@ public class NoteNode {
     private Note note;
     private Optional<NoteNode> prev;
     private Optional<NoteNode> next;
+    private Optional<StandardizeInputs> standardizedFrom; // As of the last standardization.
+    private Optional<Note> frozenNote; // Copy of the note handed out to song snapshots.
+    private int frozenRevision;
 
     NoteNode(Note note) {
         this.note = note;
         this.prev = Optional.absent();
         this.next = Optional.absent();
+        this.standardizedFrom = Optional.absent();
+        this.frozenNote = Optional.absent();
     }
 
     public Note getNote() {
@@ -167,10 +172,64 @@ public class NoteNode {
         }
     }
 
+    /**
+     * Marks this note and both of its neighbors as needing to be rendered again, as preutterance,
+     * overlap, and pitchbends all spill over into neighboring notes.
+     */
+    void markDirty() {
+        this.note.markDirty();
+        if (this.prev.isPresent()) {
+            this.prev.get().note.markDirty();
+        }
+        if (this.next.isPresent()) {
+            this.next.get().note.markDirty();
+        }
+    }
+
+    /**
+     * Returns a copy of this node's note that is never edited. The same copy is returned until
+     * the note is marked dirty, so snapshots of the song share every note that has not changed.
+     */
+    Note freeze() {
+        if (!frozenNote.isPresent() || frozenRevision != note.getRenderRevision()) {
+            frozenNote = Optional.of(note.copy());
+            frozenRevision = note.getRenderRevision();
+        }
+        return frozenNote.get();
+    }
+
+    /** Links a node directly to the right of this one, leaving both notes as they are. */
+    void linkNext(NoteNode nextNode) {
+        this.next = Optional.of(nextNode);
+        nextNode.prev = Optional.of(this);
+    }
+
     void standardize(NoteStandardizer standardizer, Voicebank voicebank) {
         Optional<Note> prevNote = getOptionalNote(this.prev);
         Optional<Note> nextNote = getOptionalNote(this.next);
         standardizer.standardize(prevNote, this.note, nextNote, voicebank);
+        // Standardizing can shrink the next note's fade in, so record inputs afterwards.
+        standardizedFrom =
+                Optional.of(new StandardizeInputs(prevNote, this.note, nextNote, voicebank));
+    }
+
+    /**
+     * Standardizes this note only if something it depends on has changed since the last time.
+     * Should be called on the next note first, as with standardize.
+     *
+     * @return Whether the note was standardized.
+     */
+    boolean standardizeIfChanged(NoteStandardizer standardizer, Voicebank voicebank) {
+        StandardizeInputs inputs = new StandardizeInputs(
+                getOptionalNote(this.prev),
+                this.note,
+                getOptionalNote(this.next),
+                voicebank);
+        if (standardizedFrom.isPresent() && standardizedFrom.get().equals(inputs)) {
+            return false;
+        }
+        standardize(standardizer, voicebank);
+        return true;
     }
 
     private static Optional<Note> getOptionalNote(Optional<NoteNode> fromNode) {
@@ -61,12 +61,8 @@ public class NoteStandardizer {
             double envLength = realOverlap + envWidths[1] + envWidths[2] + envWidths[4];
             if (envLength > realDuration - envWidths[3]) {
                 double shrinkFactor = Math.abs(realDuration - envWidths[3]) / envLength;
-                String[] fullEnvelope = note.getFullEnvelope();
                 realOverlap *= shrinkFactor;
-                fullEnvelope[1] = Double.toString(envWidths[1] * shrinkFactor);
-                fullEnvelope[2] = Double.toString(envWidths[2] * shrinkFactor);
-                fullEnvelope[9] = Double.toString(envWidths[4] * shrinkFactor);
-                note.setEnvelope(fullEnvelope);
+                note.scaleEnvelopeWidths(shrinkFactor);
             }
 
             // Adjust the envelopes to match overlap.
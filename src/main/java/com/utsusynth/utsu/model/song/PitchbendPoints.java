@@ -0,0 +1,137 @@
+package com.utsusynth.utsu.model.song;
+
+import java.util.Arrays;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * A note's pitch bend points, packed into a single primitive array. Instances are immutable and
+ * interned, so the many notes of a song that share the same bends, most often the default one,
+ * share a single copy.
+ */
+final class PitchbendPoints {
+    private static final Interner<PitchbendPoints> INTERNER = Interners.newWeakInterner();
+
+    static final PitchbendPoints DEFAULT =
+            of(new double[] {-40.0, 0.0}, new double[] {80.0}, new double[0], new String[0]);
+
+    private final double[] values; // Starts, then widths, then shifts.
+    private final int numStarts;
+    private final int numWidths;
+    private final String[] curves;
+    private final int hash;
+
+    private PitchbendPoints(double[] values, int numStarts, int numWidths, String[] curves) {
+        this.values = values;
+        this.numStarts = numStarts;
+        this.numWidths = numWidths;
+        this.curves = curves;
+        this.hash = (Arrays.hashCode(values) * 31 + numStarts * 7 + numWidths) * 31
+                + Arrays.hashCode(curves);
+    }
+
+    static PitchbendPoints of(double[] starts, double[] widths, double[] shifts, String[] curves) {
+        double[] values = new double[starts.length + widths.length + shifts.length];
+        System.arraycopy(starts, 0, values, 0, starts.length);
+        System.arraycopy(widths, 0, values, starts.length, widths.length);
+        System.arraycopy(shifts, 0, values, starts.length + widths.length, shifts.length);
+        String[] internedCurves = new String[curves.length];
+        for (int i = 0; i < curves.length; i++) {
+            internedCurves[i] = curves[i].intern(); // Only ever "", "s", "r" or "j".
+        }
+        return INTERNER.intern(
+                new PitchbendPoints(values, starts.length, widths.length, internedCurves));
+    }
+
+    static PitchbendPoints of(
+            ImmutableList<Double> starts,
+            ImmutableList<Double> widths,
+            ImmutableList<Double> shifts,
+            ImmutableList<String> curves) {
+        return of(
+                toArray(starts),
+                toArray(widths),
+                toArray(shifts),
+                curves.toArray(new String[curves.size()]));
+    }
+
+    PitchbendPoints withStarts(double[] starts) {
+        return of(starts, getWidthArray(), getShiftArray(), curves);
+    }
+
+    PitchbendPoints withWidths(double[] widths) {
+        return of(getStartArray(), widths, getShiftArray(), curves);
+    }
+
+    PitchbendPoints withShifts(double[] shifts) {
+        return of(getStartArray(), getWidthArray(), shifts, curves);
+    }
+
+    PitchbendPoints withCurves(String[] curves) {
+        return of(getStartArray(), getWidthArray(), getShiftArray(), curves);
+    }
+
+    ImmutableList<Double> getStarts() {
+        return toList(0, numStarts);
+    }
+
+    ImmutableList<Double> getWidths() {
+        return toList(numStarts, numStarts + numWidths);
+    }
+
+    ImmutableList<Double> getShifts() {
+        return toList(numStarts + numWidths, values.length);
+    }
+
+    ImmutableList<String> getCurves() {
+        return ImmutableList.copyOf(curves);
+    }
+
+    private double[] getStartArray() {
+        return Arrays.copyOfRange(values, 0, numStarts);
+    }
+
+    private double[] getWidthArray() {
+        return Arrays.copyOfRange(values, numStarts, numStarts + numWidths);
+    }
+
+    private double[] getShiftArray() {
+        return Arrays.copyOfRange(values, numStarts + numWidths, values.length);
+    }
+
+    private ImmutableList<Double> toList(int from, int to) {
+        ImmutableList.Builder<Double> builder = ImmutableList.builder();
+        for (int i = from; i < to; i++) {
+            builder.add(values[i]);
+        }
+        return builder.build();
+    }
+
+    private static double[] toArray(ImmutableList<Double> list) {
+        double[] array = new double[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof PitchbendPoints)) {
+            return false;
+        }
+        PitchbendPoints points = (PitchbendPoints) other;
+        return hash == points.hash && numStarts == points.numStarts
+                && numWidths == points.numWidths && Arrays.equals(values, points.values)
+                && Arrays.equals(curves, points.curves);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
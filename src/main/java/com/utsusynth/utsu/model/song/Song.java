@@ -25,6 +25,7 @@ public class Song {
     public static final int MAX_TEMPO = 260;
 
     private final VoicebankContainer voicebank;
+    private final Optional<Voicebank> pinnedVoicebank; // Used instead of the container if set.
     private final NoteStandardizer standardizer;
 
     // Settings. (Anything marked with [#SETTING])
@@ -36,8 +37,8 @@ public class Song {
     private boolean mode2 = true;
     private Optional<File> instrumental; // Not yet written to UST.
 
-    // Set to a value after rendering song, INVALID whenever song changes.
-    private RegionBounds lastRenderedRegion = RegionBounds.INVALID;
+    // Set to a value after rendering song, INVALID whenever song changes. Set by render threads.
+    private volatile RegionBounds lastRenderedRegion = RegionBounds.INVALID;
 
     // Notes. (Anything marked with [#0000]-[#9999], [#TRACKEND] marks the end of these)
     private NoteList noteList;
@@ -45,6 +46,9 @@ public class Song {
     // Pitchbends, kept in a format suitable for rendering.
     private PitchCurve pitchbends;
 
+    // Latest snapshot of this song, dropped whenever the song changes.
+    private Optional<Song> snapshot = Optional.absent();
+
     public class Builder {
         private final Song newSong;
         private final NoteList.Builder noteListBuilder;
@@ -133,6 +137,7 @@ public class Song {
             NoteList songNoteList,
             PitchCurve pitchbends) {
         this.voicebank = voicebankContainer;
+        this.pinnedVoicebank = Optional.absent();
         this.standardizer = standardizer;
         this.noteList = songNoteList;
         this.pitchbends = pitchbends;
@@ -143,6 +148,21 @@ public class Song {
         this.instrumental = Optional.absent();
     }
 
+    // Copies a song for rendering. See snapshot().
+    private Song(Song song) {
+        this.voicebank = song.voicebank;
+        this.pinnedVoicebank = Optional.of(song.getVoicebank());
+        this.standardizer = song.standardizer;
+        this.noteList = song.noteList.snapshot();
+        this.pitchbends = song.pitchbends.snapshot();
+        this.tempo = song.tempo;
+        this.projectName = song.projectName;
+        this.outputFile = song.outputFile;
+        this.flags = song.flags;
+        this.mode2 = song.mode2;
+        this.instrumental = song.instrumental;
+    }
+
     public Builder toBuilder() {
         // Returns the builder of a new Song with this one's attributes.
         // The old Song's noteList and pitchbends objects are used in the new Song.
@@ -153,6 +173,19 @@ public class Song {
                         .setInstrumental(this.instrumental);
     }
 
+    /**
+     * Returns a copy of this song to render from while this one keeps being edited. The copy
+     * shares every note and pitchbend that has not changed since the last snapshot, and the same
+     * copy is returned until this song changes, so it remembers what was last rendered from it.
+     * Should be called on the thread that edits this song.
+     */
+    public Song snapshot() {
+        if (!snapshot.isPresent()) {
+            snapshot = Optional.of(new Song(this));
+        }
+        return snapshot.get();
+    }
+
     /**
      * Adds a note or notes to the song object.
      * 
@@ -164,8 +197,7 @@ public class Song {
             System.out.println("Error: Add notes called on empty list!");
             return;
         }
-        NoteNode curNode = null; // Where to start search for place to insert new note.
-        int searchStartMs = 0;
+        snapshot = Optional.absent();
         for (NoteData toAdd : notesToAdd) {
             Note note = new Note();
             // New note's delta/length may be overridden while inserting into note list.
@@ -186,12 +218,7 @@ public class Song {
 
             int positionMs = toAdd.getPosition();
             try {
-                if (curNode == null) {
-                    curNode = this.noteList.insertNote(note, positionMs);
-                } else {
-                    curNode = this.noteList.insertNote(note, positionMs, curNode, searchStartMs);
-                }
-                searchStartMs = positionMs - curNode.getNote().getDelta();
+                this.noteList.insertNote(note, positionMs).markDirty();
             } catch (NoteAlreadyExistsException e) {
                 // Swallow this for now.
             }
@@ -204,6 +231,7 @@ public class Song {
             System.out.println("Error: Remove notes called on empty collection!");
             return null;
         }
+        snapshot = Optional.absent();
 
         HashSet<NoteUpdateData> removedNotes = new HashSet<>(); // Return value.
         int firstNeighbor = Integer.MAX_VALUE;
@@ -212,6 +240,7 @@ public class Song {
         NoteNode curNode;
         for (int position : positions) {
             curNode = this.noteList.removeNote(position);
+            curNode.markDirty(); // Marks the removed note's neighbors.
             this.pitchbends.removePitchbends(
                     position,
                     curNode.getNote().getDuration(),
@@ -253,8 +282,10 @@ public class Song {
 
     /** Modifies a note in-place without changing its lyric, position, or duration. */
     public NoteUpdateData modifyNote(NoteData toModify) {
+        snapshot = Optional.absent();
         int positionMs = toModify.getPosition();
         NoteNode node = this.noteList.getNote(positionMs);
+        node.markDirty();
         Note note = node.getNote();
         if (toModify.getEnvelope().isPresent()) {
             note.setEnvelope(toModify.getEnvelope().get());
@@ -277,10 +308,16 @@ public class Song {
         return note.getUpdateData(positionMs);
     }
 
+    /**
+     * Standardizes the notes between two positions and their neighbors. Only notes whose lyric,
+     * timing, neighbors or voicebank have changed since they were last standardized are
+     * recomputed.
+     */
     public MutateResponse standardizeNotes(int firstPosition, int lastPosition) {
         LinkedList<NoteUpdateData> updatedNotes = new LinkedList<>();
         Optional<NoteUpdateData> prevNeighbor = Optional.absent();
         Optional<NoteUpdateData> nextNeighbor = Optional.absent();
+        snapshot = Optional.absent();
 
         NoteNode startNode = this.noteList.getNote(lastPosition);
         if (startNode == null) {
@@ -294,41 +331,39 @@ public class Song {
         if (startNode.getNext().isPresent()) {
             startPosition += startNode.getNote().getLength();
             startNode = startNode.getNext().get();
-            nextNeighbor = Optional.of(startNode.getNote().getUpdateData(startPosition));
         }
 
+        Voicebank curVoicebank = voicebank.get();
         int curPosition = startPosition;
         Optional<NoteNode> curNode = Optional.of(startNode);
         while (curNode.isPresent()) {
             Note note = curNode.get().getNote();
-            // Standardize.
-            curNode.get().standardize(standardizer, voicebank.get());
-            if (!nextNeighbor.isPresent() || curPosition < startPosition) {
+            if (curNode.get().standardizeIfChanged(standardizer, curVoicebank)) {
+                curNode.get().markDirty();
+                // Pitch curve corrections.
+                int prevNoteNum = curNode.get().getPrev().isPresent()
+                        ? curNode.get().getPrev().get().getNote().getNoteNum()
+                        : note.getNoteNum();
+                this.pitchbends
+                        .removePitchbends(curPosition, note.getDuration(), note.getPitchbends());
+                this.pitchbends.addPitchbends(
+                        curPosition,
+                        note.getDuration(),
+                        note.getPitchbends(),
+                        prevNoteNum,
+                        note.getNoteNum());
+            }
+            if (curPosition > lastPosition) {
+                nextNeighbor = Optional.of(note.getUpdateData(curPosition));
+            } else if (curPosition >= firstPosition) {
                 updatedNotes.addFirst(note.getUpdateData(curPosition));
+            } else {
+                // Stop at the prev neighbor of the first note.
+                prevNeighbor = Optional.of(note.getUpdateData(curPosition));
+                break;
             }
-            // Pitch curve corrections.
-            int prevNoteNum = curNode.get().getPrev().isPresent()
-                    ? curNode.get().getPrev().get().getNote().getNoteNum()
-                    : note.getNoteNum();
-            this.pitchbends.removePitchbends(curPosition, note.getDuration(), note.getPitchbends());
-            this.pitchbends.addPitchbends(
-                    curPosition,
-                    note.getDuration(),
-                    note.getPitchbends(),
-                    prevNoteNum,
-                    note.getNoteNum());
-            // Break if going further back would pass firstPosition.
             curPosition -= note.getDelta();
             curNode = curNode.get().getPrev();
-            if (curPosition < firstPosition) {
-                break;
-            }
-        }
-
-        // Include the prev neighbor of the first note, if present. No need to change pitch.
-        if (curNode.isPresent()) {
-            curNode.get().standardize(standardizer, voicebank.get());
-            prevNeighbor = Optional.of(curNode.get().getNote().getUpdateData(curPosition));
         }
         return new MutateResponse(updatedNotes, prevNeighbor, nextNeighbor);
     }
@@ -370,9 +405,11 @@ public class Song {
         return Optional.absent();
     }
 
-    // Can be changed without converting song to a builder and back.
+    // Can be changed without converting song to a builder and back. As notes can also be edited
+    // in place, this drops the latest snapshot as well.
     public void setRendered(RegionBounds region) {
         this.lastRenderedRegion = region;
+        this.snapshot = Optional.absent();
     }
 
     public RegionBounds getLastRenderedRegion() {
@@ -392,6 +429,9 @@ public class Song {
     }
 
     public Voicebank getVoicebank() {
+        if (pinnedVoicebank.isPresent()) {
+            return pinnedVoicebank.get();
+        }
         return voicebank.get();
     }
 
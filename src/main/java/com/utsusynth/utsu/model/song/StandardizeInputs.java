@@ -0,0 +1,92 @@
+package com.utsusynth.utsu.model.song;
+
+import java.util.Arrays;
+import java.util.Objects;
+import com.google.common.base.Optional;
+import com.utsusynth.utsu.model.voicebank.Voicebank;
+
+/**
+ * Every value {@link NoteStandardizer} reads when standardizing a note, taken from the note, its
+ * neighbors and the voicebank. If these are the same as the last time a note was standardized,
+ * standardizing it again would change nothing. The note number of the previous note is included
+ * too, since the note's portamento starts from it.
+ */
+class StandardizeInputs {
+    private final Voicebank voicebank;
+    private final int voicebankRevision;
+
+    // Previous note.
+    private final boolean hasPrev;
+    private final String prevLyric;
+    private final int prevNoteNum;
+    private final int prevDuration;
+    private final int prevLength;
+
+    // This note. Its fade in and fade out are left out, as they are only ever written.
+    private final String lyric;
+    private final int noteNum;
+    private final int delta;
+    private final int duration;
+    private final int length;
+    private final Optional<Double> preutter;
+    private final Optional<Double> overlap;
+    private final double[] envelopeWidths;
+
+    // Next note, as already standardized.
+    private final boolean hasNext;
+    private final String nextTrueLyric;
+    private final double nextRealPreutter;
+    private final double nextFadeIn;
+    private final int nextDuration;
+
+    StandardizeInputs(Optional<Note> prev, Note note, Optional<Note> next, Voicebank voicebank) {
+        this.voicebank = voicebank;
+        this.voicebankRevision = voicebank.getRevision();
+
+        this.hasPrev = prev.isPresent();
+        this.prevLyric = hasPrev ? prev.get().getLyric() : "";
+        this.prevNoteNum = hasPrev ? prev.get().getNoteNum() : 0;
+        this.prevDuration = hasPrev ? prev.get().getDuration() : 0;
+        this.prevLength = hasPrev ? prev.get().getLength() : 0;
+
+        this.lyric = note.getLyric();
+        this.noteNum = note.getNoteNum();
+        this.delta = note.getDelta();
+        this.duration = note.getDuration();
+        this.length = note.getLength();
+        this.preutter = note.getPreutter();
+        this.overlap = note.getOverlap();
+        double[] envelope = note.getRawFullEnvelope();
+        this.envelopeWidths = new double[] {envelope[1], envelope[2], envelope[9]}; // p2, p3, p5
+
+        this.hasNext = next.isPresent();
+        this.nextTrueLyric = hasNext ? next.get().getTrueLyric() : "";
+        this.nextRealPreutter = hasNext ? next.get().getRealPreutter() : 0;
+        this.nextFadeIn = hasNext ? next.get().getFadeIn() : 0;
+        this.nextDuration = hasNext ? next.get().getDuration() : 0;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof StandardizeInputs)) {
+            return false;
+        }
+        StandardizeInputs inputs = (StandardizeInputs) other;
+        return voicebank == inputs.voicebank && voicebankRevision == inputs.voicebankRevision
+                && hasPrev == inputs.hasPrev && prevLyric.equals(inputs.prevLyric)
+                && prevNoteNum == inputs.prevNoteNum && prevDuration == inputs.prevDuration
+                && prevLength == inputs.prevLength && lyric.equals(inputs.lyric)
+                && noteNum == inputs.noteNum && delta == inputs.delta
+                && duration == inputs.duration && length == inputs.length
+                && preutter.equals(inputs.preutter) && overlap.equals(inputs.overlap)
+                && Arrays.equals(envelopeWidths, inputs.envelopeWidths)
+                && hasNext == inputs.hasNext && nextTrueLyric.equals(inputs.nextTrueLyric)
+                && nextRealPreutter == inputs.nextRealPreutter
+                && nextFadeIn == inputs.nextFadeIn && nextDuration == inputs.nextDuration;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(lyric, noteNum, delta, duration, nextTrueLyric, voicebankRevision);
+    }
+}
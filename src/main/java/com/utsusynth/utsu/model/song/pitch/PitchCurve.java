@@ -1,8 +1,14 @@
 package com.utsusynth.utsu.model.song.pitch;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
-import com.google.common.base.Optional;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import com.utsusynth.utsu.common.data.PitchbendData;
 import com.utsusynth.utsu.model.song.pitch.portamento.Portamento;
@@ -11,19 +17,61 @@ import com.utsusynth.utsu.model.song.pitch.portamento.PortamentoFactory;
 /**
  * Stores up to one pitchbend for each "pitch step" in a song. There are always 96 pitch steps per
  * beat, regardless of tempo.
+ *
+ * <p>
+ * Each portamento and vibrato is stored once, as a segment covering a range of steps, so adding or
+ * removing a note's pitchbends costs one update per segment rather than one per step. Steps are
+ * grouped into chunks that list the segments overlapping them, sorted by the start of the note
+ * that added them. A chunk works out which segment applies to each of its steps only when it is
+ * next read. Segments are also indexed by note, so a note's pitchbends are found in one lookup.
+ *
+ * <p>
+ * Snapshots share chunks with the curve they were taken from. A shared chunk is never edited, so
+ * either curve copies it before changing it.
  */
 public class PitchCurve {
-    // Map of pitch step number to attached pitchbend, if any.
+    private static final int STEPS_PER_CHUNK = 1024; // About five seconds at 120 bpm.
+    // Each render thread reuses one buffer for every pitch string it writes.
+    private static final ThreadLocal<PitchStringEncoder> ENCODER =
+            ThreadLocal.withInitial(PitchStringEncoder::new);
+
+    // Map of chunk number to the segments overlapping it. Steps may be negative.
     // TODO: Limit the minimum and maximum x-values of portamento/vibrato.
-    private final HashMap<Integer, Pitchbend> pitchbends;
+    private final HashMap<Integer, Chunk> chunks;
+    // Map of note start in ms to the segments that note added.
+    private final HashMap<Integer, List<Segment>> segmentsByNote;
     private final PortamentoFactory portamentoFactory;
 
     @Inject
     public PitchCurve(PortamentoFactory portamentoFactory) {
-        this.pitchbends = new HashMap<Integer, Pitchbend>();
+        this.chunks = new HashMap<>();
+        this.segmentsByNote = new HashMap<>();
+        this.portamentoFactory = new PortamentoFactory();
+    }
+
+    private PitchCurve(
+            HashMap<Integer, Chunk> chunks,
+            HashMap<Integer, List<Segment>> segmentsByNote) {
+        this.chunks = chunks;
+        this.segmentsByNote = segmentsByNote;
         this.portamentoFactory = new PortamentoFactory();
     }
 
+    /**
+     * Returns a copy of this curve that later edits to it will not reach. Chunks are shared until
+     * one of the two curves changes them.
+     */
+    public PitchCurve snapshot() {
+        for (Chunk chunk : chunks.values()) {
+            chunk.owner = null; // Now shared, so neither curve may edit it in place.
+        }
+        HashMap<Integer, List<Segment>> snapshotSegments = new HashMap<>();
+        for (Map.Entry<Integer, List<Segment>> entry : segmentsByNote.entrySet()) {
+            snapshotSegments.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        return new PitchCurve(new HashMap<>(chunks), snapshotSegments);
+    }
+
     /** Adds pitchbends for a single note. */
     public void addPitchbends(
             int noteStartMs,
@@ -58,13 +106,12 @@ public class PitchCurve {
                     .makePortamento(startMs, pitchStart, endMs, pitchEnd, pitchShape);
 
             // Add portamento to all affected steps on the pitch curve.
-            for (int j = nextPitchStep(startMs); j <= prevPitchStep(endMs); j++) {
-                if (pitchbends.containsKey(j)) {
-                    pitchbends.get(j).addPortamento(noteStartMs, portamento);
-                } else {
-                    pitchbends.put(j, Pitchbend.makePitchbend(noteStartMs, portamento));
-                }
-            }
+            addSegment(
+                    new Segment(
+                            nextPitchStep(startMs),
+                            prevPitchStep(endMs),
+                            noteStartMs,
+                            portamento));
             // End of the current pitchbend is the start of the next one.
             startMs = endMs;
             pitchStart = pitchEnd;
@@ -86,13 +133,12 @@ public class PitchCurve {
                     data.getVibrato(5),
                     data.getVibrato(6),
                     data.getVibrato(8));
-            for (int i = nextPitchStep(vibratoStartMs); i < prevPitchStep(vibratoEndMs); i++) {
-                if (pitchbends.containsKey(i)) {
-                    pitchbends.get(i).addVibrato(vibrato);
-                } else {
-                    pitchbends.put(i, Pitchbend.makePitchbend(vibrato));
-                }
-            }
+            addSegment(
+                    new Segment(
+                            nextPitchStep(vibratoStartMs),
+                            prevPitchStep(vibratoEndMs) - 1,
+                            noteStartMs,
+                            vibrato));
         }
     }
 
@@ -107,123 +153,247 @@ public class PitchCurve {
         for (double width : data.getPBW()) {
             endMs += width;
         }
-        for (int i = nextPitchStep(startMs); i <= prevPitchStep(endMs); i++) {
-            // Remove portamento from each pitch step it covers.
-            if (pitchbends.containsKey(i)) {
-                Pitchbend pitchbend = pitchbends.get(i);
-                pitchbend.removePortamento(noteStartMs);
-                if (pitchbend.isEmpty()) {
-                    pitchbends.remove(i);
-                }
+        // Remove portamento from each pitch step it covers.
+        int firstStep = nextPitchStep(startMs);
+        int lastStep = prevPitchStep(endMs);
+        List<Segment> portamentos = new ArrayList<>();
+        for (Segment segment : segmentsByNote.getOrDefault(noteStartMs, ImmutableList.of())) {
+            if (!segment.isVibrato() && segment.overlaps(firstStep, lastStep)) {
+                portamentos.add(segment);
             }
         }
+        removeSegments(firstStep, lastStep, portamentos);
 
         // Remove vibrato from the entire note.
         if (data.getVibrato(0) > 0 || data.getVibrato(1) > 0) {
             double noteEndMs = noteStartMs + noteLengthMs;
-            for (int i = nextPitchStep(noteStartMs); i < prevPitchStep(noteEndMs); i++) {
-                if (pitchbends.containsKey(i)) {
-                    Pitchbend pitchbend = pitchbends.get(i);
-                    pitchbend.removeVibrato();
-                    if (pitchbend.isEmpty()) {
-                        pitchbends.remove(i);
-                    }
-                }
-            }
+            int firstVibratoStep = nextPitchStep(noteStartMs);
+            int lastVibratoStep = prevPitchStep(noteEndMs) - 1;
+            removeSegments(
+                    firstVibratoStep,
+                    lastVibratoStep,
+                    findVibratos(firstVibratoStep, lastVibratoStep));
         }
     }
 
     /** Writes out pitchbends for a section into a format readable by resamplers. */
     public String renderPitchbends(int firstStep, int lastStep, int noteNum) {
-        String result = "";
+        PitchStringEncoder result = ENCODER.get().reset();
+        int numSteps = Math.max(0, lastStep - firstStep + 1);
+        Portamento[] portamentos = new Portamento[numSteps];
+        Vibrato[] vibratos = new Vibrato[numSteps];
+        findMutations(firstStep, portamentos, vibratos);
+
         double noteNumPitch = noteNum * 10; // In tenths. (1/10 of a semitone)
         double defaultPitch = 0; // In tenths. (1/10 of a semitone)
-        for (int scanStep = firstStep; scanStep <= lastStep; scanStep++) {
+        for (Portamento portamento : portamentos) {
             // Scan through the steps until first default pitch is found.
-            if (pitchbends.containsKey(scanStep)) {
-                Optional<Portamento> portamento = pitchbends.get(scanStep).getPortamento();
-                if (portamento.isPresent()) {
-                    defaultPitch = portamento.get().getStartPitch();
-                    break;
-                }
+            if (portamento != null) {
+                defaultPitch = portamento.getStartPitch();
+                break;
             }
         }
 
-        for (int step = firstStep; step <= lastStep; step++) {
-            if (pitchbends.containsKey(step)) {
+        // Evaluate each portamento and vibrato over all of its steps at once.
+        double[] portamentoPitch = new double[numSteps]; // Absolute, in tenths.
+        double[] vibratoPitch = new double[numSteps]; // Centered on zero, in tenths.
+        applyInRuns(firstStep, portamentos, portamentoPitch);
+        applyInRuns(firstStep, vibratos, vibratoPitch);
+
+        for (int i = 0; i < numSteps; i++) {
+            Portamento portamento = portamentos[i];
+            if (portamento != null || vibratos[i] != null) {
                 // Write pitchbend.
-                int positionMs = step * 5; // 92 pitch steps in a beat of 480 ms.
-                double realPitch = pitchbends.get(step).apply(positionMs); // In tenths.
-                if (!pitchbends.get(step).getPortamento().isPresent()) {
+                double realPitch = 0; // In tenths.
+                if (portamento != null) {
+                    realPitch += portamentoPitch[i];
+                } else {
                     realPitch += defaultPitch; // Vibrato modifies default pitch if no portamento.
                 }
+                if (vibratos[i] != null) {
+                    realPitch += vibratoPitch[i];
+                }
                 int diff = (int) ((realPitch - noteNumPitch) * 10); // In cents.
-                result += convertTo12Bit(diff);
+                result.appendCents(diff);
 
                 // Set the default pitch to the one at the end of current portamento.
-                Optional<Portamento> portamento = pitchbends.get(step).getPortamento();
-                if (portamento.isPresent()) {
-                    defaultPitch = portamento.get().getEndPitch();
+                if (portamento != null) {
+                    defaultPitch = portamento.getEndPitch();
                 }
             } else {
                 // Write a stretch of no pitchbends.
-                int numEmpty = 0;
-                int emptyStep = step;
-                for (; emptyStep <= lastStep; emptyStep++) {
-                    if (pitchbends.containsKey(emptyStep)) {
-                        break;
-                    } else {
-                        numEmpty++;
-                    }
+                int emptyEnd = i;
+                while (emptyEnd < numSteps && portamentos[emptyEnd] == null
+                        && vibratos[emptyEnd] == null) {
+                    emptyEnd++;
                 }
+                int numEmpty = emptyEnd - i;
                 int diff = (int) ((defaultPitch - noteNumPitch) * 10); // In cents.
-                result += convertTo12Bit(diff);
+                result.appendCents(diff);
                 if (numEmpty > 1) {
-                    result += String.format("#%d#", numEmpty - 1);
+                    result.appendRepeats(numEmpty - 1);
                 }
-                step = emptyStep - 1; // Move step to the end of the empty stretch.
+                i = emptyEnd - 1; // Move to the end of the empty stretch.
             }
         }
-        return result;
+        return result.toString();
+    }
+
+    // Evaluates each mutation over every step in a row that it applies to, in one call.
+    private static void applyInRuns(int firstStep, PitchMutation[] mutations, double[] out) {
+        for (int runStart = 0; runStart < mutations.length;) {
+            PitchMutation mutation = mutations[runStart];
+            int runEnd = runStart;
+            while (runEnd + 1 < mutations.length && mutations[runEnd + 1] == mutation) {
+                runEnd++;
+            }
+            if (mutation != null) {
+                mutation.applyRange(firstStep + runStart, firstStep + runEnd, out, runStart);
+            }
+            runStart = runEnd + 1;
+        }
     }
 
     /**
-     * For some reason, resamplers want two characters that represent a 12-bit number in two's
-     * complement form (-2048 to 2047). I would not be using this format if existing resamplers
-     * didn't require it.
-     * 
-     * @return A string of length 2 representing a 12-bit number.
+     * Adds a segment to whichever of its steps do not already have one like it. A step can only
+     * have one vibrato, and one portamento from each note.
      */
-    private static String convertTo12Bit(int convertMe) {
-        // Convert out of two's complement form.
-        if (convertMe < 0) {
-            convertMe += 4096;
-        }
-        // Make sure convertMe is between 0 and 4095.
-        convertMe = Math.max(0, Math.min(4095, convertMe));
-        String result = ""; // Set to 0 by default.
-        for (int sixBitNumber : ImmutableList.of(convertMe / 64, convertMe % 64)) {
-            if (sixBitNumber >= 0 && sixBitNumber < 26) {
-                result += (char) (sixBitNumber + 'A');
-            } else if (sixBitNumber >= 26 && sixBitNumber < 52) {
-                result += (char) (sixBitNumber - 26 + 'a');
-            } else if (sixBitNumber >= 52 && sixBitNumber < 62) {
-                result += (char) (sixBitNumber - 52 + '0');
-            } else if (sixBitNumber == 62) {
-                result += '+';
-            } else if (sixBitNumber == 63) {
-                result += '/';
-            } else {
-                // Return 0 if the number is not in range [0, 64).
-                return "AA";
+    private void addSegment(Segment segment) {
+        if (segment.firstStep > segment.lastStep) {
+            return;
+        }
+        List<Segment> clashes = new ArrayList<>();
+        if (segment.isVibrato()) {
+            clashes.addAll(findVibratos(segment.firstStep, segment.lastStep));
+        } else {
+            // Portamentos only clash with others from the same note.
+            for (Segment other : segmentsByNote.getOrDefault(segment.noteStartMs,
+                    ImmutableList.of())) {
+                if (!other.isVibrato() && other.overlaps(segment.firstStep, segment.lastStep)) {
+                    clashes.add(other);
+                }
+            }
+        }
+        if (!clashes.isEmpty()) {
+            // TODO: Handle this.
+            System.out.println(segment.isVibrato() ? "Error: tried to add overlapping vibrato."
+                    : "Error: tried to add portamento twice.");
+        }
+        clashes.sort(Comparator.comparingInt(clash -> clash.firstStep));
+        int fromStep = segment.firstStep;
+        for (Segment clash : clashes) {
+            if (clash.firstStep > fromStep) {
+                link(segment.withSteps(fromStep, clash.firstStep - 1));
+            }
+            fromStep = Math.max(fromStep, clash.lastStep + 1);
+        }
+        if (fromStep <= segment.lastStep) {
+            link(segment.withSteps(fromStep, segment.lastStep));
+        }
+    }
+
+    /** Clears segments from a range of steps, keeping any parts outside the range. */
+    private void removeSegments(int firstStep, int lastStep, List<Segment> toRemove) {
+        if (firstStep > lastStep) {
+            return;
+        }
+        for (Segment segment : toRemove) {
+            unlink(segment);
+            if (segment.firstStep < firstStep) {
+                link(segment.withSteps(segment.firstStep, firstStep - 1));
+            }
+            if (segment.lastStep > lastStep) {
+                link(segment.withSteps(lastStep + 1, segment.lastStep));
             }
         }
-        if (result.length() != 2) {
-            return "AA";
+    }
+
+    // Returns each vibrato that overlaps a range of steps, once.
+    private List<Segment> findVibratos(int firstStep, int lastStep) {
+        Set<Segment> found = Sets.newIdentityHashSet();
+        List<Segment> result = new ArrayList<>();
+        for (int i = chunkOf(firstStep); i <= chunkOf(lastStep); i++) {
+            Chunk chunk = chunks.get(i);
+            if (chunk == null) {
+                continue;
+            }
+            for (Segment segment : chunk.segments) {
+                if (segment.isVibrato() && segment.overlaps(firstStep, lastStep)
+                        && found.add(segment)) {
+                    result.add(segment);
+                }
+            }
         }
         return result;
     }
 
+    private void link(Segment segment) {
+        for (int i = chunkOf(segment.firstStep); i <= chunkOf(segment.lastStep); i++) {
+            getEditableChunk(i).insert(segment);
+        }
+        segmentsByNote.computeIfAbsent(segment.noteStartMs, unused -> new ArrayList<>())
+                .add(segment);
+    }
+
+    private void unlink(Segment segment) {
+        for (int i = chunkOf(segment.firstStep); i <= chunkOf(segment.lastStep); i++) {
+            Chunk chunk = getEditableChunk(i);
+            chunk.segments.remove(segment);
+            chunk.resolution = null;
+            if (chunk.segments.isEmpty()) {
+                chunks.remove(i);
+            }
+        }
+        List<Segment> noteSegments = segmentsByNote.get(segment.noteStartMs);
+        noteSegments.remove(segment);
+        if (noteSegments.isEmpty()) {
+            segmentsByNote.remove(segment.noteStartMs);
+        }
+    }
+
+    // Returns the chunk with this number, creating it or copying it first if it is shared.
+    private Chunk getEditableChunk(int chunkNum) {
+        Chunk chunk = chunks.get(chunkNum);
+        if (chunk == null) {
+            chunk = new Chunk(this, chunkNum * STEPS_PER_CHUNK, new ArrayList<>());
+            chunks.put(chunkNum, chunk);
+        } else if (chunk.owner != this) {
+            chunk = new Chunk(this, chunk.firstStep, new ArrayList<>(chunk.segments));
+            chunks.put(chunkNum, chunk);
+        }
+        return chunk;
+    }
+
+    // Fills in the portamento and vibrato, if any, that apply to each step from firstStep on.
+    private void findMutations(int firstStep, Portamento[] portamentos, Vibrato[] vibratos) {
+        int lastStep = firstStep + portamentos.length - 1;
+        for (int i = chunkOf(firstStep); i <= chunkOf(lastStep); i++) {
+            Chunk chunk = chunks.get(i);
+            if (chunk == null) {
+                continue;
+            }
+            Resolution resolution = chunk.resolve();
+            int from = Math.max(firstStep, chunk.firstStep);
+            int to = Math.min(lastStep, chunk.firstStep + STEPS_PER_CHUNK - 1);
+            for (int step = from; step <= to; step++) {
+                int portamentoIndex = resolution.portamentoAt[step - chunk.firstStep];
+                if (portamentoIndex > 0) {
+                    portamentos[step - firstStep] =
+                            (Portamento) chunk.segments.get(portamentoIndex - 1).mutation;
+                }
+                int vibratoIndex = resolution.vibratoAt[step - chunk.firstStep];
+                if (vibratoIndex > 0) {
+                    vibratos[step - firstStep] =
+                            (Vibrato) chunk.segments.get(vibratoIndex - 1).mutation;
+                }
+            }
+        }
+    }
+
+    private static int chunkOf(int step) {
+        return Math.floorDiv(step, STEPS_PER_CHUNK);
+    }
+
     // Finds the pitch step just after this position.
     private static int nextPitchStep(double positionMs) {
         return ((int) Math.ceil(positionMs / 5.0));
@@ -238,4 +408,92 @@ public class PitchCurve {
         }
         return prevStep;
     }
+
+    /** A portamento or vibrato over an inclusive range of pitch steps. */
+    private static class Segment {
+        private final int firstStep;
+        private final int lastStep;
+        private final int noteStartMs; // Identifies the note that added this segment.
+        private final PitchMutation mutation; // Either a portamento or a vibrato.
+
+        private Segment(int firstStep, int lastStep, int noteStartMs, PitchMutation mutation) {
+            this.firstStep = firstStep;
+            this.lastStep = lastStep;
+            this.noteStartMs = noteStartMs;
+            this.mutation = mutation;
+        }
+
+        private Segment withSteps(int newFirstStep, int newLastStep) {
+            return new Segment(newFirstStep, newLastStep, noteStartMs, mutation);
+        }
+
+        private boolean isVibrato() {
+            return mutation instanceof Vibrato;
+        }
+
+        private boolean overlaps(int otherFirstStep, int otherLastStep) {
+            return firstStep <= otherLastStep && lastStep >= otherFirstStep;
+        }
+    }
+
+    /**
+     * The segments overlapping one block of steps. Per-step lookups go through two dense arrays
+     * of indices into the segment list, rebuilt after the segments change. Only the curve that
+     * owns a chunk may edit it; chunks shared with a snapshot have no owner and are only read,
+     * possibly from several threads at once.
+     */
+    private static class Chunk {
+        private final int firstStep;
+        private final List<Segment> segments; // By note start, then in the order added.
+        private PitchCurve owner;
+        private volatile Resolution resolution; // Null until next read after a change.
+
+        private Chunk(PitchCurve owner, int firstStep, List<Segment> segments) {
+            this.owner = owner;
+            this.firstStep = firstStep;
+            this.segments = segments;
+        }
+
+        private void insert(Segment segment) {
+            // Binary search for the first segment from a later note.
+            int low = 0;
+            int high = segments.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (segments.get(mid).noteStartMs <= segment.noteStartMs) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            segments.add(low, segment);
+            resolution = null;
+        }
+
+        // Segments never overlap others of their kind from the same note, so painting them in
+        // order of note start leaves the latest note's portamento on each step. Built in new
+        // arrays, so a thread reading a shared chunk never sees one half-painted.
+        private Resolution resolve() {
+            Resolution cur = resolution;
+            if (cur != null) {
+                return cur;
+            }
+            cur = new Resolution();
+            for (int i = 0; i < segments.size(); i++) {
+                Segment segment = segments.get(i);
+                short[] indices = segment.isVibrato() ? cur.vibratoAt : cur.portamentoAt;
+                int from = Math.max(segment.firstStep, firstStep) - firstStep;
+                int to = Math.min(segment.lastStep, firstStep + STEPS_PER_CHUNK - 1) - firstStep;
+                Arrays.fill(indices, from, to + 1, (short) (i + 1));
+            }
+            resolution = cur;
+            return cur;
+        }
+    }
+
+    /** Which of a chunk's segments applies to each of its steps. */
+    private static class Resolution {
+        private final short[] portamentoAt = new short[STEPS_PER_CHUNK]; // Index + 1, 0 if none.
+        private final short[] vibratoAt = new short[STEPS_PER_CHUNK]; // Index + 1, 0 if none.
+    }
 }
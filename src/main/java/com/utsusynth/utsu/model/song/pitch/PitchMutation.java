@@ -1,6 +1,19 @@
 package com.utsusynth.utsu.model.song.pitch;
 
 public interface PitchMutation {
+	/** Length of one pitch step. There are 96 pitch steps in a beat of 480 ms. */
+	int MS_PER_STEP = 5;
+
 	/** Returns pitch value (in 1/10 of a semitone) for this position. */
 	double apply(int positionMs);
+
+	/**
+	 * Writes the pitch values for a range of pitch steps, firstStep to lastStep inclusive, into
+	 * out starting at outOffset. Implementations can share work between neighboring steps.
+	 */
+	default void applyRange(int firstStep, int lastStep, double[] out, int outOffset) {
+		for (int step = firstStep; step <= lastStep; step++) {
+			out[outOffset + step - firstStep] = apply(step * MS_PER_STEP);
+		}
+	}
 }
@@ -0,0 +1,81 @@
+package com.utsusynth.utsu.model.song.pitch;
+
+/**
+ * Writes the pitch strings that resamplers take as their last argument. Each pitch step is a
+ * 12-bit two's complement number in cents, written as two base64-like characters, and a stretch
+ * of repeated steps is written once followed by "#n#" with the number of repeats.
+ *
+ * <p>
+ * Characters go straight into a buffer that is reused from one string to the next, so the only
+ * allocation per string is the finished String itself. Not thread-safe.
+ */
+class PitchStringEncoder {
+    private static final char[] DIGITS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private char[] buffer;
+    private int length;
+
+    PitchStringEncoder() {
+        this.buffer = new char[256];
+        this.length = 0;
+    }
+
+    /** Starts a new pitch string, keeping the buffer. */
+    PitchStringEncoder reset() {
+        length = 0;
+        return this;
+    }
+
+    /** Writes one pitch step, clamped to the 12-bit range resamplers accept. */
+    PitchStringEncoder appendCents(int cents) {
+        // Convert out of two's complement form.
+        int value = cents < 0 ? cents + 4096 : cents;
+        value = Math.max(0, Math.min(4095, value));
+        ensureCapacity(2);
+        buffer[length++] = DIGITS[value >> 6];
+        buffer[length++] = DIGITS[value & 63];
+        return this;
+    }
+
+    /** Writes "#n#", meaning the last step is repeated n more times. */
+    PitchStringEncoder appendRepeats(int numRepeats) {
+        ensureCapacity(12); // Two markers and up to ten digits.
+        buffer[length++] = '#';
+        if (numRepeats < 0) {
+            // Never written by a pitch curve, but keep the sign as String.format would.
+            buffer[length++] = '-';
+            numRepeats = -numRepeats;
+        }
+        int digitsStart = length;
+        do {
+            buffer[length++] = (char) ('0' + numRepeats % 10);
+            numRepeats /= 10;
+        } while (numRepeats > 0);
+        // Digits were written backwards.
+        for (int i = digitsStart, j = length - 1; i < j; i++, j--) {
+            char digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+        buffer[length++] = '#';
+        return this;
+    }
+
+    int length() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length);
+    }
+
+    private void ensureCapacity(int numChars) {
+        if (length + numChars > buffer.length) {
+            char[] newBuffer = new char[Math.max(buffer.length * 2, length + numChars)];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+    }
+}
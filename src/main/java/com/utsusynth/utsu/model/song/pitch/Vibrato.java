@@ -1,6 +1,8 @@
 package com.utsusynth.utsu.model.song.pitch;
 
 class Vibrato implements PitchMutation {
+    private static final int EXACT_EVERY = 32; // Steps between exact evaluations in applyRange.
+
     private final double startMs; // Absolute start of vibrato in ms.
     private final double endMs; // Absolute end of vibrato in ms.
     private final double phaseIn; // Length in ms of phase in.
@@ -61,4 +63,55 @@ class Vibrato implements PitchMutation {
             return 0;
         }
     }
+
+    /**
+     * Runs a complex oscillator instead of calling sin() for each step. The frequency changes
+     * linearly, so the angle each step turns by changes by a constant amount, and the oscillator
+     * is rotated by a second oscillator. Both restart from exact values every few steps.
+     */
+    @Override
+    public void applyRange(int firstStep, int lastStep, double[] out, int outOffset) {
+        double sin = 0; // Sine and cosine of the current angle.
+        double cos = 0;
+        double stepSin = 0; // Sine and cosine of the angle to the next step.
+        double stepCos = 0;
+        double turnSin = Math.sin(2 * MS_PER_STEP * MS_PER_STEP * freqSlope);
+        double turnCos = Math.cos(2 * MS_PER_STEP * MS_PER_STEP * freqSlope);
+        for (int step = firstStep; step <= lastStep; step++) {
+            int positionMs = step * MS_PER_STEP;
+            double x = positionMs - startMs;
+            if ((step - firstStep) % EXACT_EVERY == 0) {
+                double angle = x * (startFreq + freqSlope * x) - phase;
+                sin = Math.sin(angle);
+                cos = Math.cos(angle);
+                double stepAngle = MS_PER_STEP * startFreq
+                        + freqSlope * (2 * MS_PER_STEP * x + MS_PER_STEP * MS_PER_STEP);
+                stepSin = Math.sin(stepAngle);
+                stepCos = Math.cos(stepAngle);
+            } else {
+                double nextSin = sin * stepCos + cos * stepSin;
+                cos = cos * stepCos - sin * stepSin;
+                sin = nextSin;
+                double nextStepSin = stepSin * turnCos + stepCos * turnSin;
+                stepCos = stepCos * turnCos - stepSin * turnSin;
+                stepSin = nextStepSin;
+            }
+
+            double value;
+            if (positionMs < startMs) {
+                value = 0;
+            } else if (positionMs < startMs + phaseIn) {
+                double incScale = Math.abs(x) / phaseIn;
+                value = amplitude * incScale * sin + (pitchChange * incScale);
+            } else if (positionMs < endMs - phaseOut) {
+                value = amplitude * sin + pitchChange;
+            } else if (positionMs < endMs) {
+                double decScale = Math.abs(endMs - positionMs) / phaseOut;
+                value = amplitude * decScale * sin + (pitchChange * decScale);
+            } else {
+                value = 0;
+            }
+            out[outOffset++] = value;
+        }
+    }
 }
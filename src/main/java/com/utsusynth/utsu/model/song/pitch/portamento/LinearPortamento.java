@@ -27,6 +27,17 @@ class LinearPortamento extends Portamento {
 		return slope * adjustedX + y1;
 	}
 
+	@Override
+	public void applyRange(int firstStep, int lastStep, double[] out, int outOffset) {
+		if (firstStep * MS_PER_STEP < x1 || lastStep * MS_PER_STEP > x2) {
+			super.applyRange(firstStep, lastStep, out, outOffset);
+			return;
+		}
+		for (int step = firstStep; step <= lastStep; step++) {
+			out[outOffset++] = slope * (step * MS_PER_STEP - x1) + y1;
+		}
+	}
+
 	@Override
 	public double getStartPitch() {
 		return y1;
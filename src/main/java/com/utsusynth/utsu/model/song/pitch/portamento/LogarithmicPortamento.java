@@ -39,6 +39,24 @@ class LogarithmicPortamento extends Portamento {
 		return pitch;
 	}
 
+	@Override
+	public void applyRange(int firstStep, int lastStep, double[] out, int outOffset) {
+		if (firstStep * MS_PER_STEP < x1 || lastStep * MS_PER_STEP > x2) {
+			super.applyRange(firstStep, lastStep, out, outOffset);
+			return;
+		}
+		// The log has no cheap recurrence, but the bounds checks can be skipped.
+		for (int step = firstStep; step <= lastStep; step++) {
+			double adjustedX = step * MS_PER_STEP - x1;
+			double pitch = adjustedX == 0.0 ? y1
+					: (yStretch * Math.log(adjustedX * xStretch)) + constant + y1;
+			if ((y2 > y1 && y1 > pitch) || (y1 > y2 && pitch > y1)) {
+				pitch = y1;
+			}
+			out[outOffset++] = pitch;
+		}
+	}
+
 	@Override
 	public double getStartPitch() {
 		return y1;
@@ -2,6 +2,7 @@ package com.utsusynth.utsu.model.song.pitch.portamento;
 
 /** Represents an "s"-shaped portamento. */
 class LogisticPortamento extends Portamento {
+	private static final int EXACT_EVERY = 16; // Steps between exact evaluations in applyRange.
 	private final double x1;
 	private final double y1;
 	private final double x2;
@@ -31,6 +32,27 @@ class LogisticPortamento extends Portamento {
 		return maxY / (1 + Math.exp(-1 * steepness * (adjustedX - halfX))) + y1;
 	}
 
+	@Override
+	public void applyRange(int firstStep, int lastStep, double[] out, int outOffset) {
+		if (firstStep * MS_PER_STEP < x1 || lastStep * MS_PER_STEP > x2) {
+			super.applyRange(firstStep, lastStep, out, outOffset);
+			return;
+		}
+		// Each step multiplies the exponential by the same factor, so only one exp() is needed
+		// every few steps, to keep rounding errors from building up.
+		double stepFactor = Math.exp(-1 * steepness * MS_PER_STEP);
+		double exponential = 0;
+		for (int step = firstStep; step <= lastStep; step++) {
+			if ((step - firstStep) % EXACT_EVERY == 0) {
+				double adjustedX = step * MS_PER_STEP - x1;
+				exponential = Math.exp(-1 * steepness * (adjustedX - halfX));
+			} else {
+				exponential *= stepFactor;
+			}
+			out[outOffset++] = maxY / (1 + exponential) + y1;
+		}
+	}
+
 	@Override
 	public double getStartPitch() {
 		return y1;
@@ -27,6 +27,18 @@ class QuadraticPortamento extends Portamento {
 		return slope * (adjustedX * adjustedX) + y1;
 	}
 
+	@Override
+	public void applyRange(int firstStep, int lastStep, double[] out, int outOffset) {
+		if (firstStep * MS_PER_STEP < x1 || lastStep * MS_PER_STEP > x2) {
+			super.applyRange(firstStep, lastStep, out, outOffset);
+			return;
+		}
+		for (int step = firstStep; step <= lastStep; step++) {
+			double adjustedX = step * MS_PER_STEP - x1;
+			out[outOffset++] = slope * (adjustedX * adjustedX) + y1;
+		}
+	}
+
 	@Override
 	public double getStartPitch() {
 		return this.y1;
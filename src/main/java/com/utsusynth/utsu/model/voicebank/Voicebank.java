@@ -34,6 +34,7 @@ public class Voicebank {
     private String imageName; // Example: "img.bmp"
     private String sampleName;
     private CharacterData parentData;
+    private int revision; // Changes whenever lyric configs or pitch suffixes are edited.
 
     public class Builder {
         private final Voicebank newVoicebank;
@@ -260,7 +261,13 @@ public class Voicebank {
         };
     }
 
+    /** Returns a value that changes every time this voicebank's lyric configs are edited. */
+    public int getRevision() {
+        return revision;
+    }
+
     public boolean addLyricData(LyricConfigData data) {
+        revision++;
         LyricConfig newConfig = new LyricConfig(
                 data.getFileName(),
                 data.getPathToFile(),
@@ -271,10 +278,12 @@ public class Voicebank {
     }
 
     public void removeLyricConfig(String lyric) {
+        revision++;
         lyricConfigs.removeConfig(lyric);
     }
 
     public void modifyLyricData(LyricConfigData data) {
+        revision++;
         LyricConfig newConfig = new LyricConfig(
                 data.getFileName(),
                 data.getPathToFile(),
@@ -301,6 +310,7 @@ public class Voicebank {
     }
 
     public void setPitchData(PitchMapData data) {
+        revision++;
         // Replace value that has changed, leave others the same.
         pitchMap.put(data.getPitch(), data.getSuffix());
     }
@@ -23,13 +23,15 @@ public class VoicebankContainer {
     }
 
     public Voicebank get() {
-        // Reloads voicebank from file if necessary.
-        if (voicebankManager.hasVoicebank(location)) {
-            return voicebankManager.getVoicebank(location);
-        } else {
-            Voicebank voicebank = voicebankReader.loadVoicebankFromDirectory(location);
-            voicebankManager.setVoicebank(location, voicebank);
-            return voicebank;
+        // Reloads voicebank from file if necessary, only once if several songs ask at once.
+        synchronized (voicebankManager) {
+            if (voicebankManager.hasVoicebank(location)) {
+                return voicebankManager.getVoicebank(location);
+            } else {
+                Voicebank voicebank = voicebankReader.loadVoicebankFromDirectory(location);
+                voicebankManager.setVoicebank(location, voicebank);
+                return voicebank;
+            }
         }
     }
 
@@ -14,7 +14,7 @@ import com.utsusynth.utsu.files.VoicebankReader;
 
 /**
  * Manages all voicebanks in use by Utsu. This class is a singleton to ensure the same voicebank
- * does not open on two editors.
+ * does not open on two editors. It is thread-safe, since songs can render side by side.
  */
 public class VoicebankManager {
     private static final ErrorLogger errorLogger = ErrorLogger.getLogger();
@@ -35,22 +35,22 @@ public class VoicebankManager {
         });
     }
 
-    public boolean hasVoicebank(File location) {
+    public synchronized boolean hasVoicebank(File location) {
         File normalized = normalize(location);
         return voicebanks.containsKey(normalized);
     }
 
-    public Voicebank getVoicebank(File location) {
+    public synchronized Voicebank getVoicebank(File location) {
         File normalized = normalize(location);
         return voicebanks.get(normalized);
     }
 
-    public void setVoicebank(File location, Voicebank voicebank) {
+    public synchronized void setVoicebank(File location, Voicebank voicebank) {
         File normalized = normalize(location);
         voicebanks.put(normalized, voicebank);
     }
 
-    public void removeVoicebank(File location) {
+    public synchronized void removeVoicebank(File location) {
         File normalized = normalize(location);
         voicebanks.remove(normalized);
     }
@@ -2,6 +2,7 @@ package com.utsusynth.utsu.view.song;
 
 import java.util.Collection;
 import java.util.TreeSet;
+import java.util.function.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.inject.Inject;
 import com.utsusynth.utsu.common.RegionBounds;
@@ -10,9 +11,7 @@ import com.utsusynth.utsu.common.quantize.Scaler;
 import com.utsusynth.utsu.common.utils.PitchUtils;
 import com.utsusynth.utsu.common.utils.RoundUtils;
 import com.utsusynth.utsu.view.song.note.Note;
-import javafx.animation.Animation.Status;
-import javafx.animation.Interpolator;
-import javafx.animation.TranslateTransition;
+import javafx.animation.AnimationTimer;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.SimpleBooleanProperty;
@@ -29,8 +28,9 @@ public class PlaybackBarManager {
     private final Scaler scaler;
     private final TreeSet<Note> highlighted;
     private final BooleanProperty isAnythingHighlighted;
-    private final TranslateTransition playback;
 
+    private AnimationTimer playback;
+    private Line playBar;
     private Line startBar;
     private Line endBar;
     private Group bars;
@@ -40,7 +40,6 @@ public class PlaybackBarManager {
         this.scaler = scaler;
         highlighted = new TreeSet<>();
         isAnythingHighlighted = new SimpleBooleanProperty(false);
-        playback = new TranslateTransition();
         clear();
     }
 
@@ -49,30 +48,39 @@ public class PlaybackBarManager {
     }
 
     /**
-     * Sends the playback bar across the part of the song that plays.
+     * Sends the playback bar across the part of the song that plays, following the playhead.
      * 
+     * @param playhead How much of the rendered audio has actually been played.
      * @return A double binding of the playback bar's current x-value.
      */
-    DoubleProperty startPlayback(Duration duration, RegionBounds playRegion) {
+    DoubleProperty startPlayback(
+            Duration duration,
+            RegionBounds playRegion,
+            Supplier<Duration> playhead) {
         if (duration != Duration.UNKNOWN && duration != Duration.INDEFINITE) {
+            stopPlayback();
+
             // Create a playback bar.
             double barX = scaler.scalePos(playRegion.getMinMs());
             Line playBar = new Line(barX, 0, barX, scaler.scaleY(totalHeight));
             playBar.getStyleClass().addAll("playback-bar");
             bars.getChildren().add(playBar);
 
-            // Move the playback bar as the song plays.
-            playback.stop();
-            playback.setNode(playBar);
-            playback.setDuration(duration);
-            playback.setToX(scaler.scaleX(playRegion.getMaxMs() - playRegion.getMinMs()));
-            playback.setInterpolator(Interpolator.LINEAR);
-            playback.statusProperty().addListener((obs, oldStatus, newStatus) -> {
-                if (newStatus == Status.STOPPED) {
-                    bars.getChildren().remove(playBar);
+            // Move the playback bar as the song plays. Audio may stall while rendering, so
+            // the bar is positioned from the playhead rather than animated over the duration.
+            double maxX = scaler.scaleX(playRegion.getMaxMs() - playRegion.getMinMs());
+            playback = new AnimationTimer() {
+                @Override
+                public void handle(long now) {
+                    double ratio = playhead.get().toMillis() / duration.toMillis();
+                    playBar.setTranslateX(maxX * Math.max(0, Math.min(1, ratio)));
+                    if (ratio >= 1) {
+                        stopPlayback();
+                    }
                 }
-            });
-            playback.play();
+            };
+            this.playBar = playBar;
+            playback.start();
             return playBar.translateXProperty();
         }
         // Return null if no playback bar created.
@@ -80,18 +88,27 @@ public class PlaybackBarManager {
     }
 
     void pausePlayback() {
-        playback.pause(); // Does nothing if animation not playing.
+        if (playback != null) {
+            playback.stop(); // Does nothing if animation not playing.
+        }
     }
 
     void resumePlayback() {
-        if (playback.getStatus() == Status.PAUSED) {
-            playback.play(); // Does nothing if animation not paused.
+        if (playback != null) {
+            playback.start();
         }
     }
 
     // Removes the playback bar.
     void stopPlayback() {
-        playback.stop();
+        if (playback != null) {
+            playback.stop();
+            playback = null;
+        }
+        if (playBar != null) {
+            bars.getChildren().remove(playBar);
+            playBar = null;
+        }
     }
 
     /** Adds a specific note to highlighted set and adjust playback bars. */
@@ -162,7 +179,7 @@ public class PlaybackBarManager {
     }
 
     void clear() {
-        playback.stop(); // Stop any ongoing playback.
+        stopPlayback(); // Stop any ongoing playback.
         bars = new Group();
         clearHighlights();
 
@@ -4,6 +4,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
@@ -173,7 +174,10 @@ public class SongEditor {
     }
 
     /** Start the playback bar animation. It will end on its own. */
-    public DoubleProperty startPlayback(RegionBounds rendered, Duration duration) {
+    public DoubleProperty startPlayback(
+            RegionBounds rendered,
+            Duration duration,
+            Supplier<Duration> playhead) {
         int firstPosition = noteMap.getFirstPosition(rendered);
         int lastPosition = noteMap.getLastPosition(rendered);
         if (noteMap.hasNote(firstPosition) && noteMap.hasNote(lastPosition)) {
@@ -181,7 +185,7 @@ public class SongEditor {
             int renderStart = Math.min(firstNoteStart, rendered.getMinMs());
             int renderEnd = lastPosition + noteMap.getNote(lastPosition).getDurationMs();
             return playbackManager
-                    .startPlayback(duration, new RegionBounds(renderStart, renderEnd));
+                    .startPlayback(duration, new RegionBounds(renderStart, renderEnd), playhead);
         }
         return null;
     }
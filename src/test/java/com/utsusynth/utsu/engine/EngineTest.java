@@ -1,5 +1,6 @@
 package com.utsusynth.utsu.engine;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -8,8 +9,14 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.utsusynth.utsu.common.RegionBounds;
+import com.utsusynth.utsu.common.data.NoteConfigData;
 import com.utsusynth.utsu.common.data.NoteData;
+import com.utsusynth.utsu.files.FileHelper;
+import com.utsusynth.utsu.files.SoundFileReader;
 import com.utsusynth.utsu.files.TestConstants;
 import com.utsusynth.utsu.files.VoicebankFileManager;
 import com.utsusynth.utsu.files.VoicebankReader;
@@ -35,6 +42,16 @@ public class EngineTest {
         testEngineCreation(new File(TestHelper.DEFAULT_VOICE_PATH));
     }
 
+    @Test
+    public void testExternalWavtool() {
+        testEngineCreation(new File(TestHelper.DEFAULT_VOICE_PATH), true, false);
+    }
+
+    @Test
+    public void testBuiltInResampler() {
+        testEngineCreation(new File(TestHelper.DEFAULT_VOICE_PATH), false, true);
+    }
+
     @Test
     public void testExtraEngineCreation() {
         File voiceDir = new File(TestConstants.TEST_ASSETS_PATH + "voice");
@@ -44,7 +61,63 @@ public class EngineTest {
         voicebankDirs.forEach(d -> testEngineCreation(d));
     }
 
+    @Test
+    public void testLyricEditsKeepPitchStrings() {
+        ExternalProcessRunner runner = new ExternalProcessRunner();
+        File voicePath = new File(TestHelper.DEFAULT_VOICE_PATH);
+        Song song = createSong(runner, voicePath);
+        song.addNotes(ImmutableList.of(
+                createNote(0, "A4", "a"),
+                createNote(600, "G4", "ka"),
+                createNote(1200, "F#4", "sa")));
+        song.standardizeNotes(0, 1200);
+        Engine engine = createEngine(runner);
+        engine.setUseBuiltInResampler(true);
+        assertTrue("Rendering failed", engine.renderWav(song, createOutputFile(3)));
+
+        // Edits a lyric the way the song editor does, by replacing the note.
+        song.removeNotes(ImmutableSet.of(600));
+        song.addNotes(ImmutableList.of(createNote(600, "G4", "na")));
+        song.standardizeNotes(600, 600);
+        song.setRendered(RegionBounds.INVALID);
+        assertTrue("Rendering failed", engine.renderWav(song, createOutputFile(4)));
+
+        // Neither the replaced note nor the frozen copies of its neighbors change pitch.
+        RenderMetrics metrics = engine.getLastRenderMetrics().get();
+        assertEquals(3, metrics.getPitchStrings());
+        assertEquals(3, metrics.getPitchStringsReused());
+    }
+
+    // Sets preutterance and overlap, so that changing the lyric leaves the pitch curve alone as
+    // long as the new sample's overlap is no shorter.
+    private static NoteData createNote(int position, String pitch, String lyric) {
+        NoteConfigData config = new NoteConfigData(
+                Optional.of(50.0),
+                Optional.of(10.0),
+                100,
+                0,
+                100,
+                0,
+                "");
+        return new NoteData(
+                position,
+                600,
+                pitch,
+                lyric,
+                Optional.absent(),
+                Optional.absent(),
+                Optional.absent(),
+                Optional.of(config));
+    }
+
     private void testEngineCreation(File voicePath) {
+        testEngineCreation(voicePath, false, false);
+    }
+
+    private void testEngineCreation(
+            File voicePath,
+            boolean useExternalWavtool,
+            boolean useBuiltInResampler) {
 
         ExternalProcessRunner runner = new ExternalProcessRunner();
         Song song = createSong(runner, voicePath);
@@ -67,6 +140,8 @@ public class EngineTest {
         
         // Initial render
         Engine engine = createEngine(runner);
+        engine.setUseExternalWavtool(useExternalWavtool);
+        engine.setUseBuiltInResampler(useBuiltInResampler);
         File output = createOutputFile(1);
 
         var renderSuccess = engine.renderWav(song, output);
@@ -111,7 +186,10 @@ public class EngineTest {
             wavtoolPath = "assets/linux64/wavtool-yawu";
         }
 
-        Resampler resampler = new Resampler(runner);
+        // Never started, so it only records which cache files are used.
+        ResamplerCache cache =
+                new ResamplerCache(new File(FileHelper.getUtsuCacheDirectory()), Long.MAX_VALUE);
+        Resampler resampler = new Resampler(runner, cache);
         Wavtool wavtool = new Wavtool(runner);
         File resamplerFile = new File(resamplerPath);
         File wavtoolFile = new File(wavtoolPath);
@@ -119,6 +197,9 @@ public class EngineTest {
         return new Engine(
                 resampler,
                 wavtool,
+                new WavMixer(new SoundFileReader()),
+                new JavaResampler(new SoundFileReader()),
+                new ResamplerScheduler(runner, Runtime.getRuntime().availableProcessors()),
                 /* statusBar= */ null,
                 resamplerFile,
                 wavtoolFile,
@@ -0,0 +1,79 @@
+package com.utsusynth.utsu.engine;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.utsusynth.utsu.common.data.WavData;
+import com.utsusynth.utsu.files.SoundFileReader;
+
+import org.junit.Test;
+
+public class JavaResamplerTest {
+
+    @Test
+    public void testDecodePitchbends() {
+        // 0 cents, then -16 cents repeated three more times, then +100 cents.
+        assertThat(JavaResampler.decodePitchbends("AA/w#3#Bk"))
+                .asList()
+                .containsExactly(0, -16, -16, -16, -16, 100)
+                .inOrder();
+    }
+
+    @Test
+    public void testShiftsPitchAndStretchesToLength() throws IOException {
+        File input = createPulseWav(200, 1000); // 220.5 Hz.
+        File output = File.createTempFile("resampler-output-", ".wav");
+        output.deleteOnExit();
+
+        // Up an octave, 1.5 seconds long, with no consonant and no pitchbends.
+        String[] args = {JavaResampler.PATH.getAbsolutePath(), input.getAbsolutePath(),
+                output.getAbsolutePath(), "A4", "100", "?", "0", "1500", "0", "0", "100", "0",
+                "T125.0", "AA"};
+        SoundFileReader reader = new SoundFileReader();
+        new JavaResampler(reader).resample(args, process -> {
+        });
+
+        WavData rendered = reader.loadWavData(output).get();
+        assertThat(rendered.getLengthMs()).isWithin(1.0).of(1500);
+        int pulses = countPulses(rendered.getSamples(), 0, 44100);
+        assertThat(pulses).isAtLeast(430);
+        assertThat(pulses).isAtMost(450);
+    }
+
+    @Test
+    public void testMissingSampleWritesNothing() throws IOException {
+        File output = File.createTempFile("resampler-output-", ".wav");
+        output.delete();
+        File input = new File(output.getParentFile(), "missing-" + output.getName());
+
+        String[] args = {JavaResampler.PATH.getAbsolutePath(), input.getAbsolutePath(),
+                output.getAbsolutePath(), "A4", "100", "?", "0", "1500", "0", "0", "100", "0",
+                "T125.0", "AA"};
+        new JavaResampler(new SoundFileReader()).resample(args, process -> {
+        });
+        assertThat(output.exists()).isFalse();
+    }
+
+    // Counts pulses in [from, to), which is the frequency over one second.
+    private static int countPulses(int[] samples, int from, int to) {
+        int pulses = 0;
+        for (int i = from + 1; i < to; i++) {
+            if (samples[i - 1] < 2000 && samples[i] >= 2000) {
+                pulses++;
+            }
+        }
+        return pulses;
+    }
+
+    // A train of short pulses, which unlike a sine wave has harmonics at every multiple of its
+    // pitch, so it still has something to sound at the target pitch after overlap-add.
+    private static File createPulseWav(int period, double lengthMs) throws IOException {
+        return TestHelper.writeWav(i -> {
+            int phase = i % period;
+            double pulse = phase < 20 ? 0.5 - 0.5 * Math.cos(2 * Math.PI * phase / 20) : 0;
+            return (int) (8000 * pulse);
+        }, lengthMs);
+    }
+}
@@ -0,0 +1,121 @@
+package com.utsusynth.utsu.engine;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PackStoreTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testStoresAndRemovesNotes() throws IOException {
+        File dir = tempFolder.getRoot();
+        File first = createNote(dir, 1, 1000);
+        File second = createNote(dir, 2, 500);
+
+        PackStore pack = PackStore.open(new File(dir, "pack"));
+        assertThat(pack.put(first.getName(), first)).isTrue();
+        assertThat(pack.put(second.getName(), second)).isTrue();
+        assertThat(pack.put("notes.txt", first)).isFalse(); // Not a cache file name.
+        assertThat(pack.contains(first.getName())).isTrue();
+        assertThat(pack.getLength(second.getName())).isEqualTo(500);
+        assertBytes(pack.get(second.getName()).get(), 2, 500);
+
+        assertThat(pack.remove(first.getName())).isTrue();
+        assertThat(pack.contains(first.getName())).isFalse();
+        assertThat(pack.get(first.getName()).isPresent()).isFalse();
+        pack.close();
+
+        // The index is kept on disk, so a reopened pack still has the second note.
+        PackStore reopened = PackStore.open(new File(dir, "pack"));
+        assertThat(reopened.contains(first.getName())).isFalse();
+        assertBytes(reopened.get(second.getName()).get(), 2, 500);
+        reopened.close();
+    }
+
+    @Test
+    public void testGrowsIndexAndCompactsSegments() throws IOException {
+        File dir = tempFolder.getRoot();
+        File packDir = new File(dir, "pack");
+        // Small segments and a small index, so that both fill up quickly.
+        PackStore pack = PackStore.open(packDir, 1000, 4);
+        Map<String, Integer> notes = new HashMap<>();
+        for (int i = 1; i <= 20; i++) {
+            File note = createNote(dir, i, 100);
+            pack.put(note.getName(), note);
+            notes.put(note.getName(), i);
+        }
+        assertThat(packDir.list((unused, name) -> name.endsWith(".pack"))).hasLength(2);
+
+        // Empty out most of the first segment, then compact it away.
+        for (int i = 1; i <= 8; i++) {
+            String name = noteName(i);
+            pack.remove(name);
+            notes.remove(name);
+        }
+        pack.compact();
+        assertThat(new File(packDir, "segment-1.pack").exists()).isFalse();
+        Map<String, Long> remaining = new HashMap<>();
+        pack.forEach(remaining::put);
+        assertThat(remaining.keySet()).isEqualTo(notes.keySet());
+        for (Map.Entry<String, Integer> note : notes.entrySet()) {
+            assertBytes(pack.get(note.getKey()).get(), note.getValue(), 100);
+        }
+        pack.close();
+    }
+
+    @Test
+    public void testReplacesCutOffIndex() throws IOException {
+        File dir = tempFolder.getRoot();
+        File packDir = new File(dir, "pack");
+        File note = createNote(dir, 1, 100);
+        PackStore pack = PackStore.open(packDir);
+        pack.put(note.getName(), note);
+        pack.close();
+
+        // Cut the index off partway through its header, then partway through its slots.
+        File indexFile = new File(packDir, "index.bin");
+        for (long length : new long[] {10, indexFile.length() - 8}) {
+            try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+                file.setLength(length);
+            }
+            PackStore reopened = PackStore.open(packDir);
+            assertThat(reopened.contains(note.getName())).isFalse();
+            assertThat(reopened.put(note.getName(), note)).isTrue();
+            assertBytes(reopened.get(note.getName()).get(), 1, 100);
+            reopened.close();
+        }
+    }
+
+    private static String noteName(int id) {
+        return String.format("note-%032x.wav", id);
+    }
+
+    private static File createNote(File dir, int id, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (id + i);
+        }
+        File note = new File(dir, noteName(id));
+        Files.write(note.toPath(), bytes);
+        return note;
+    }
+
+    private static void assertBytes(ByteBuffer bytes, int id, int length) {
+        assertThat(bytes.remaining()).isEqualTo(length);
+        for (int i = 0; i < length; i++) {
+            assertThat(bytes.get(i)).isEqualTo((byte) (id + i));
+        }
+    }
+}
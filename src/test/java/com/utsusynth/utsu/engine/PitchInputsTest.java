@@ -0,0 +1,73 @@
+package com.utsusynth.utsu.engine;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Optional;
+import com.utsusynth.utsu.model.song.Note;
+
+import org.junit.Test;
+
+public class PitchInputsTest {
+
+    @Test
+    public void testLyricsDoNotChangeInputs() {
+        Note prev = createNote(60);
+        Note note = createNote(64);
+        Note next = createNote(62);
+        PitchInputs inputs = getInputs(prev, note, next);
+
+        note.setLyric("ka");
+        prev.setLyric("sa");
+        next.setLyric("ta");
+        assertThat(getInputs(prev, note, next)).isEqualTo(inputs);
+    }
+
+    @Test
+    public void testNeighborsChangeInputs() {
+        Note prev = createNote(60);
+        Note note = createNote(64);
+        Note next = createNote(62);
+        PitchInputs inputs = getInputs(prev, note, next);
+
+        // The note's portamento starts from the previous note.
+        prev.setNoteNum(59);
+        assertThat(getInputs(prev, note, next)).isNotEqualTo(inputs);
+        prev.setNoteNum(60);
+        assertThat(getInputs(prev, note, next)).isEqualTo(inputs);
+
+        // The next note's portamento can start before the note ends.
+        next.setPBS(new String[] {"-200", "0"});
+        assertThat(getInputs(prev, note, next)).isNotEqualTo(inputs);
+    }
+
+    @Test
+    public void testOwnPitchbendsChangeInputs() {
+        Note note = createNote(64);
+        PitchInputs inputs = getInputs(null, note, null);
+
+        note.setVibrato(new String[] {"65", "180", "35", "20", "20", "0", "0", "0", "0", "0"});
+        assertThat(getInputs(null, note, null)).isNotEqualTo(inputs);
+    }
+
+    private static PitchInputs getInputs(Note prev, Note note, Note next) {
+        return PitchInputs.of(
+                100,
+                220,
+                120.0,
+                note,
+                600,
+                Optional.absent(),
+                Optional.fromNullable(prev),
+                Optional.fromNullable(next));
+    }
+
+    private static Note createNote(int noteNum) {
+        Note note = new Note();
+        note.setDelta(480);
+        note.setDuration(480);
+        note.setLength(480);
+        note.setNoteNum(noteNum);
+        note.setLyric("a");
+        return note;
+    }
+}
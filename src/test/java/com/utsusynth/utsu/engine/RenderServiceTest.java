@@ -0,0 +1,47 @@
+package com.utsusynth.utsu.engine;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+
+import com.utsusynth.utsu.engine.RenderJob.Priority;
+
+import org.junit.Test;
+
+public class RenderServiceTest {
+
+    @Test
+    public void testNewJobSupersedesOldOne() {
+        RenderService service = new RenderService();
+        Object owner = new Object();
+        Object otherOwner = new Object();
+
+        RenderJob playback = service.submit(owner, Priority.PLAYBACK, this::renderUntilCancelled);
+        RenderJob background =
+                service.submit(owner, Priority.BACKGROUND, this::renderUntilCancelled);
+        RenderJob export = service.submit(owner, Priority.EXPORT, job -> {
+        });
+        RenderJob otherPlayback = service.submit(otherOwner, Priority.PLAYBACK, job -> {
+        });
+        assertThat(playback.isCancelled()).isFalse();
+
+        // Only jobs from the same owner at the same priority, or background jobs, are replaced.
+        RenderJob newPlayback = service.submit(owner, Priority.PLAYBACK, job -> {
+        });
+        assertThat(playback.isCancelled()).isTrue();
+        assertThat(background.isCancelled()).isTrue();
+        assertThat(export.isCancelled()).isFalse();
+        assertThat(otherPlayback.isCancelled()).isFalse();
+        assertThat(newPlayback.isCancelled()).isFalse();
+    }
+
+    private void renderUntilCancelled(RenderJob job) {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        job.onCancel(cancelled::countDown);
+        try {
+            cancelled.await();
+        } catch (InterruptedException e) {
+            return;
+        }
+    }
+}
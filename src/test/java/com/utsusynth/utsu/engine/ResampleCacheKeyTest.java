@@ -0,0 +1,40 @@
+package com.utsusynth.utsu.engine;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import com.utsusynth.utsu.engine.ResampleCacheKey.FileFingerprint;
+
+import org.junit.Test;
+
+public class ResampleCacheKeyTest {
+
+    @Test
+    public void testKeyDependsOnSourceContents() throws IOException {
+        File source = File.createTempFile("source-", ".wav");
+        source.deleteOnExit();
+        Files.write(source.toPath(), new byte[100]);
+        String[] args = {"resampler", source.getPath(), "out-1.wav", "C4", "100", "?", "0",
+                "500.0", "60.0", "0", "100", "0", "T120.0", "AA#5#"};
+        String[] otherOutput = args.clone();
+        otherOutput[2] = "out-2.wav";
+        String[] otherPitch = args.clone();
+        otherPitch[13] = "AB#5#";
+
+        String fileName = getFileName(args);
+        assertThat(fileName).matches("note-[0-9a-f]{32}\\.wav");
+        assertThat(getFileName(otherOutput)).isEqualTo(fileName);
+        assertThat(getFileName(otherPitch)).isNotEqualTo(fileName);
+
+        // Re-recording the sample at the same path gives it a new key.
+        Files.write(source.toPath(), new byte[200]);
+        assertThat(getFileName(args)).isNotEqualTo(fileName);
+    }
+
+    private static String getFileName(String[] args) {
+        return ResampleCacheKey.fromArgs(args, FileFingerprint::of).getFileName();
+    }
+}
@@ -0,0 +1,53 @@
+package com.utsusynth.utsu.engine;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResamplerCacheTest {
+    private static final long HOUR_MS = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testEvictsLeastRecentlyUsedFiles() throws IOException {
+        File cacheDir = tempFolder.getRoot();
+        long now = System.currentTimeMillis();
+        File oldest = createNote(cacheDir, "note-oldest.wav", now - 3 * HOUR_MS);
+        File older = createNote(cacheDir, "note-older.wav", now - 2 * HOUR_MS);
+        File old = createNote(cacheDir, "note-old.wav", now - HOUR_MS);
+        File notANote = createNote(cacheDir, "notes.txt", now - 3 * HOUR_MS);
+
+        // Room for two notes. Reconciling finds the files and evicts down to budget.
+        ResamplerCache cache = new ResamplerCache(cacheDir, 2500);
+        cache.recordUse(oldest); // Recently used, so kept even though it is the oldest file.
+        cache.reconcile();
+        assertThat(oldest.exists()).isTrue();
+        assertThat(older.exists()).isFalse();
+        assertThat(old.exists()).isTrue();
+        assertThat(notANote.exists()).isTrue();
+        assertThat(cache.getNumEntries()).isEqualTo(2);
+        assertThat(cache.getTotalBytes()).isEqualTo(2000);
+
+        // A new cache picks up where the last one left off, by way of the index file.
+        ResamplerCache reopened = new ResamplerCache(cacheDir, 2500);
+        reopened.reconcile();
+        assertThat(reopened.getNumEntries()).isEqualTo(2);
+        assertThat(new File(cacheDir, "cache-index.tsv").exists()).isTrue();
+    }
+
+    private static File createNote(File cacheDir, String name, long lastModified)
+            throws IOException {
+        File note = new File(cacheDir, name);
+        Files.write(note.toPath(), new byte[1000]);
+        note.setLastModified(lastModified);
+        return note;
+    }
+}
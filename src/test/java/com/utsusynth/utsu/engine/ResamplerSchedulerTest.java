@@ -0,0 +1,213 @@
+package com.utsusynth.utsu.engine;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+import com.google.common.collect.ImmutableList;
+import com.utsusynth.utsu.engine.RenderJob.Priority;
+import com.utsusynth.utsu.engine.ResamplerScheduler.Batch;
+import com.utsusynth.utsu.engine.ResamplerScheduler.Order;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResamplerSchedulerTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testLongestJobsRunFirst() throws InterruptedException {
+        CountDownLatch allQueued = new CountDownLatch(1);
+        List<String> lengthsRun = new CopyOnWriteArrayList<>();
+        ExternalProcessRunner runner = new ExternalProcessRunner() {
+            @Override
+            public String getProcessOutput(String[] args, Consumer<Process> onStart) {
+                try {
+                    allQueued.await(); // Hold the only thread until every job is queued.
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                lengthsRun.add(args[7]);
+                return "";
+            }
+        };
+        ResamplerScheduler scheduler = new ResamplerScheduler(runner, 1);
+
+        List<String> finished = new CopyOnWriteArrayList<>();
+        Batch batch = scheduler.submit(
+                ImmutableList.of(
+                        createArgs("a.wav", "100"),
+                        new String[0], // Already cached.
+                        createArgs("b.wav", "50"),
+                        createArgs("c.wav", "900"),
+                        createArgs("a.wav", "100"), // Duplicate.
+                        createArgs("d.wav", "300")),
+                Order.LONGEST_FIRST,
+                Priority.EXPORT,
+                file -> finished.add(file.getName()));
+        allQueued.countDown();
+
+        assertThat(batch.getNumJobs()).isEqualTo(4);
+        assertThat(batch.awaitAll()).isTrue();
+        // The first job starts as soon as it is submitted, the rest wait in the queue.
+        assertThat(lengthsRun).containsExactly("100", "900", "300", "50").inOrder();
+        assertThat(finished).containsExactly("a.wav", "c.wav", "d.wav", "b.wav").inOrder();
+        assertThat(batch.getNumFinished()).isEqualTo(4);
+    }
+
+    @Test(timeout = 10000)
+    public void testBatchesShareJobsForTheSameFile() throws Exception {
+        BlockingRunner runner = new BlockingRunner();
+        ResamplerScheduler scheduler = new ResamplerScheduler(runner, 2);
+        File outputFile = new File(tempFolder.getRoot(), "a.wav");
+
+        Batch first = submit(scheduler, outputFile, Priority.BACKGROUND);
+        runner.started.await();
+        Batch second = submit(scheduler, outputFile, Priority.PLAYBACK);
+        awaitWaiting(scheduler, outputFile);
+        runner.finish.countDown();
+
+        assertThat(second.awaitAll()).isTrue();
+        assertThat(first.awaitAll()).isTrue();
+        assertThat(second.getNumFinished()).isEqualTo(1);
+        // Written once, to a file of its own rather than the cache file.
+        assertThat(runner.filesWritten).hasSize(1);
+        assertThat(runner.filesWritten.get(0)).isNotEqualTo(outputFile.getAbsolutePath());
+        assertThat(scheduler.getNumWaiting(outputFile)).isEqualTo(0);
+    }
+
+    @Test(timeout = 10000)
+    public void testCancellingKeepsJobsOtherBatchesWaitOn() throws Exception {
+        BlockingRunner runner = new BlockingRunner();
+        ResamplerScheduler scheduler = new ResamplerScheduler(runner, 2);
+        File outputFile = new File(tempFolder.getRoot(), "a.wav");
+
+        Batch background = submit(scheduler, outputFile, Priority.BACKGROUND);
+        runner.started.await();
+        Batch playback = submit(scheduler, outputFile, Priority.PLAYBACK);
+        awaitWaiting(scheduler, outputFile);
+        background.cancel();
+        assertThat(runner.process.isDestroyed()).isFalse();
+        runner.finish.countDown();
+
+        assertThat(playback.awaitAll()).isTrue();
+        assertThat(outputFile.exists()).isTrue();
+        assertThat(tempFolder.getRoot().list()).asList().containsExactly("a.wav");
+    }
+
+    @Test(timeout = 10000)
+    public void testJobIsKilledOnceEveryWaitingBatchIsCancelled() throws Exception {
+        BlockingRunner runner = new BlockingRunner();
+        ResamplerScheduler scheduler = new ResamplerScheduler(runner, 2);
+        File outputFile = new File(tempFolder.getRoot(), "a.wav");
+
+        Batch background = submit(scheduler, outputFile, Priority.BACKGROUND);
+        runner.started.await();
+        Batch playback = submit(scheduler, outputFile, Priority.PLAYBACK);
+        awaitWaiting(scheduler, outputFile);
+        background.cancel();
+        assertThat(runner.process.isDestroyed()).isFalse(); // Playback still wants it.
+
+        playback.cancel();
+        assertThat(scheduler.getNumWaiting(outputFile)).isEqualTo(0);
+        assertThat(runner.process.isDestroyed()).isTrue();
+        assertThat(outputFile.exists()).isFalse();
+    }
+
+    private static Batch submit(ResamplerScheduler scheduler, File outputFile, Priority priority) {
+        return scheduler.submit(
+                ImmutableList.of(createArgs(outputFile.getPath(), "100")),
+                Order.TIMELINE,
+                priority);
+    }
+
+    // Another batch's job starts waiting soon after it is submitted, on a thread of its own.
+    private static void awaitWaiting(ResamplerScheduler scheduler, File outputFile) {
+        while (scheduler.getNumWaiting(outputFile) == 0) {
+            Thread.yield();
+        }
+    }
+
+    private static String[] createArgs(String outputFile, String length) {
+        return new String[] {"resampler", "input.wav", new File(outputFile).getAbsolutePath(),
+                "C4", "100", "?", "0", length};
+    }
+
+    /** Writes one file at a time, holding each until told to finish or killed. */
+    private static class BlockingRunner extends ExternalProcessRunner {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch finish = new CountDownLatch(1);
+        private final FakeProcess process = new FakeProcess(finish);
+        private final List<String> filesWritten = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String getProcessOutput(String[] args, Consumer<Process> onStart) {
+            onStart.accept(process);
+            started.countDown();
+            try {
+                finish.await();
+                if (!process.isDestroyed()) {
+                    new File(args[2]).createNewFile();
+                    filesWritten.add(args[2]);
+                }
+            } catch (InterruptedException | IOException e) {
+                throw new RuntimeException(e);
+            }
+            return "";
+        }
+    }
+
+    private static class FakeProcess extends Process {
+        private final CountDownLatch finish;
+        private volatile boolean destroyed = false;
+
+        private FakeProcess(CountDownLatch finish) {
+            this.finish = finish;
+        }
+
+        private boolean isDestroyed() {
+            return destroyed;
+        }
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+            finish.countDown();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            finish.await();
+            return 0;
+        }
+
+        @Override
+        public int exitValue() {
+            return 0;
+        }
+    }
+}
@@ -1,8 +1,17 @@
 package com.utsusynth.utsu.engine;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.function.IntUnaryOperator;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
 
 import com.google.inject.Provider;
 import com.utsusynth.utsu.files.VoicebankReader;
@@ -70,5 +79,22 @@ public class TestHelper {
         VoicebankManager voicebankManager = new VoicebankManager(voicebankReader);
 
         return new VoicebankContainer(voicebankManager, voicebankReader);
-    }    
-}
\ No newline at end of file
+    }
+
+    /** Writes a mono 16-bit WAV file at the engine's sample rate, deleted when the JVM exits. */
+    public static File writeWav(IntUnaryOperator sampleAt, double lengthMs) throws IOException {
+        int numSamples = (int) WavMixer.msToSamples(lengthMs);
+        ByteBuffer bytes = ByteBuffer.allocate(numSamples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < numSamples; i++) {
+            bytes.putShort((short) sampleAt.applyAsInt(i));
+        }
+        AudioFormat format = new AudioFormat(WavMixer.SAMPLE_RATE, 16, 1, true, false);
+        File wav = File.createTempFile("test-input-", ".wav");
+        wav.deleteOnExit();
+        AudioSystem.write(
+                new AudioInputStream(new ByteArrayInputStream(bytes.array()), format, numSamples),
+                AudioFileFormat.Type.WAVE,
+                wav);
+        return wav;
+    }
+}
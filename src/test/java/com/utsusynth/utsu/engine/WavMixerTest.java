@@ -0,0 +1,255 @@
+package com.utsusynth.utsu.engine;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.utsusynth.utsu.engine.WavMixer.MixListener;
+import com.utsusynth.utsu.files.SoundFileReader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WavMixerTest {
+    private static final double[] FLAT_WIDTHS = {0, 0, 0, 0, 0};
+    private static final double[] FLAT_HEIGHTS = {100, 100, 100, 100, 100};
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testOverlapShortensTimeline() throws IOException {
+        File input = TestHelper.writeWav(i -> 1000, 1000);
+        File output = File.createTempFile("mixer-test-", ".wav");
+        output.deleteOnExit();
+
+        List<MixSegment> segments = ImmutableList.of(
+                MixSegment.note(input, 0, 100, 0, FLAT_WIDTHS, FLAT_HEIGHTS),
+                MixSegment.silence(50),
+                MixSegment.note(input, 0, 100, 20, FLAT_WIDTHS, FLAT_HEIGHTS));
+        assertThat(new WavMixer(new SoundFileReader()).mix(segments, output)).isTrue();
+
+        int[] samples = readOutput(output);
+        // 100ms + 50ms + 100ms, minus 20ms of overlap.
+        assertThat(samples.length).isEqualTo(WavMixer.msToSamples(230));
+        assertThat(samples[sampleAt(50)]).isEqualTo(1000 * 65536);
+        // Second note overlaps the silence, not the first note.
+        assertThat(samples[sampleAt(120)]).isEqualTo(0);
+        assertThat(samples[sampleAt(200)]).isEqualTo(1000 * 65536);
+    }
+
+    @Test
+    public void testEnvelopeIsApplied() throws IOException {
+        File input = TestHelper.writeWav(i -> 1000, 1000);
+        File output = File.createTempFile("mixer-test-", ".wav");
+        output.deleteOnExit();
+
+        // Fade in over 100ms, hold at 50% volume, fade out over the last 100ms.
+        double[] widths = {100, 0, 0, 100, 0};
+        double[] heights = {50, 50, 50, 50, 50};
+        List<MixSegment> segments =
+                ImmutableList.of(MixSegment.note(input, 0, 400, 0, widths, heights));
+        assertThat(new WavMixer(new SoundFileReader()).mix(segments, output)).isTrue();
+
+        int[] samples = readOutput(output);
+        assertThat(samples[0]).isEqualTo(0);
+        assertThat(samples[sampleAt(50)]).isEqualTo(250 * 65536);
+        assertThat(samples[sampleAt(200)]).isEqualTo(500 * 65536);
+    }
+
+    @Test
+    public void testListenerSeesSegmentsInOrder() throws IOException {
+        File input = TestHelper.writeWav(i -> 1000, 1000);
+        File output = File.createTempFile("mixer-test-", ".wav");
+        output.deleteOnExit();
+
+        List<MixSegment> segments = ImmutableList.of(
+                MixSegment.note(input, 0, 500, 0, FLAT_WIDTHS, FLAT_HEIGHTS),
+                MixSegment.silence(500),
+                MixSegment.note(input, 0, 500, 0, FLAT_WIDTHS, FLAT_HEIGHTS));
+        List<Integer> awaited = new ArrayList<>();
+        boolean complete = new WavMixer(new SoundFileReader()).mix(segments, output,
+                new MixListener() {
+                    @Override
+                    public boolean awaitSegment(int segmentIndex) {
+                        awaited.add(segmentIndex);
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onBlockMixed(double[] block, int blockLength) {
+                        // Stop as soon as the last note has been read.
+                        return awaited.size() < 2;
+                    }
+                }, Optional.absent());
+        assertThat(complete).isFalse();
+        // Silence is never waited for.
+        assertThat(awaited).containsExactly(0, 2).inOrder();
+    }
+
+    @Test
+    public void testRemixOnlyReadsChangedSegments() throws IOException {
+        File input = TestHelper.writeWav(i -> 1000, 1000);
+        File otherInput = TestHelper.writeWav(i -> -2000, 1000);
+        double[] quiet = {50, 50, 50, 50, 50};
+        List<MixSegment> oldSegments = ImmutableList.of(
+                MixSegment.note(input, 0, 300, 0, FLAT_WIDTHS, FLAT_HEIGHTS),
+                MixSegment.silence(500),
+                MixSegment.note(input, 0, 300, 10, FLAT_WIDTHS, FLAT_HEIGHTS),
+                MixSegment.silence(500),
+                MixSegment.note(otherInput, 0, 300, 0, FLAT_WIDTHS, FLAT_HEIGHTS));
+        // Quieter middle note, and the last note moves later.
+        List<MixSegment> newSegments = ImmutableList.of(
+                MixSegment.note(input, 0, 300, 0, FLAT_WIDTHS, FLAT_HEIGHTS),
+                MixSegment.silence(500),
+                MixSegment.note(input, 0, 300, 10, FLAT_WIDTHS, quiet),
+                MixSegment.silence(750),
+                MixSegment.note(otherInput, 0, 300, 0, FLAT_WIDTHS, FLAT_HEIGHTS));
+
+        WavMixer mixer = new WavMixer(new SoundFileReader());
+        File oldOutput = File.createTempFile("mixer-test-", ".wav");
+        oldOutput.deleteOnExit();
+        assertThat(mixer.mix(oldSegments, oldOutput)).isTrue();
+
+        File remixed = File.createTempFile("mixer-test-", ".wav");
+        remixed.deleteOnExit();
+        List<Integer> awaited = new ArrayList<>();
+        boolean complete = mixer.mix(newSegments, remixed, new MixListener() {
+            @Override
+            public boolean awaitSegment(int segmentIndex) {
+                awaited.add(segmentIndex);
+                return true;
+            }
+
+            @Override
+            public boolean onBlockMixed(double[] block, int blockLength) {
+                return true;
+            }
+        }, Optional.of(new MixedSong(oldSegments, oldOutput)));
+        assertThat(complete).isTrue();
+        assertThat(awaited).containsExactly(2);
+
+        File fullMix = File.createTempFile("mixer-test-", ".wav");
+        fullMix.deleteOnExit();
+        assertThat(mixer.mix(newSegments, fullMix)).isTrue();
+        assertThat(readOutput(remixed)).isEqualTo(readOutput(fullMix));
+    }
+
+    @Test
+    public void testCachedPhrasesAreNotMixedAgain() throws IOException {
+        File input = TestHelper.writeWav(i -> 1000, 1000);
+        File otherInput = TestHelper.writeWav(i -> -2000, 1000);
+        List<MixSegment> firstPhrase = ImmutableList.of(
+                MixSegment.note(input, 0, 300, 0, FLAT_WIDTHS, FLAT_HEIGHTS),
+                MixSegment.note(otherInput, 0, 300, 50, FLAT_WIDTHS, FLAT_HEIGHTS));
+        MixSegment secondPhrase = MixSegment.note(otherInput, 0, 200, 0, FLAT_WIDTHS, FLAT_HEIGHTS);
+
+        WavMixer mixer = new WavMixer(new SoundFileReader(), new PhraseCache(1 << 24));
+        File output = File.createTempFile("mixer-test-", ".wav");
+        output.deleteOnExit();
+        List<MixSegment> segments = new ArrayList<>(firstPhrase);
+        segments.add(MixSegment.silence(100));
+        segments.add(secondPhrase);
+        assertThat(mixer.mix(segments, output)).isTrue();
+
+        // Same phrases in a new order, with no previous mix to copy from.
+        File remixed = File.createTempFile("mixer-test-", ".wav");
+        remixed.deleteOnExit();
+        List<MixSegment> newSegments = new ArrayList<>();
+        newSegments.add(MixSegment.silence(250));
+        newSegments.add(secondPhrase);
+        newSegments.add(MixSegment.silence(100));
+        newSegments.addAll(firstPhrase);
+        List<Integer> awaited = new ArrayList<>();
+        boolean complete = mixer.mix(newSegments, remixed, new MixListener() {
+            @Override
+            public boolean awaitSegment(int segmentIndex) {
+                awaited.add(segmentIndex);
+                return true;
+            }
+
+            @Override
+            public boolean onBlockMixed(double[] block, int blockLength) {
+                return true;
+            }
+        }, Optional.absent());
+        assertThat(complete).isTrue();
+        assertThat(awaited).isEmpty();
+
+        File fullMix = File.createTempFile("mixer-test-", ".wav");
+        fullMix.deleteOnExit();
+        assertThat(new WavMixer(new SoundFileReader()).mix(newSegments, fullMix)).isTrue();
+        assertThat(readOutput(remixed)).isEqualTo(readOutput(fullMix));
+    }
+
+    @Test
+    public void testNotesInMemoryAreNotReadAgain() throws IOException {
+        File input = TestHelper.writeWav(i -> 1000, 1000);
+        List<MixSegment> segments = ImmutableList.of(
+                MixSegment.note(input, 0, 300, 0, FLAT_WIDTHS, FLAT_HEIGHTS),
+                MixSegment.silence(100),
+                MixSegment.note(input, 100, 200, 0, FLAT_WIDTHS, FLAT_HEIGHTS));
+
+        PcmCache pcmCache = new PcmCache(1 << 24);
+        WavMixer mixer = new WavMixer(new SoundFileReader(), new PhraseCache(0), pcmCache);
+        File output = File.createTempFile("mixer-test-", ".wav");
+        output.deleteOnExit();
+        assertThat(mixer.mix(segments, output)).isTrue();
+        assertThat(pcmCache.getCurBytes()).isEqualTo(WavMixer.msToSamples(1000) * 2);
+
+        // With the note gone from disk, only the copy in memory can be mixed.
+        assertThat(input.delete()).isTrue();
+        File remixed = File.createTempFile("mixer-test-", ".wav");
+        remixed.deleteOnExit();
+        assertThat(mixer.mix(segments, remixed)).isTrue();
+        assertThat(readOutput(remixed)).isEqualTo(readOutput(output));
+    }
+
+    @Test
+    public void testPackedNotesAreMixed() throws IOException {
+        File cacheDir = tempFolder.newFolder("resampler-cache");
+        File note = new File(cacheDir, String.format("note-%032x.wav", 1));
+        Files.copy(TestHelper.writeWav(i -> 1000, 300).toPath(), note.toPath());
+        List<MixSegment> segments =
+                ImmutableList.of(MixSegment.note(note, 0, 300, 0, FLAT_WIDTHS, FLAT_HEIGHTS));
+        File output = File.createTempFile("mixer-test-", ".wav");
+        output.deleteOnExit();
+        assertThat(new WavMixer(new SoundFileReader()).mix(segments, output)).isTrue();
+
+        // Once packed, the note's own file is gone and it is read from the pack instead.
+        ResamplerCache cache = new ResamplerCache(cacheDir, Long.MAX_VALUE, true);
+        cache.pack(note);
+        assertThat(note.exists()).isFalse();
+        assertThat(cache.contains(note)).isTrue();
+        WavMixer mixer =
+                new WavMixer(new SoundFileReader(), new PhraseCache(0), new PcmCache(0), cache);
+        File packedOutput = File.createTempFile("mixer-test-", ".wav");
+        packedOutput.deleteOnExit();
+        assertThat(mixer.mix(segments, packedOutput)).isTrue();
+        assertThat(readOutput(packedOutput)).isEqualTo(readOutput(output));
+    }
+
+    private static int sampleAt(double positionMs) {
+        return (int) WavMixer.msToSamples(positionMs);
+    }
+
+    private static int[] readOutput(File output) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(output.toPath()));
+        bytes.order(ByteOrder.LITTLE_ENDIAN);
+        bytes.position(44); // Skip header.
+        int[] samples = new int[bytes.remaining() / 4];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = bytes.getInt();
+        }
+        return samples;
+    }
+}
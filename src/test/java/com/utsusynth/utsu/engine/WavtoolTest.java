@@ -0,0 +1,32 @@
+package com.utsusynth.utsu.engine;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.utsusynth.utsu.common.data.WavData;
+import com.utsusynth.utsu.files.SoundFileReader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WavtoolTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testSilenceFilesAreSharedBetweenGaps() throws IOException {
+        Wavtool wavtool = new Wavtool(new ExternalProcessRunner(), tempFolder.getRoot());
+        File silence = wavtool.getSilenceFile(2500);
+        assertThat(wavtool.getSilenceFile(3000)).isEqualTo(silence);
+        assertThat(wavtool.getSilenceFile(5000)).isNotEqualTo(silence);
+
+        WavData wavData = new SoundFileReader().loadWavData(silence).get();
+        assertThat(wavData.getLengthMs()).isWithin(0.1).of(4000);
+        for (int sample : wavData.getSamples()) {
+            assertThat(sample).isEqualTo(0);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.utsusynth.utsu.model.song;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.utsusynth.utsu.common.RegionBounds;
+import com.utsusynth.utsu.common.exception.NoteAlreadyExistsException;
+
+import org.junit.Test;
+
+public class NoteListTest {
+
+    @Test
+    public void testInsertOutOfOrder() throws NoteAlreadyExistsException {
+        NoteList noteList = new NoteList();
+        for (int position : new int[] {960, 0, 1920, 480, 1440}) {
+            noteList.insertNote(createNote(), position);
+        }
+        assertThat(getPositions(noteList.iterator())).containsExactly(0, 480, 960, 1440, 1920)
+                .inOrder();
+        NoteNode node = noteList.getNote(1440);
+        assertThat(node.getPrev().get()).isSameInstanceAs(noteList.getNote(960));
+        assertThat(node.getNext().get()).isSameInstanceAs(noteList.getNote(1920));
+
+        try {
+            noteList.insertNote(createNote(), 480);
+            fail("Inserted two notes at the same position.");
+        } catch (NoteAlreadyExistsException e) {
+            // Expected.
+        }
+        assertThat(noteList.getSize()).isEqualTo(5);
+    }
+
+    @Test
+    public void testBoundedIterator() throws NoteAlreadyExistsException {
+        NoteList noteList = new NoteList();
+        for (int position = 0; position < 480 * 100; position += 480) {
+            noteList.insertNote(createNote(), position);
+        }
+        noteList.removeNote(480 * 50);
+
+        // Starts partway through a note, and skips the gap left by the removed note.
+        NoteIterator notes = noteList.boundedIterator(new RegionBounds(480 * 48 + 100, 480 * 52));
+        assertThat(notes.getCurIndex()).isEqualTo(48);
+        assertThat(notes.getCurDelta()).isEqualTo(480 * 47);
+        assertThat(getPositions(notes)).containsExactly(480 * 48, 480 * 49, 480 * 51).inOrder();
+        assertThat(notes.getCurIndex()).isEqualTo(51);
+
+        // Notes are 240ms long, so a region that starts in the silence after one skips it.
+        assertThat(getPositions(noteList.boundedIterator(new RegionBounds(300, 1000))))
+                .containsExactly(480, 960).inOrder();
+
+        assertThat(noteList.boundedIterator(new RegionBounds(480 * 200, 480 * 201)).hasNext())
+                .isFalse();
+        assertThat(noteList.boundedIterator(RegionBounds.INVALID).hasNext()).isFalse();
+    }
+
+    private static List<Integer> getPositions(NoteIterator notes) {
+        List<Integer> positions = new ArrayList<>();
+        while (notes.hasNext()) {
+            notes.next();
+            positions.add(notes.getCurDelta());
+        }
+        return positions;
+    }
+
+    private static Note createNote() {
+        Note note = new Note();
+        note.setDuration(240);
+        note.setLength(240);
+        note.setLyric("a");
+        note.setNoteNum(60);
+        return note;
+    }
+}
@@ -0,0 +1,62 @@
+package com.utsusynth.utsu.model.song;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+public class NoteTest {
+
+    @Test
+    public void testPitchbendsRoundTrip() {
+        Note note = new Note();
+        assertThat(note.getPBS()).containsExactly(-40.0, 0.0).inOrder();
+        assertThat(note.getPBW()).containsExactly(80.0);
+        assertThat(note.getPBY()).isEmpty();
+
+        note.setPBS(new String[] {"-25.5", "3"});
+        note.setPBW(new String[] {"50", "120.5"});
+        note.setPBY(new String[] {"-10"});
+        note.setPBM(new String[] {"s", "r"});
+        note.setVibrato(new String[] {"65", "180", "35", "20", "20", "0", "0", "100"});
+        assertThat(note.getPBS()).containsExactly(-25.5, 3.0).inOrder();
+        assertThat(note.getPBW()).containsExactly(50.0, 120.5).inOrder();
+        assertThat(note.getPBY()).containsExactly(-10.0);
+        assertThat(note.getPBM()).containsExactly("s", "r").inOrder();
+        assertThat(note.getVibrato())
+                .asList()
+                .containsExactly("65", "180", "35", "20", "20", "0", "0", "100", "0", "0")
+                .inOrder();
+
+        Note copy = new Note();
+        copy.setPitchbends(note.getPitchbends());
+        assertThat(copy.getPitchbends().toString()).isEqualTo(note.getPitchbends().toString());
+    }
+
+    @Test
+    public void testNotesShareEqualPitchbends() {
+        assertThat(PitchbendPoints.of(
+                new double[] {-40.0, 0.0},
+                new double[] {80.0},
+                new double[0],
+                new String[0])).isSameInstanceAs(PitchbendPoints.DEFAULT);
+
+        PitchbendPoints points = PitchbendPoints.of(
+                ImmutableList.of(-20.0),
+                ImmutableList.of(60.0),
+                ImmutableList.of(),
+                ImmutableList.of(new String("s")));
+        assertThat(points.withStarts(new double[] {-20.0})).isSameInstanceAs(points);
+        assertThat(points.withStarts(new double[] {-30.0})).isNotEqualTo(points);
+        assertThat(points.getCurves().get(0)).isSameInstanceAs("s");
+    }
+
+    @Test
+    public void testEditingReturnedVibratoLeavesNoteAlone() {
+        Note note = new Note();
+        note.getPitchbends().getVibrato()[1] = 180;
+        assertThat(note.getPitchbends().getVibrato()[1]).isEqualTo(0);
+        assertThat(new Note().getPitchbends().getVibrato()[1]).isEqualTo(0);
+    }
+}
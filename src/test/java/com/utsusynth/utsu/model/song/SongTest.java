@@ -0,0 +1,126 @@
+package com.utsusynth.utsu.model.song;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.utsusynth.utsu.common.data.MutateResponse;
+import com.utsusynth.utsu.common.data.NoteData;
+import com.utsusynth.utsu.engine.ExternalProcessRunner;
+import com.utsusynth.utsu.engine.TestHelper;
+import com.utsusynth.utsu.model.song.pitch.PitchCurve;
+import com.utsusynth.utsu.model.song.pitch.portamento.PortamentoFactory;
+import com.utsusynth.utsu.model.voicebank.Voicebank;
+
+import org.junit.Test;
+
+public class SongTest {
+    private static final ImmutableList<String> LYRICS = ImmutableList.of("a", "i", "u", "e", "o");
+
+    @Test
+    public void testStandardizeOnlyChangedNotes() {
+        CountingStandardizer standardizer = new CountingStandardizer();
+        Song song = createSong(standardizer);
+        List<NoteData> notes = new ArrayList<>();
+        for (int i = 0; i < LYRICS.size(); i++) {
+            notes.add(new NoteData(i * 480, 480, "C4", LYRICS.get(i)));
+        }
+        song.addNotes(notes);
+        song.standardizeNotes(0, 1920);
+        assertThat(standardizer.numStandardized).isEqualTo(5);
+
+        // Nothing has changed.
+        standardizer.numStandardized = 0;
+        song.standardizeNotes(0, 1920);
+        assertThat(standardizer.numStandardized).isEqualTo(0);
+
+        // Changing a lyric reaches the note itself and its neighbors, but no further.
+        standardizer.numStandardized = 0;
+        song.removeNotes(ImmutableSet.of(960));
+        song.addNotes(ImmutableList.of(new NoteData(960, 480, "C4", "ka")));
+        MutateResponse response = song.standardizeNotes(960, 960);
+        assertThat(standardizer.numStandardized).isEqualTo(3);
+        assertThat(response.getNotes()).hasSize(1);
+        assertThat(response.getPrev().get().getPosition()).isEqualTo(480);
+        assertThat(response.getNext().get().getPosition()).isEqualTo(1440);
+
+        // Same result as standardizing every note from scratch.
+        Song fresh = createSong(new NoteStandardizer());
+        fresh.addNotes(song.getNotes());
+        fresh.standardizeNotes(0, 1920);
+        assertThat(describeNotes(song)).isEqualTo(describeNotes(fresh));
+        assertThat(describeNotes(song).get(2)).startsWith("ka ");
+    }
+
+    @Test
+    public void testSnapshotIgnoresLaterEdits() {
+        Song song = createSong(new NoteStandardizer());
+        List<NoteData> notes = new ArrayList<>();
+        for (int i = 0; i < LYRICS.size(); i++) {
+            notes.add(new NoteData(i * 480, 480, "C4", LYRICS.get(i)));
+        }
+        song.addNotes(notes);
+        song.standardizeNotes(0, 1920);
+        Song snapshot = song.snapshot();
+        assertThat(song.snapshot()).isSameInstanceAs(snapshot);
+        List<String> notesBefore = describeNotes(snapshot);
+        String pitchBefore = snapshot.getPitchString(0, 400, 60);
+
+        song.removeNotes(ImmutableSet.of(1920));
+        song.addNotes(ImmutableList.of(new NoteData(1920, 480, "D4", "ka")));
+        song.standardizeNotes(1920, 1920);
+        assertThat(describeNotes(snapshot)).isEqualTo(notesBefore);
+        assertThat(snapshot.getNumNotes()).isEqualTo(5);
+        assertThat(snapshot.getPitchString(0, 400, 60)).isEqualTo(pitchBefore);
+        assertThat(song.getPitchString(0, 400, 60)).isNotEqualTo(pitchBefore);
+
+        // Notes far from the edit are shared with the new snapshot.
+        Song newSnapshot = song.snapshot();
+        assertThat(newSnapshot).isNotSameInstanceAs(snapshot);
+        assertThat(newSnapshot.getNoteIterator().next())
+                .isSameInstanceAs(snapshot.getNoteIterator().next());
+        assertThat(describeNotes(newSnapshot)).isEqualTo(describeNotes(song));
+    }
+
+    private static List<String> describeNotes(Song song) {
+        List<String> descriptions = new ArrayList<>();
+        NoteIterator notes = song.getNoteIterator();
+        while (notes.hasNext()) {
+            Note note = notes.next();
+            descriptions.add(String.join(
+                    " ",
+                    note.getTrueLyric(),
+                    Double.toString(note.getRealPreutter()),
+                    Double.toString(note.getRealDuration()),
+                    Double.toString(note.getAutoStartPoint()),
+                    String.join(",", note.getFullEnvelope())));
+        }
+        return descriptions;
+    }
+
+    private static Song createSong(NoteStandardizer standardizer) {
+        ExternalProcessRunner runner = new ExternalProcessRunner();
+        return new Song(
+                TestHelper.createVoicebankContainer(
+                        runner,
+                        new File(TestHelper.DEFAULT_VOICE_PATH)),
+                standardizer,
+                new NoteList(),
+                new PitchCurve(new PortamentoFactory()));
+    }
+
+    private static class CountingStandardizer extends NoteStandardizer {
+        private int numStandardized = 0;
+
+        @Override
+        void standardize(Optional<Note> prev, Note note, Optional<Note> next, Voicebank voicebank) {
+            numStandardized++;
+            super.standardize(prev, note, next, voicebank);
+        }
+    }
+}
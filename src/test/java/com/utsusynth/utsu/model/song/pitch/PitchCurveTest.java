@@ -0,0 +1,124 @@
+package com.utsusynth.utsu.model.song.pitch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.utsusynth.utsu.common.data.PitchbendData;
+import com.utsusynth.utsu.model.song.pitch.portamento.PortamentoFactory;
+
+import org.junit.Test;
+
+public class PitchCurveTest {
+    // Rendered by the original one-pitchbend-per-step implementation.
+    private static final String FIRST_NOTE =
+            "84#1#86888+9D9L9a9w+Q+1/b/7AQAfAnAsAuAyAtApAlAhAdAZAUAQAMAIAEAA#"
+            + "69#AABvCGCUCeClCrCwC1C5C8";
+    private static final String SECOND_NOTE =
+            "84+o+//N/X/e/k/p/u/y/1/4/7/+AA#8#AAABAEAJAPAWAeAhAiAiAiAgAdAaAVA"
+            + "QAKAE///5/z/u/e+59/8x7T5g3Y071L1k2o3t4G4M#2#";
+    private static final String THIRD_NOTE =
+            "H4HyHsHmHhHRGsFyEkDGBT/M8v8/9Y+c/h/6AA#43#AA/2/u/s/zABATAkAyA8BA"
+            + "A/A4AsAcAK/4/m/Y/O/K/M/U/i/zAFAZAqA3A/BAA6AuAeAK/4/p/f/c/e/l/u/4"
+            + "AAAFAIAHAA#11#";
+    private static final String SECOND_NOTE_REMOVED = "AA#43#AA/2/V+e9R7v533p1G1L1k2o3t4G4M#2#";
+    private static final String SECOND_NOTE_READDED =
+            "84+o+//N/X/e/k/p/u/y/1/4/7/+AA#8#AAABAEAJAPAWAeAhAiAiAiAgAdAaAVA"
+            + "QAKAE///5/z/u/e+59/8x7T5g3Y071L1k2o3t4G4M#2#";
+    private static final String ONLY_SECOND_NOTE =
+            "DI#99#DIE3FOFcFmFtFzF4F9GBGEGHGKGNGQ#8#GQGRGUGZGfGmGuGxGyGyGyGwG"
+            + "tGqGlGgGaGUGOGIGCF9F4F0FxFvF0F5F/GFGQ#107#";
+
+    @Test
+    public void testRendersOverlappingNotes() {
+        PitchCurve curve = new PitchCurve(new PortamentoFactory());
+        PitchbendData first = new PitchbendData(
+                ImmutableList.of(-40.0),
+                ImmutableList.of(80.0, 60.0),
+                ImmutableList.of(5.0),
+                ImmutableList.of("", "s"));
+        PitchbendData second = new PitchbendData(
+                ImmutableList.of(-30.0),
+                ImmutableList.of(70.0),
+                ImmutableList.of(),
+                ImmutableList.of("r"),
+                new int[] {65, 180, 35, 20, 20, 0, 0, 0, 0, 0});
+        PitchbendData third = new PitchbendData(
+                ImmutableList.of(-50.0),
+                ImmutableList.of(40.0, 30.0),
+                ImmutableList.of(-20.0),
+                ImmutableList.of("j", ""),
+                new int[] {50, 100, 60, 10, 30, 25, 10, 0, 40, 0});
+        curve.addPitchbends(0, 480, first, 60, 62);
+        curve.addPitchbends(480, 240, second, 62, 64);
+        curve.addPitchbends(720, 480, third, 64, 59);
+        assertThat(curve.renderPitchbends(-10, 100, 62)).isEqualTo(FIRST_NOTE);
+        assertThat(curve.renderPitchbends(90, 150, 64)).isEqualTo(SECOND_NOTE);
+        assertThat(curve.renderPitchbends(130, 250, 59)).isEqualTo(THIRD_NOTE);
+
+        // Removing a note's vibrato also clears any other vibrato under that note.
+        curve.removePitchbends(480, 240, second);
+        assertThat(curve.renderPitchbends(90, 150, 64)).isEqualTo(SECOND_NOTE_REMOVED);
+
+        // Adding the same pitchbends twice has no effect the second time.
+        curve.addPitchbends(480, 240, second, 62, 64);
+        curve.addPitchbends(480, 240, second, 62, 64);
+        assertThat(curve.renderPitchbends(90, 150, 64)).isEqualTo(SECOND_NOTE_READDED);
+
+        curve.removePitchbends(720, 480, third);
+        curve.removePitchbends(0, 480, first);
+        assertThat(curve.renderPitchbends(-10, 250, 60)).isEqualTo(ONLY_SECOND_NOTE);
+    }
+
+    @Test
+    public void testLaterNotesWinWhateverTheOrderAdded() {
+        PitchbendData longBend = new PitchbendData(
+                ImmutableList.of(-600.0), // Starts before the short bend.
+                ImmutableList.of(800.0),
+                ImmutableList.of(),
+                ImmutableList.of("s"));
+        PitchbendData shortBend = new PitchbendData(
+                ImmutableList.of(-100.0),
+                ImmutableList.of(50.0),
+                ImmutableList.of(),
+                ImmutableList.of("s"));
+        PitchCurve inOrder = new PitchCurve(new PortamentoFactory());
+        inOrder.addPitchbends(0, 480, shortBend, 60, 62);
+        inOrder.addPitchbends(480, 480, longBend, 62, 67);
+        PitchCurve reversed = new PitchCurve(new PortamentoFactory());
+        reversed.addPitchbends(480, 480, longBend, 62, 67);
+        reversed.addPitchbends(0, 480, shortBend, 60, 62);
+        assertThat(reversed.renderPitchbends(-30, 200, 62))
+                .isEqualTo(inOrder.renderPitchbends(-30, 200, 62));
+
+        // Removing the later note uncovers the earlier note's bend again.
+        PitchCurve alone = new PitchCurve(new PortamentoFactory());
+        alone.addPitchbends(0, 480, shortBend, 60, 62);
+        assertThat(inOrder.renderPitchbends(-30, 200, 62))
+                .isNotEqualTo(alone.renderPitchbends(-30, 200, 62));
+        inOrder.removePitchbends(480, 480, longBend);
+        assertThat(inOrder.renderPitchbends(-30, 200, 62))
+                .isEqualTo(alone.renderPitchbends(-30, 200, 62));
+    }
+
+    @Test
+    public void testApplyRangeMatchesApply() {
+        PortamentoFactory factory = new PortamentoFactory();
+        for (String shape : new String[] {"s", "r", "j", ""}) {
+            assertRangeMatches(factory.makePortamento(-20, 600, 1980, 640, shape), 0, 396);
+            assertRangeMatches(factory.makePortamento(-20, 640, 1980, 600, shape), 0, 396);
+        }
+        // A vibrato whose frequency changes over its length, with steps before and after it.
+        assertRangeMatches(new Vibrato(1002.5, 4000, 180, 35, 20, 20, 30, 10, 60), 150, 850);
+        assertRangeMatches(new Vibrato(0, 3000, 90, 80, 0, 0, 0, 0, -100), 0, 600);
+    }
+
+    private static void assertRangeMatches(PitchMutation mutation, int firstStep, int lastStep) {
+        double[] pitches = new double[lastStep - firstStep + 3];
+        mutation.applyRange(firstStep, lastStep, pitches, 2);
+        for (int step = firstStep; step <= lastStep; step++) {
+            assertThat(pitches[step - firstStep + 2])
+                    .isWithin(1e-9)
+                    .of(mutation.apply(step * PitchMutation.MS_PER_STEP));
+        }
+    }
+}
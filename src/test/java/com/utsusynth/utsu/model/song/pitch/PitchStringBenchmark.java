@@ -0,0 +1,113 @@
+package com.utsusynth.utsu.model.song.pitch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.collect.ImmutableList;
+import com.utsusynth.utsu.common.data.PitchbendData;
+import com.utsusynth.utsu.model.song.pitch.portamento.PortamentoFactory;
+
+/**
+ * Compares writing pitch strings with {@link PitchStringEncoder} against the string concatenation
+ * it replaced, for notes of a few lengths. Not run as part of the tests. To run it:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.utsusynth.utsu.model.song.pitch.PitchStringBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PitchStringBenchmark {
+    @Param({"120", "960", "7680"}) // An eighth note, a whole note and a long held note.
+    public int noteLengthMs;
+
+    private PitchCurve curve;
+    private int[] cents;
+    private int lastStep;
+
+    @Setup
+    public void setUp() {
+        curve = new PitchCurve(new PortamentoFactory());
+        PitchbendData pitchbend = new PitchbendData(
+                ImmutableList.of(-40.0),
+                ImmutableList.of(80.0, noteLengthMs / 2.0),
+                ImmutableList.of(10.0),
+                ImmutableList.of("", "s"),
+                new int[] {70, 180, 35, 20, 20, 0, 0, 0, 0, 0});
+        curve.addPitchbends(0, noteLengthMs, pitchbend, 60, 64);
+        lastStep = noteLengthMs / 5;
+        cents = new int[lastStep + 1];
+        for (int i = 0; i < cents.length; i++) {
+            cents[i] = (int) (300 * Math.sin(i / 10.0));
+        }
+    }
+
+    @Benchmark
+    public String renderPitchbends() {
+        return curve.renderPitchbends(0, lastStep, 64);
+    }
+
+    @Benchmark
+    public String encoder() {
+        PitchStringEncoder encoder = new PitchStringEncoder();
+        for (int value : cents) {
+            encoder.appendCents(value);
+        }
+        return encoder.appendRepeats(cents.length).toString();
+    }
+
+    @Benchmark
+    public String stringConcatenation() {
+        String result = "";
+        for (int value : cents) {
+            result += convertTo12Bit(value);
+        }
+        return result + String.format("#%d#", cents.length);
+    }
+
+    // How pitch strings were written before PitchStringEncoder.
+    private static String convertTo12Bit(int convertMe) {
+        if (convertMe < 0) {
+            convertMe += 4096;
+        }
+        convertMe = Math.max(0, Math.min(4095, convertMe));
+        String result = "";
+        for (int sixBitNumber : ImmutableList.of(convertMe / 64, convertMe % 64)) {
+            if (sixBitNumber < 26) {
+                result += (char) (sixBitNumber + 'A');
+            } else if (sixBitNumber < 52) {
+                result += (char) (sixBitNumber - 26 + 'a');
+            } else if (sixBitNumber < 62) {
+                result += (char) (sixBitNumber - 52 + '0');
+            } else {
+                result += sixBitNumber == 62 ? '+' : '/';
+            }
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(
+                new OptionsBuilder().include(PitchStringBenchmark.class.getSimpleName()).build())
+                        .run();
+    }
+}
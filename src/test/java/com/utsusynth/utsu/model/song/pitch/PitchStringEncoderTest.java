@@ -0,0 +1,78 @@
+package com.utsusynth.utsu.model.song.pitch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Random;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+public class PitchStringEncoderTest {
+    @Test
+    public void testMatchesOriginalEncoding() {
+        PitchStringEncoder encoder = new PitchStringEncoder();
+        for (int cents = -5000; cents <= 5000; cents++) {
+            assertThat(encoder.reset().appendCents(cents).toString())
+                    .isEqualTo(convertTo12Bit(cents));
+        }
+        for (int repeats : new int[] {0, 1, 9, 10, 99, 100, 12345, Integer.MAX_VALUE, -7}) {
+            assertThat(encoder.reset().appendRepeats(repeats).toString())
+                    .isEqualTo(String.format("#%d#", repeats));
+        }
+    }
+
+    @Test
+    public void testLongStringsMatchOriginal() {
+        PitchStringEncoder encoder = new PitchStringEncoder();
+        Random random = new Random(18);
+        for (int attempt = 0; attempt < 3; attempt++) {
+            // Several thousand steps, longer than the initial buffer.
+            String expected = "";
+            encoder.reset();
+            for (int i = 0; i < 2000; i++) {
+                int cents = random.nextInt(6000) - 3000;
+                expected += convertTo12Bit(cents);
+                encoder.appendCents(cents);
+                if (random.nextInt(10) == 0) {
+                    int repeats = random.nextInt(500);
+                    expected += String.format("#%d#", repeats);
+                    encoder.appendRepeats(repeats);
+                }
+            }
+            assertThat(encoder.toString()).isEqualTo(expected);
+            assertThat(encoder.length()).isEqualTo(expected.length());
+        }
+    }
+
+    // The encoding PitchCurve used before it had an encoder, kept as a reference.
+    private static String convertTo12Bit(int convertMe) {
+        // Convert out of two's complement form.
+        if (convertMe < 0) {
+            convertMe += 4096;
+        }
+        // Make sure convertMe is between 0 and 4095.
+        convertMe = Math.max(0, Math.min(4095, convertMe));
+        String result = ""; // Set to 0 by default.
+        for (int sixBitNumber : ImmutableList.of(convertMe / 64, convertMe % 64)) {
+            if (sixBitNumber >= 0 && sixBitNumber < 26) {
+                result += (char) (sixBitNumber + 'A');
+            } else if (sixBitNumber >= 26 && sixBitNumber < 52) {
+                result += (char) (sixBitNumber - 26 + 'a');
+            } else if (sixBitNumber >= 52 && sixBitNumber < 62) {
+                result += (char) (sixBitNumber - 52 + '0');
+            } else if (sixBitNumber == 62) {
+                result += '+';
+            } else if (sixBitNumber == 63) {
+                result += '/';
+            } else {
+                // Return 0 if the number is not in range [0, 64).
+                return "AA";
+            }
+        }
+        if (result.length() != 2) {
+            return "AA";
+        }
+        return result;
+    }
+}